@@ -0,0 +1,48 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.repository.CartIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the striped block generator of cart ids with a single shared counter.
+ * Run it with several threads ({@code -Djmh.threads=8}) to see the contention of the shared counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CartIdGeneratorBenchmark {
+
+    private CartIdGenerator cartIdGenerator;
+    private AtomicLong counter;
+
+    @Setup
+    public void setUp() {
+        cartIdGenerator = new CartIdGenerator(1);
+        counter = new AtomicLong();
+    }
+
+    @Benchmark
+    public long stripedBlocks() {
+        return cartIdGenerator.nextId();
+    }
+
+    @Benchmark
+    public long sharedCounter() {
+        return counter.incrementAndGet();
+    }
+}
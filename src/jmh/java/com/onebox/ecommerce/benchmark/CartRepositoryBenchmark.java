@@ -0,0 +1,84 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.repository.CartRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the cart operations of {@link CartRepository} against a store
+ * that already holds {@code cartCount} carts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CartRepositoryBenchmark {
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    private int cartCount;
+
+    private CartRepository cartRepository;
+    private long[] cartIds;
+
+    @Setup
+    public void setUp() {
+        cartRepository = new CartRepository();
+        cartIds = new long[cartCount];
+        for (int i = 0; i < cartCount; i++) {
+            cartIds[i] = cartRepository.saveCart(new Cart(cartRepository.nextCartId())).getId();
+        }
+    }
+
+    @Benchmark
+    public Cart createAndDeleteCart() {
+        Cart cart = cartRepository.saveCart(new Cart(cartRepository.nextCartId()));
+        return cartRepository.deleteCart(cart.getId());
+    }
+
+    @Benchmark
+    public Cart getCart(Cursor cursor) {
+        return cartRepository.getCartById(cursor.nextCartId(cartIds));
+    }
+
+    @Benchmark
+    public Cart updateProduct(Cursor cursor) {
+        Product product = new Product(cursor.nextProductId(), "Apple", cursor.nextAmount());
+        return cartRepository.updateCart(cursor.nextCartId(cartIds), cart -> cart.putProduct(product));
+    }
+
+    /**
+     * Per-thread source of random cart ids, product ids and amounts.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final SplittableRandom random = new SplittableRandom();
+
+        long nextCartId(long[] cartIds) {
+            return cartIds[random.nextInt(cartIds.length)];
+        }
+
+        long nextProductId() {
+            return random.nextInt(1, 11);
+        }
+
+        int nextAmount() {
+            return random.nextInt(0, 10);
+        }
+    }
+}
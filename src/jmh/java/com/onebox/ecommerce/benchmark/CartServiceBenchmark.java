@@ -0,0 +1,86 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.dto.ProductDto;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.repository.CartRepository;
+import com.onebox.ecommerce.repository.ProductAvailableRepository;
+import com.onebox.ecommerce.service.CartService;
+import com.onebox.ecommerce.service.ProductAvailableService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link CartService#updateProductsFromCart(Long, List)} with {@code lines} products per request.
+ * Every thread works on its own cart and alternates between holding one unit of each product and
+ * releasing it, so the stock never runs out however long the benchmark runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CartServiceBenchmark {
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    private int cartCount;
+
+    @Param({"1", "10"})
+    private int lines;
+
+    private CartService cartService;
+
+    @Setup
+    public void setUp() {
+        ProductAvailableRepository productAvailableRepository = new ProductAvailableRepository();
+        cartService = new CartService(new CartRepository(), new ProductAvailableService(productAvailableRepository));
+        for (int i = 0; i < cartCount; i++) {
+            cartService.createCart();
+        }
+    }
+
+    @Benchmark
+    public Cart updateProductsFromCart(ThreadCart threadCart) {
+        return cartService.updateProductsFromCart(threadCart.cartId, threadCart.nextRequest());
+    }
+
+    /**
+     * The cart of a benchmark thread and the two requests it alternates between.
+     */
+    @State(Scope.Thread)
+    public static class ThreadCart {
+        private Long cartId;
+        private List<ProductDto> hold;
+        private List<ProductDto> release;
+        private boolean holding;
+
+        @Setup
+        public void setUp(CartServiceBenchmark benchmark) {
+            cartId = benchmark.cartService.createCart().getId();
+            hold = new ArrayList<>();
+            release = new ArrayList<>();
+            for (long productId = 1; productId <= benchmark.lines; productId++) {
+                hold.add(new ProductDto(productId, 1));
+                release.add(new ProductDto(productId, 0));
+            }
+        }
+
+        List<ProductDto> nextRequest() {
+            holding = !holding;
+            return holding ? hold : release;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.repository.CartRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one run of the inactivity sweep over a store of {@code cartCount} carts
+ * of which {@code expiredPercent} percent are inactive.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExpirySweepBenchmark {
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    private int cartCount;
+
+    @Param({"1", "100"})
+    private int expiredPercent;
+
+    private CartRepository cartRepository;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        cartRepository = new CartRepository();
+        LocalDateTime inactiveSince = LocalDateTime.now().minusMinutes(12);
+        int expiredCount = (int) ((long) cartCount * expiredPercent / 100);
+        for (int i = 0; i < cartCount; i++) {
+            Cart cart = new Cart(cartRepository.nextCartId());
+            if (i < expiredCount) {
+                cart.setLastUpdated(inactiveSince);
+            }
+            cartRepository.saveCart(cart);
+        }
+    }
+
+    @Benchmark
+    public List<Cart> deleteInactiveCarts() {
+        return cartRepository.deleteInactiveCarts();
+    }
+}
@@ -0,0 +1,41 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.model.ProductAvailable;
+import com.onebox.ecommerce.repository.ProductAvailableRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the catalog listing served by {@code GET /products}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductCatalogBenchmark {
+
+    private ProductAvailableRepository productAvailableRepository;
+
+    @Setup
+    public void setUp() {
+        productAvailableRepository = new ProductAvailableRepository();
+    }
+
+    @Benchmark
+    public List<ProductAvailable> getProducts() {
+        return productAvailableRepository.getProducts();
+    }
+}
@@ -0,0 +1,113 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.onebox.ecommerce.dto.CartSerializer;
+import com.onebox.ecommerce.dto.ProductAvailableSerializer;
+import com.onebox.ecommerce.dto.ProductSerializer;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.model.ProductAvailable;
+import com.onebox.ecommerce.repository.ProductAvailableRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Measures the encoding of the responses of {@code GET /cart/{cartId}}, with {@code lines} products,
+ * and of a page of {@code GET /products}, in JSON and in CBOR, with the streaming serializers of the
+ * products or with the serializers Jackson builds by reflection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseEncodingBenchmark {
+
+    private static final int CATALOG_SIZE = 1000;
+
+    @Param({"json", "cbor"})
+    private String format;
+
+    @Param({"streaming", "reflective"})
+    private String serializers;
+
+    @Param({"50"})
+    private int lines;
+
+    private ObjectMapper mapper;
+
+    private Cart cart;
+
+    private List<ProductAvailable> products;
+
+    private List<Product> cartProducts;
+
+    @Setup
+    public void setUp() throws IOException {
+        ProductAvailableRepository productAvailableRepository = new ProductAvailableRepository();
+        Map<Long, UnaryOperator<ProductAvailable>> updates = new HashMap<>();
+        for (long id = 1; id <= CATALOG_SIZE; id++) {
+            long productId = id;
+            updates.put(productId, before -> new ProductAvailable(productId, "Product " + productId,
+                    (int) productId * 10, productId * 25));
+        }
+        productAvailableRepository.updateProducts(updates);
+
+        cart = new Cart(1L);
+        long[] productIds = new long[lines];
+        int[] amounts = new int[lines];
+        for (int i = 0; i < lines; i++) {
+            productIds[i] = i * (CATALOG_SIZE / lines) + 1;
+            amounts[i] = i + 1;
+        }
+        cart.putProducts(productIds, amounts);
+        cartProducts = new ArrayList<>(cart.getProducts(productAvailableRepository::getDescription).values());
+        products = productAvailableRepository.getProducts(Long.MIN_VALUE, 100);
+
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(Cart.class, new CartSerializer(productAvailableRepository));
+        if ("streaming".equals(serializers)) {
+            module.addSerializer(ProductAvailable.class, new ProductAvailableSerializer());
+            module.addSerializer(Product.class, new ProductSerializer());
+        }
+        JsonFactory factory = "cbor".equals(format) ? new CBORFactory() : new JsonFactory();
+        mapper = new Jackson2ObjectMapperBuilder().factory(factory).modulesToInstall(module).build();
+    }
+
+    @Benchmark
+    public byte[] encodeCart() throws IOException {
+        return mapper.writeValueAsBytes(cart);
+    }
+
+    @Benchmark
+    public byte[] encodeCartProducts() throws IOException {
+        return mapper.writeValueAsBytes(cartProducts);
+    }
+
+    @Benchmark
+    public byte[] encodeProducts() throws IOException {
+        return mapper.writeValueAsBytes(products);
+    }
+}
@@ -0,0 +1,78 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.dto.ProductUpdateDto;
+import com.onebox.ecommerce.model.StockCounter;
+import com.onebox.ecommerce.repository.ProductAvailableRepository;
+import com.onebox.ecommerce.service.ProductAvailableService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reserves and releases one unit of a single product from every thread, comparing the striped stock
+ * counter with a single compare-and-set counter, and measuring the whole reservation path of the service.
+ * Run it with an increasing number of threads ({@code -Djmh.threads=1}, {@code 4}, {@code 16}...) to see
+ * how each of them scales on a hot product.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StockCounterBenchmark {
+
+    private static final int STOCK = 1_000_000;
+    private static final long PRODUCT_ID = 1L;
+
+    private StockCounter stripedCounter;
+    private AtomicInteger singleCounter;
+    private ProductAvailableService productAvailableService;
+
+    @Setup
+    public void setUp() {
+        stripedCounter = new StockCounter(STOCK);
+        singleCounter = new AtomicInteger(STOCK);
+        productAvailableService = new ProductAvailableService(new ProductAvailableRepository());
+        productAvailableService.updateProducts(List.of(new ProductUpdateDto(PRODUCT_ID, null, null, STOCK)));
+    }
+
+    @Benchmark
+    public boolean stripedCounter() {
+        boolean reserved = stripedCounter.tryReserve(1);
+        if (reserved) {
+            stripedCounter.release(1);
+        }
+        return reserved;
+    }
+
+    @Benchmark
+    public boolean singleCounter() {
+        int current;
+        do {
+            current = singleCounter.get();
+            if (current < 1) {
+                return false;
+            }
+        } while (!singleCounter.compareAndSet(current, current - 1));
+        singleCounter.addAndGet(1);
+        return true;
+    }
+
+    @Benchmark
+    public Object serviceReservation() {
+        productAvailableService.adjustStock(PRODUCT_ID, 1);
+        return productAvailableService.adjustStock(PRODUCT_ID, -1);
+    }
+}
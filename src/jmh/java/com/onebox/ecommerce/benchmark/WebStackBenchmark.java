@@ -0,0 +1,96 @@
+package com.onebox.ecommerce.benchmark;
+
+import com.onebox.ecommerce.EcommerceApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the servlet and the reactive stack serving the same endpoints in the same JVM and on the
+ * same hardware. Each trial starts the application with {@code spring.main.web-application-type}
+ * set to the {@code stack} parameter on a random port, and the benchmark threads send requests over
+ * keep-alive HTTP/1.1 connections, one client connection per thread at a time. Run it with many threads
+ * ({@code -Djmh.threads=64}) on an otherwise idle machine, since the clients share the processors
+ * with the server; the sample time mode reports the p99 latency besides the throughput.
+ * The {@code virtualThreads} parameter runs the servlet requests and the scheduled tasks on virtual
+ * threads. It is only {@code false} by default, since Java 17 has no virtual threads; the {@code java21}
+ * profile adds the {@code true} case.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WebStackBenchmark {
+
+    @Param({"servlet", "reactive"})
+    private String stack;
+
+    @Param({"false"})
+    private boolean virtualThreads;
+
+    private ConfigurableApplicationContext context;
+
+    private HttpClient client;
+
+    private URI cartUri;
+
+    private URI productsUri;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        context = new SpringApplicationBuilder(EcommerceApplication.class)
+                .properties("server.port=0", "spring.main.web-application-type=" + stack,
+                        "spring.threads.virtual.enabled=" + virtualThreads,
+                        "logging.level.root=WARN", "logging.level.com.onebox.ecommerce.events=OFF")
+                .run();
+        String baseUri = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpResponse<String> created = client.send(HttpRequest.newBuilder(URI.create(baseUri + "/cart"))
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        String body = created.body();
+        String cartId = body.substring(body.indexOf(':') + 1, body.indexOf(','));
+        cartUri = URI.create(baseUri + "/cart/" + cartId);
+        productsUri = URI.create(baseUri + "/products?limit=10");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int getCart() throws IOException, InterruptedException {
+        return send(cartUri);
+    }
+
+    @Benchmark
+    public int getProductsPage() throws IOException, InterruptedException {
+        return send(productsUri);
+    }
+
+    private int send(URI uri) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.discarding())
+                .statusCode();
+    }
+}
@@ -0,0 +1,141 @@
+package com.onebox.ecommerce.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Configuration properties for the in-memory cart store, bound from the {@code ecommerce.cart} prefix.
+ * A new instance holds the default value of every property.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "ecommerce.cart")
+public class CartProperties {
+
+    /**
+     * The inactivity period after which a cart is deleted.
+     */
+    private Duration inactiveTtl = Duration.ofMinutes(10);
+
+    /**
+     * The granularity of the expiry index, which is also the rate of the expiry sweep.
+     */
+    private Duration expiryTick = Duration.ofSeconds(1);
+
+    /**
+     * The maximum number of carts kept in memory; 0 means no limit. When the limit is reached, carts are
+     * evicted by frequency and recency of use. Ignored if {@link #maxMemory} is set.
+     */
+    private long maxCarts = 0;
+
+    /**
+     * The approximate memory the carts may use, estimated from the number of lines of each cart;
+     * null means no limit. When the limit is reached, carts are evicted by frequency and recency of use.
+     */
+    private DataSize maxMemory;
+
+    /**
+     * The id of this instance of the service, embedded in the cart ids so that instances with
+     * different node ids never generate the same cart id. Between 0 and 1023, so that the cart ids stay below
+     * 2^53 and exact in JSON clients that read numbers as doubles.
+     */
+    private long nodeId = 0;
+
+    /**
+     * The optional persistence of the carts in an append-only journal.
+     */
+    private Journal journal = new Journal();
+
+    /**
+     * The replay of the responses of retried cart mutations sent with an {@code Idempotency-Key} header.
+     */
+    private Idempotency idempotency = new Idempotency();
+
+    /**
+     * Configuration of the cart journal, bound from the {@code ecommerce.cart.journal} prefix.
+     */
+    @Getter
+    @Setter
+    public static class Journal {
+
+        /**
+         * Whether every cart mutation is appended to the journal and the carts are restored on startup.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The directory of the journal segments and the snapshot.
+         */
+        private Path directory = Path.of("data", "journal");
+
+        /**
+         * The size of each memory-mapped journal segment.
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * When the appended records are forced to disk.
+         */
+        private FsyncPolicy fsync = FsyncPolicy.GROUP;
+
+        /**
+         * The period between two forces of the journal with the {@link FsyncPolicy#INTERVAL} policy.
+         */
+        private Duration fsyncInterval = Duration.ofMillis(100);
+
+        /**
+         * The period between two compacted snapshots of the carts.
+         */
+        private Duration snapshotInterval = Duration.ofMinutes(5);
+    }
+
+    /**
+     * Configuration of the idempotency keys of the cart mutations, bound from the
+     * {@code ecommerce.cart.idempotency} prefix.
+     */
+    @Getter
+    @Setter
+    public static class Idempotency {
+
+        /**
+         * Whether the {@code Idempotency-Key} header is honored; when disabled it is ignored.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The period during which a key is remembered, counted from its first request rather than from its completion.
+         */
+        private Duration ttl = Duration.ofMinutes(10);
+
+        /**
+         * The maximum number of keys remembered; when reached, keys are evicted by frequency and recency of use.
+         */
+        private long maxKeys = 100_000;
+    }
+
+    /**
+     * Policies to force the journal to disk.
+     */
+    public enum FsyncPolicy {
+
+        /**
+         * Every mutation forces its own record before the request completes.
+         */
+        PER_WRITE,
+
+        /**
+         * Every mutation waits until its record is forced, and concurrent mutations share a single force.
+         */
+        GROUP,
+
+        /**
+         * Mutations do not wait; the journal is forced in the background at a fixed interval.
+         */
+        INTERVAL
+    }
+}
@@ -0,0 +1,34 @@
+package com.onebox.ecommerce.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+
+/**
+ * Configuration properties for the product catalog, bound from the {@code ecommerce.catalog} prefix.
+ * A new instance holds the default value of every property, which loads the predefined products.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "ecommerce.catalog")
+public class CatalogProperties {
+
+    /**
+     * The CSV ({@code id,description,stock}) or NDJSON file the catalog is loaded from on startup,
+     * or null to load the predefined products.
+     */
+    private Path source;
+
+    /**
+     * The binary snapshot of the catalog, or null to disable it. The snapshot is written after the
+     * source is loaded and used instead of the source while it is newer than the source.
+     */
+    private Path snapshot;
+
+    /**
+     * The number of threads that parse and index the source; 0 uses one per available processor.
+     */
+    private int parallelism;
+}
@@ -0,0 +1,30 @@
+package com.onebox.ecommerce.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the asynchronous log of request events, bound from the
+ * {@code ecommerce.events} prefix. A new instance holds the default value of every property.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "ecommerce.events")
+public class EventProperties {
+
+    /**
+     * The number of events the queue holds; events published while it is full are dropped and counted.
+     */
+    private int capacity = 8192;
+
+    /**
+     * The maximum number of events written to the log at a time.
+     */
+    private int batchSize = 256;
+
+    /**
+     * One of every this many high-volume events, such as cart retrievals, is logged; 1 logs all of them.
+     */
+    private int sampleEvery = 1;
+}
@@ -0,0 +1,119 @@
+package com.onebox.ecommerce.controller;
+
+import com.onebox.ecommerce.dto.ProductUpdateDto;
+import com.onebox.ecommerce.service.CartService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.headers.Header;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.beans.factory.annotation.Autowired;
+import jakarta.validation.Valid;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * REST controller for administrative operations over the catalog and the carts.
+ * It lists the carts affected by a product, for instance before correcting its stock or withdrawing
+ * it, from the index of the carts holding each product kept by the cart store, and updates the
+ * catalog in bulk.
+ * It is registered on the servlet stack; the reactive stack serves the same contract through the
+ * {@link ReactiveCartHandler}.
+ */
+@RestController
+@RequestMapping("/admin")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class AdminController {
+
+    /**
+     * Response header holding the number of carts holding the product.
+     */
+    static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+    /**
+     * The service used to handle cart operations.
+     */
+    private final CartService cartService;
+
+    /**
+     * Constructs a new AdminController with the specified CartService.
+     *
+     * @param cartService the service to be used for cart operations
+     */
+    @Autowired
+    public AdminController(CartService cartService) {
+        this.cartService = cartService;
+    }
+
+    /**
+     * Adds or updates several products of the catalog at once.
+     * The updates are published as a single new version of the catalog, and the subtotals of the carts
+     * holding a product whose price changed are recomputed.
+     *
+     * @param products the updates of the products; the fields left out keep their current value
+     * @return a ResponseEntity with a status of 204 (No Content)
+     */
+    @Operation(summary = "Add or update products of the catalog in bulk")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "204", description = "Catalog updated", content = @Content)
+    })
+    @PutMapping("/products")
+    public ResponseEntity<Void> updateProducts(@Valid @RequestBody List<ProductUpdateDto> products) {
+        cartService.updateCatalog(products);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    /**
+     * Retrieves a page of the IDs of the carts holding a product, sorted by cart ID.
+     * The page starts after the given cart ID and holds at most {@code limit} IDs (100 by default,
+     * 1000 at most); when the page is full, the {@value ProductAvailableController#NEXT_AFTER_HEADER}
+     * header holds the {@code after} value of the next page.
+     *
+     * @param productId the ID of the product
+     * @param after     the cart ID after which the page starts
+     * @param limit     the maximum number of cart IDs of the page
+     * @return ResponseEntity containing the cart IDs and HTTP status
+     */
+    @Operation(summary = "Get a page of the carts holding a product")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Cart IDs retrieved",
+                    headers = {
+                            @Header(name = ProductAvailableController.NEXT_AFTER_HEADER,
+                                    description = "The cursor of the next page"),
+                            @Header(name = TOTAL_COUNT_HEADER, description = "The number of carts holding the product")
+                    },
+                    content = {@Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = Long.class)))})
+    })
+    @GetMapping("/products/{productId}/carts")
+    public ResponseEntity<long[]> getCartsWithProduct(
+            @PathVariable Long productId,
+            @Parameter(description = "The cart ID after which the page starts")
+            @RequestParam(required = false) Long after,
+            @Parameter(description = "The maximum number of cart IDs of the page")
+            @RequestParam(required = false) Integer limit) {
+        long afterCartId = after == null ? Long.MIN_VALUE : after;
+        int pageSize = limit == null ? ProductAvailableController.DEFAULT_PAGE_SIZE
+                : Math.max(1, Math.min(limit, ProductAvailableController.MAX_PAGE_SIZE));
+        long[] cartIds = cartService.getCartIdsWithProduct(productId, afterCartId, pageSize);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header(TOTAL_COUNT_HEADER, Integer.toString(cartService.countCartsWithProduct(productId)));
+        if (cartIds.length == pageSize) {
+            response.header(ProductAvailableController.NEXT_AFTER_HEADER, Long.toString(cartIds[pageSize - 1]));
+        }
+        return response.body(cartIds);
+    }
+}
@@ -1,69 +1,148 @@
 package com.onebox.ecommerce.controller;
 
+import com.onebox.ecommerce.dto.CartDelta;
+import com.onebox.ecommerce.dto.CartLookup;
+import com.onebox.ecommerce.dto.CartSummary;
+import com.onebox.ecommerce.dto.LineChangeDto;
 import com.onebox.ecommerce.dto.ProductDto;
+import com.onebox.ecommerce.exception.NotFoundException;
 import com.onebox.ecommerce.exception.WebRestControllerAdvice;
 import com.onebox.ecommerce.model.Cart;
 import com.onebox.ecommerce.service.CartService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 /**
  * REST controller for managing shopping carts.
- * This controller provides endpoints for creating, retrieving, updating and deleting a cart by its ID.
+ * This controller provides endpoints for creating, retrieving, summarizing, updating, partially updating
+ * and deleting a cart by its ID, and for creating or retrieving up to {@value #MAX_BATCH_SIZE} carts at once.
  * It leverages the {@link CartService} for business logic and uses Swagger annotations
  * to document its endpoints.
+ * It is registered on the servlet stack; the reactive stack serves the same contract through the
+ * {@link ReactiveCartHandler}.
+ * The mutations accept an optional {@code Idempotency-Key} header: a retry with the key of an earlier
+ * request is answered from the {@link IdempotencyCache} with the response of that request, without
+ * running the mutation again.
  */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/cart")
 public class CartController {
 
+    /**
+     * The maximum number of carts created or retrieved by a single request.
+     */
+    static final int MAX_BATCH_SIZE = 1000;
+
     /**
      * The service used to handle cart operations.
      */
     private final CartService cartService;
 
     /**
-     * Constructs a new CartController with the specified CartService.
+     * The responses of the mutations sent with an idempotency key.
+     */
+    private final IdempotencyCache idempotencyCache;
+
+    /**
+     * Constructs a new CartController with the specified CartService and IdempotencyCache.
      *
-     * @param cartService the service to be used for cart operations
+     * @param cartService      the service to be used for cart operations
+     * @param idempotencyCache the responses of the mutations sent with an idempotency key
      */
     @Autowired
-    public CartController(CartService cartService) {
+    public CartController(CartService cartService, IdempotencyCache idempotencyCache) {
         this.cartService = cartService;
+        this.idempotencyCache = idempotencyCache;
     }
 
     /**
      * Creates a new shopping cart.
      *
+     * @param idempotencyKey the optional key of the request; a retry with the same key gets the same cart
      * @return a ResponseEntity containing the newly created cart and a status of 201 (Created)
      */
     @Operation(summary = "Create a new cart")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "201", description = "Cart created",
                     content = { @Content(mediaType = "application/json",
-                            schema = @Schema(implementation = Cart.class)) })
+                            schema = @Schema(implementation = Cart.class)) }),
+            @ApiResponse(responseCode = "422", description = "Idempotency key reused by another request",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = WebRestControllerAdvice.ErrorResponse.class)) })
     })
     @PostMapping
-    public ResponseEntity<Cart> createCart() {
-        Cart cart = cartService.createCart();
-        return new ResponseEntity<>(cart, HttpStatus.CREATED);
+    public ResponseEntity<Cart> createCart(
+            @RequestHeader(value = IdempotencyCache.KEY_HEADER, required = false) String idempotencyKey) {
+        return idempotent(idempotencyKey, IdempotencyCache.createFingerprint(), HttpStatus.CREATED,
+                cartService::createCart);
+    }
+
+    /**
+     * Creates several shopping carts at once, saved in a single pass through the store.
+     *
+     * @param count the number of carts to create, from 1 to {@value #MAX_BATCH_SIZE}
+     * @return a ResponseEntity containing the newly created carts and a status of 201 (Created)
+     */
+    @Operation(summary = "Create several carts")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "Carts created",
+                    content = { @Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = Cart.class))) }),
+            @ApiResponse(responseCode = "400", description = "Invalid count", content = @Content)
+    })
+    @PostMapping("/batch")
+    public ResponseEntity<List<Cart>> createCarts(
+            @Parameter(description = "The number of carts to create") @RequestParam int count) {
+        checkBatchSize("count", count);
+        return new ResponseEntity<>(cartService.createCarts(count), HttpStatus.CREATED);
+    }
+
+    /**
+     * Retrieves several carts by their IDs. Each ID gets an item in the order of the request, holding
+     * either its cart or the error of an ID without cart, so an unknown ID does not fail the others.
+     *
+     * @param ids the IDs of the carts to retrieve, from 1 to {@value #MAX_BATCH_SIZE}
+     * @return a ResponseEntity containing the item of each ID and a status of 200 (OK)
+     */
+    @Operation(summary = "Get several carts by ID")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Carts looked up",
+                    content = { @Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = CartLookup.class))) }),
+            @ApiResponse(responseCode = "400", description = "Invalid IDs", content = @Content)
+    })
+    @GetMapping
+    public ResponseEntity<List<CartLookup>> getCarts(
+            @Parameter(description = "The comma-separated IDs of the carts") @RequestParam long[] ids) {
+        checkBatchSize("ids", ids.length);
+        return new ResponseEntity<>(CartLookup.of(ids, cartService.findCartsByIds(ids)), HttpStatus.OK);
     }
 
     /**
@@ -84,15 +163,40 @@ public class CartController {
     })
     @GetMapping("/{cartId}")
     public ResponseEntity<Cart> getCartById(@PathVariable Long cartId) {
-        Cart cart =  cartService.getCartById(cartId);
+        Cart cart = cartService.findCartById(cartId).orElseThrow(() -> NotFoundException.cart(cartId));
         return new ResponseEntity<>(cart, HttpStatus.OK);
     }
 
+    /**
+     * Retrieves the totals of a cart by its ID: its line count, item count and subtotal in minor units.
+     * The lines of the cart are not serialized, so it is cheaper than retrieving the whole cart.
+     *
+     * @param cartId the ID of the cart to summarize
+     * @return a ResponseEntity containing the summary of the cart and a status of 200 (OK) if found;
+     *         otherwise, a 404 (Not Found) response is returned.
+     */
+    @Operation(summary = "Get the totals of a cart by ID")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Cart found",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = CartSummary.class)) }),
+            @ApiResponse(responseCode = "404", description = "Cart not found",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = WebRestControllerAdvice.ErrorResponse.class)) })
+    })
+    @GetMapping("/{cartId}/summary")
+    public ResponseEntity<CartSummary> getCartSummary(@PathVariable Long cartId) {
+        Cart cart = cartService.findCartById(cartId).orElseThrow(() -> NotFoundException.cart(cartId));
+        return new ResponseEntity<>(CartSummary.of(cart), HttpStatus.OK);
+    }
+
     /**
      * Updates the products in a specified cart.
      *
      * @param cartId   the ID of the cart to update
      * @param products the list of products to update in the cart
+     * @param idempotencyKey the optional key of the request; a retry with the same key and products
+     *                       gets the same response without updating the cart again
      * @return a ResponseEntity containing the updated cart and a status of 200 (OK) if the cart is found;
      *         otherwise, a 404 (Not Found) response is returned.
      */
@@ -102,20 +206,59 @@ public class CartController {
                     content = { @Content(mediaType = "application/json",
                             schema = @Schema(implementation = Cart.class)) }),
             @ApiResponse(responseCode = "404", description = "Cart not found",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = WebRestControllerAdvice.ErrorResponse.class)) }),
+            @ApiResponse(responseCode = "422", description = "Idempotency key reused by another request",
                     content = { @Content(mediaType = "application/json",
                             schema = @Schema(implementation = WebRestControllerAdvice.ErrorResponse.class)) })
     })
     @PutMapping("/{cartId}")
     public ResponseEntity<Cart> updateProductsFromCart(@PathVariable Long cartId,
-                                                       @Valid @RequestBody List<ProductDto> products) {
-        Cart cart =  cartService.updateProductsFromCart(cartId, products);
-        return new ResponseEntity<>(cart, HttpStatus.OK);
+                                                       @Valid @RequestBody List<ProductDto> products,
+                                                       @RequestHeader(value = IdempotencyCache.KEY_HEADER,
+                                                               required = false) String idempotencyKey) {
+        return idempotent(idempotencyKey, IdempotencyCache.updateFingerprint(cartId, products), HttpStatus.OK,
+                () -> cartService.updateProductsFromCart(cartId, products));
+    }
+
+    /**
+     * Changes some lines of a cart by increments, decrements and removals, and returns only the changed lines.
+     *
+     * @param cartId         the ID of the cart to update
+     * @param changes        the changes of the lines of the cart
+     * @param idempotencyKey the optional key of the request; a retry with the same key and changes gets the
+     *                       same response without applying the changes again
+     * @return a ResponseEntity containing the changed lines with their new amount and the new version and totals
+     *         of the cart and a status of 200 (OK) if the cart is found; otherwise, a 404 (Not Found) response
+     *         is returned.
+     */
+    @Operation(summary = "Change some lines of a cart")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Cart updated",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = CartDelta.class)) }),
+            @ApiResponse(responseCode = "404", description = "Cart not found",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = WebRestControllerAdvice.ErrorResponse.class)) }),
+            @ApiResponse(responseCode = "422", description = "Idempotency key reused by another request",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = WebRestControllerAdvice.ErrorResponse.class)) })
+    })
+    @PatchMapping("/{cartId}")
+    public ResponseEntity<CartDelta> patchCart(@PathVariable Long cartId,
+                                               @Valid @RequestBody List<LineChangeDto> changes,
+                                               @RequestHeader(value = IdempotencyCache.KEY_HEADER,
+                                                       required = false) String idempotencyKey) {
+        return idempotent(idempotencyKey, IdempotencyCache.patchFingerprint(cartId, changes), HttpStatus.OK,
+                () -> cartService.patchCart(cartId, changes));
     }
 
     /**
      * Deletes a cart by its ID.
      *
      * @param cartId the ID of the cart to delete
+     * @param idempotencyKey the optional key of the request; a retry with the same key gets a 204 (No Content)
+     *                       response instead of a 404 (Not Found) one
      * @return a ResponseEntity with a status of 204 (No Content) if the deletion is successful;
      *         otherwise, a 404 (Not Found) response is returned.
      */
@@ -124,12 +267,71 @@ public class CartController {
             @ApiResponse(responseCode = "204", description = "Cart deleted",
                     content = @Content),
             @ApiResponse(responseCode = "404", description = "Cart not found",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = WebRestControllerAdvice.ErrorResponse.class)) }),
+            @ApiResponse(responseCode = "422", description = "Idempotency key reused by another request",
                     content = { @Content(mediaType = "application/json",
                             schema = @Schema(implementation = WebRestControllerAdvice.ErrorResponse.class)) })
     })
     @DeleteMapping("/{cartId}")
-    public ResponseEntity<Cart> deleteCart(@PathVariable Long cartId) {
-        cartService.deleteCart(cartId);
-        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    public ResponseEntity<Cart> deleteCart(@PathVariable Long cartId,
+            @RequestHeader(value = IdempotencyCache.KEY_HEADER, required = false) String idempotencyKey) {
+        return idempotent(idempotencyKey, IdempotencyCache.deleteFingerprint(cartId), HttpStatus.NO_CONTENT, () -> {
+            cartService.deleteCart(cartId);
+            return null;
+        });
+    }
+
+    /**
+     * Checks the number of carts of a batch request.
+     *
+     * @param name the name of the parameter holding the carts
+     * @param size the number of carts
+     * @throws ResponseStatusException with a 400 (Bad Request) status if the number is not between 1 and
+     *                                 {@value #MAX_BATCH_SIZE}
+     */
+    static void checkBatchSize(String name, long size) {
+        if (size < 1 || size > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Invalid %s: between 1 and %d carts are allowed, got %d".formatted(name, MAX_BATCH_SIZE, size));
+        }
+    }
+
+    /**
+     * Runs a mutation of a cart, unless a request with the same idempotency key already ran it, in which case
+     * the response of that request is returned, after waiting for it if it is still running.
+     * A mutation that fails with any throwable forgets its key and hands the error to the retries waiting for it.
+     *
+     * @param idempotencyKey the key of the request, or null if it was sent without one
+     * @param fingerprint    the fingerprint of the request, which a retry with the same key must match
+     * @param status         the status of the response
+     * @param mutation       the mutation, returning the body of the response or null for a response without body
+     * @param <T>            the type of the body of the response
+     * @return the response of the mutation or of the earlier request with the same key
+     */
+    private <T> ResponseEntity<T> idempotent(String idempotencyKey, String fingerprint, HttpStatus status,
+                                             Supplier<T> mutation) {
+        IdempotencyCache.Attempt attempt = idempotencyCache.claim(idempotencyKey, fingerprint);
+        if (attempt == null) {
+            return new ResponseEntity<>(mutation.get(), status);
+        }
+        if (attempt.isReplay()) {
+            T body;
+            try {
+                body = attempt.<T>response().join();
+            } catch (CompletionException ex) {
+                throw ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+            }
+            return ResponseEntity.status(status).header(IdempotencyCache.REPLAYED_HEADER, "true").body(body);
+        }
+        T body;
+        try {
+            body = mutation.get();
+        } catch (Throwable ex) {
+            attempt.fail(ex);
+            throw ex;
+        }
+        attempt.complete(body);
+        return new ResponseEntity<>(body, status);
     }
 }
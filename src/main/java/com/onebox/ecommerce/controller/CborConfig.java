@@ -0,0 +1,137 @@
+package com.onebox.ecommerce.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration of the CBOR encoding of the responses, negotiated with the {@code Accept} header.
+ * Internal callers that send {@code Accept: application/cbor} get the same responses as in JSON,
+ * encoded in the compact binary CBOR format, which is smaller and cheaper to encode and decode.
+ * The CBOR mapper is a copy of the JSON one with a CBOR factory, so it writes the same fields with the
+ * same serializers, including the streaming ones of the carts and the products.
+ * Without an {@code Accept} header that prefers CBOR, every response stays JSON.
+ */
+@Configuration
+public class CborConfig {
+
+    /**
+     * Builds a mapper that writes and reads CBOR like the given mapper writes and reads JSON.
+     *
+     * @param objectMapper the JSON mapper of the application
+     * @return the CBOR mapper
+     */
+    public static ObjectMapper cborMapper(ObjectMapper objectMapper) {
+        return objectMapper.copyWith(new CBORFactory());
+    }
+
+    /**
+     * Chooses the media type of a response from the media types accepted by the client: CBOR if the client
+     * accepts it with a higher quality than JSON, JSON otherwise.
+     *
+     * @param accepted the media types of the {@code Accept} header
+     * @return {@link MediaType#APPLICATION_CBOR} or {@link MediaType#APPLICATION_JSON}
+     */
+    public static MediaType responseType(List<MediaType> accepted) {
+        double cbor = 0;
+        double json = 0;
+        for (MediaType type : accepted) {
+            if (type.equalsTypeAndSubtype(MediaType.APPLICATION_CBOR)) {
+                cbor = Math.max(cbor, type.getQualityValue());
+            } else if (type.equalsTypeAndSubtype(MediaType.APPLICATION_JSON)) {
+                json = Math.max(json, type.getQualityValue());
+            }
+        }
+        return cbor > json ? MediaType.APPLICATION_CBOR : MediaType.APPLICATION_JSON;
+    }
+
+    /**
+     * Chooses the media type of a response from the {@code Accept} header of the client, like
+     * {@link #responseType(List)}. A header that can not be parsed accepts JSON, so a malformed header gets
+     * the default response instead of an error.
+     *
+     * @param accept the header value, or null
+     * @return {@link MediaType#APPLICATION_CBOR} or {@link MediaType#APPLICATION_JSON}
+     */
+    public static MediaType responseType(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return MediaType.APPLICATION_JSON;
+        }
+        try {
+            return responseType(MediaType.parseMediaTypes(accept));
+        } catch (InvalidMediaTypeException ex) {
+            return MediaType.APPLICATION_JSON;
+        }
+    }
+
+    /**
+     * Builds the converter of the CBOR responses of the servlet stack, which replaces the default one so
+     * that it uses the serializers of the application.
+     *
+     * @param objectMapper the JSON mapper of the application
+     * @return the CBOR converter
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(ObjectMapper objectMapper) {
+        return new MappingJackson2CborHttpMessageConverter(cborMapper(objectMapper));
+    }
+
+    /**
+     * Registers the CBOR encoder and decoder of the reactive stack, with the serializers of the application.
+     *
+     * @param objectMapper the JSON mapper of the application
+     * @return the customizer of the codecs
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public CodecCustomizer cborCodecCustomizer(ObjectMapper objectMapper) {
+        ObjectMapper cborMapper = cborMapper(objectMapper);
+        return configurer -> {
+            configurer.customCodecs().register(new SingleValueCborEncoder(cborMapper));
+            configurer.customCodecs().register(new Jackson2CborDecoder(cborMapper, MediaType.APPLICATION_CBOR));
+        };
+    }
+
+    /**
+     * CBOR encoder of the reactive stack. Spring's encoder only encodes a value through
+     * {@link #encodeValue}, while the bodies of the responses are written through {@link #encode};
+     * this one encodes the single value of a {@link Mono} with {@link #encodeValue}.
+     * The codecs are given their media type explicitly, since without one they claim the JSON ones.
+     */
+    private static final class SingleValueCborEncoder extends Jackson2CborEncoder {
+
+        private SingleValueCborEncoder(ObjectMapper mapper) {
+            super(mapper, MediaType.APPLICATION_CBOR);
+        }
+
+        @Override
+        public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+                                       ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+            if (inputStream instanceof Mono) {
+                return Mono.from(inputStream)
+                        .map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints))
+                        .flux();
+            }
+            return super.encode(inputStream, bufferFactory, elementType, mimeType, hints);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.onebox.ecommerce.controller;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.dto.LineChangeDto;
+import com.onebox.ecommerce.dto.ProductDto;
+import com.onebox.ecommerce.exception.IdempotencyKeyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bounded cache of the responses of the cart mutations sent with an {@code Idempotency-Key} header,
+ * so a client that retries a request after a timeout gets the response of its first attempt instead
+ * of running the mutation again, or creating a second cart.
+ * The first request with a key claims it and stores the body it answered with, a cart as a snapshot; a retry
+ * with the same key is answered from that snapshot without reaching the service, and a retry that
+ * arrives while the first attempt is still running waits for its outcome. A failed attempt is
+ * forgotten, so its retry runs again. A key is bound to the endpoint and the body of its first request:
+ * reusing it for another one is rejected with an {@link IdempotencyKeyException}. A body is bound by the
+ * SHA-256 digest of its canonical form, so two different bodies never share a fingerprint.
+ * The keys are kept in a Caffeine cache bounded by {@link CartProperties.Idempotency#getMaxKeys()} and
+ * evicted {@link CartProperties.Idempotency#getTtl()} after their first request.
+ * It serves both the servlet and the reactive stack.
+ */
+@Component
+public class IdempotencyCache {
+
+    /**
+     * The header of the key chosen by the client for a mutation and its retries.
+     */
+    public static final String KEY_HEADER = "Idempotency-Key";
+
+    /**
+     * The header added to the responses answered from the cache.
+     */
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    /**
+     * The maximum length of a key, which bounds the memory of the cache with its number of keys.
+     */
+    public static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * The attempt of each key, or null if the keys are ignored.
+     */
+    private final Cache<String, Attempt> attempts;
+
+    /**
+     * Counts the responses answered from the cache.
+     */
+    private final Counter replayCounter;
+
+    /**
+     * Constructs a new IdempotencyCache.
+     *
+     * @param properties    the cart store configuration, with the idempotency configuration
+     * @param meterRegistry the registry of the cache metrics
+     */
+    @Autowired
+    public IdempotencyCache(CartProperties properties, MeterRegistry meterRegistry) {
+        CartProperties.Idempotency config = properties.getIdempotency();
+        this.attempts = config.isEnabled()
+                ? Caffeine.newBuilder()
+                        .executor(Runnable::run)
+                        .maximumSize(config.getMaxKeys())
+                        .expireAfterWrite(config.getTtl())
+                        .build()
+                : null;
+        this.replayCounter = Counter.builder("ecommerce.idempotency.replays")
+                .description("Cart mutations answered with the response of an earlier request with the same key")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Describes a request that creates a cart, to bind a key to it.
+     *
+     * @return the fingerprint of the request
+     */
+    public static String createFingerprint() {
+        return "POST /cart";
+    }
+
+    /**
+     * Describes a request that updates the products of a cart, to bind a key to it.
+     *
+     * @param cartId   the ID of the cart
+     * @param products the products of the request body
+     * @return the fingerprint of the request
+     */
+    public static String updateFingerprint(long cartId, List<ProductDto> products) {
+        StringBuilder body = new StringBuilder();
+        for (ProductDto product : products) {
+            body.append(product.getId()).append(':').append(product.getAmount()).append(';');
+        }
+        return "PUT /cart/" + cartId + " " + digest(body);
+    }
+
+    /**
+     * Describes a request that changes some lines of a cart, to bind a key to it.
+     *
+     * @param cartId  the ID of the cart
+     * @param changes the changes of the request body
+     * @return the fingerprint of the request
+     */
+    public static String patchFingerprint(long cartId, List<LineChangeDto> changes) {
+        StringBuilder body = new StringBuilder();
+        for (LineChangeDto change : changes) {
+            body.append(change.getId()).append(':').append(change.getDelta()).append(':')
+                    .append(change.isRemoval()).append(';');
+        }
+        return "PATCH /cart/" + cartId + " " + digest(body);
+    }
+
+    /**
+     * Describes a request that deletes a cart, to bind a key to it.
+     *
+     * @param cartId the ID of the cart
+     * @return the fingerprint of the request
+     */
+    public static String deleteFingerprint(long cartId) {
+        return "DELETE /cart/" + cartId;
+    }
+
+    /**
+     * Digests the canonical form of a request body, so a fingerprint stays short whatever the size of the body.
+     *
+     * @param body the canonical form of the body
+     * @return the SHA-256 digest of the body, in hexadecimal
+     */
+    private static String digest(CharSequence body) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha256.digest(body.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    /**
+     * Claims a key for a request, or finds the attempt of an earlier request with the same key.
+     *
+     * @param key         the key of the request, or null if it was sent without one
+     * @param fingerprint the fingerprint of the request
+     * @return a new attempt that the caller must complete or fail, an earlier attempt to replay,
+     *         or null if the request has no key or the keys are ignored
+     * @throws IdempotencyKeyException if the key is too long or was used by a request with another fingerprint
+     */
+    public Attempt claim(String key, String fingerprint) {
+        if (key == null || attempts == null) {
+            return null;
+        }
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            throw new IdempotencyKeyException("Idempotency key must have between 1 and " + MAX_KEY_LENGTH
+                    + " characters");
+        }
+        Attempt claimed = new Attempt(key, fingerprint, false);
+        Attempt earlier = attempts.asMap().putIfAbsent(key, claimed);
+        if (earlier == null) {
+            return claimed;
+        }
+        if (!earlier.fingerprint.equals(fingerprint)) {
+            throw new IdempotencyKeyException("Idempotency key was already used by another request: " + key);
+        }
+        replayCounter.increment();
+        return new Attempt(key, fingerprint, true, earlier.response);
+    }
+
+    /**
+     * Returns the number of keys remembered.
+     *
+     * @return the number of keys
+     */
+    public long size() {
+        return attempts != null ? attempts.estimatedSize() : 0L;
+    }
+
+    /**
+     * The attempt of a request with a key: either the first one, which runs the mutation and stores its
+     * response, or a replay of it.
+     */
+    public final class Attempt {
+
+        private final String key;
+        private final String fingerprint;
+        private final boolean replay;
+        private final CompletableFuture<Object> response;
+
+        private Attempt(String key, String fingerprint, boolean replay) {
+            this(key, fingerprint, replay, new CompletableFuture<>());
+        }
+
+        private Attempt(String key, String fingerprint, boolean replay, CompletableFuture<Object> response) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.replay = replay;
+            this.response = response;
+        }
+
+        /**
+         * Checks whether this attempt replays the response of an earlier request with the same key.
+         *
+         * @return true if the response must be taken from {@link #response()} instead of running the mutation
+         */
+        public boolean isReplay() {
+            return replay;
+        }
+
+        /**
+         * Returns the response of the first request with the key, completed once that request completes.
+         * Each call returns a new copy, so a caller that cancels it does not affect the other retries.
+         *
+         * @param <T> the type of the body of the response, which the fingerprint of the key ties to its endpoint
+         * @return the body of the response, which is null for a deletion, or the error of the first request
+         */
+        @SuppressWarnings("unchecked")
+        public <T> CompletableFuture<T> response() {
+            return (CompletableFuture<T>) response.copy();
+        }
+
+        /**
+         * Stores the response of the first request with the key and hands it to the retries waiting for it.
+         * The body must not change afterwards, so the replays get the response of the first request: a cart
+         * is the snapshot the service took holding the lock of the cart, not the stored cart itself.
+         *
+         * @param body the body of the response, or null for a response without a body
+         */
+        public void complete(Object body) {
+            response.complete(body);
+        }
+
+        /**
+         * Forgets the key after the first request with it failed, so its next retry runs the mutation again,
+         * and hands the error to the retries already waiting for it. Does nothing once the response is stored.
+         *
+         * @param error the error of the request
+         */
+        public void fail(Throwable error) {
+            if (response.completeExceptionally(error)) {
+                attempts.asMap().remove(key, this);
+            }
+        }
+    }
+}
@@ -2,58 +2,273 @@ package com.onebox.ecommerce.controller;
 
 import com.onebox.ecommerce.model.ProductAvailable;
 import com.onebox.ecommerce.service.ProductAvailableService;
+import com.onebox.ecommerce.service.ProductCatalogCache;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.headers.Header;
 import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
+import java.util.Locale;
 
 /**
  * REST controller for product operations.
  * Provides endpoints to retrieve available products via {@link ProductAvailableService}.
+ * The whole catalog is served from the {@link ProductCatalogCache} and every response carries an
+ * ETag of the catalog version and of its representation, so a request with a matching
+ * {@code If-None-Match} is answered with {@code 304 Not Modified} without reading the catalog.
+ * It is registered on the servlet stack; the reactive stack serves the same contract through the
+ * {@link ReactiveProductAvailableHandler}.
  */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/products")
 public class ProductAvailableController {
 
+    /**
+     * Response header holding the cursor of the next page, sent when the page is full.
+     */
+    static final String NEXT_AFTER_HEADER = "X-Next-After";
+
+    /**
+     * The number of products of a page when no limit is given.
+     */
+    static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * The maximum number of products of a page.
+     */
+    static final int MAX_PAGE_SIZE = 1000;
+
     /**
      * The service used to manages product availability.
      */
     private final ProductAvailableService productAvailableService;
 
     /**
-     * Constructs a new CartController with the specified CartService.
+     * The cache of the serialized catalog.
+     */
+    private final ProductCatalogCache productCatalogCache;
+
+    /**
+     * Constructs a new ProductAvailableController with the specified services.
      *
-     * @param productAvailableService the service to be used for cart operations
+     * @param productAvailableService the service to be used for product operations
+     * @param productCatalogCache     the cache of the serialized catalog
      */
     @Autowired
-    public ProductAvailableController(ProductAvailableService productAvailableService) {
+    public ProductAvailableController(ProductAvailableService productAvailableService,
+                                      ProductCatalogCache productCatalogCache) {
         this.productAvailableService = productAvailableService;
+        this.productCatalogCache = productCatalogCache;
     }
 
     /**
-     * Retrieves all available products.
+     * Retrieves all available products, sorted by ID.
+     * The JSON is served from the catalog cache, gzip-compressed when the client accepts it, or the CBOR
+     * when the client prefers {@code application/cbor}.
      *
-     * @return ResponseEntity containing the list of products and HTTP status
+     * @param ifNoneMatch    the ETags the client already holds
+     * @param accept         the media types the client accepts
+     * @param acceptEncoding the encodings the client accepts
+     * @return ResponseEntity containing the serialized list of products and HTTP status
      */
     @Operation(summary = "Get all available products")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Products retrieved",
                     content = {@Content(mediaType = "application/json",
-                            array = @ArraySchema(schema = @Schema(implementation = ProductAvailable.class)))})
+                            array = @ArraySchema(schema = @Schema(implementation = ProductAvailable.class))),
+                            @Content(mediaType = "application/cbor")}),
+            @ApiResponse(responseCode = "304", description = "Products not modified since the given ETag")
+    })
+    @GetMapping(params = {"!after", "!limit"})
+    public ResponseEntity<byte[]> getAllProducts(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        boolean cbor = MediaType.APPLICATION_CBOR.equals(CborConfig.responseType(accept));
+        String contentCoding = cbor ? null : gzipCoding(acceptEncoding);
+        ProductCatalogCache.Representation representation = representation(cbor, contentCoding);
+        String currentEtag = productCatalogCache.currentEtag(representation);
+        if (matches(ifNoneMatch, currentEtag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(currentEtag)
+                    .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING).build();
+        }
+        ProductCatalogCache.CachedCatalog catalog = productCatalogCache.getCatalog();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(catalog.getEtag(representation))
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (cbor) {
+            return response.contentType(MediaType.APPLICATION_CBOR).body(catalog.getCbor());
+        }
+        response.contentType(MediaType.APPLICATION_JSON);
+        if (contentCoding != null) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, contentCoding).body(catalog.getGzip());
+        }
+        return response.body(catalog.getJson());
+    }
+
+    /**
+     * Retrieves a page of the available products, sorted by ID.
+     * The page starts after the given ID and holds at most {@code limit} products (100 by default,
+     * 1000 at most); when the page is full, the {@value #NEXT_AFTER_HEADER} header holds the
+     * {@code after} value of the next page.
+     *
+     * @param after       the ID after which the page starts
+     * @param limit       the maximum number of products of the page
+     * @param ifNoneMatch the ETags the client already holds
+     * @param accept      the media types the client accepts
+     * @return ResponseEntity containing the list of products and HTTP status
+     */
+    @Operation(summary = "Get a page of the available products")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Products retrieved",
+                    headers = @Header(name = NEXT_AFTER_HEADER, description = "The cursor of the next page"),
+                    content = {@Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = ProductAvailable.class)))}),
+            @ApiResponse(responseCode = "304", description = "Products not modified since the given ETag")
     })
     @GetMapping
-    public ResponseEntity<List<ProductAvailable>> getAllProducts() {
-        List<ProductAvailable> products = productAvailableService.getProducts();
-        return new ResponseEntity<>(products, HttpStatus.OK);
+    public ResponseEntity<List<ProductAvailable>> getProductsPage(
+            @Parameter(description = "The ID after which the page starts")
+            @RequestParam(required = false) Long after,
+            @Parameter(description = "The maximum number of products of the page")
+            @RequestParam(required = false) Integer limit,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        long afterId = after == null ? Long.MIN_VALUE : after;
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        MediaType responseType = CborConfig.responseType(accept);
+        String etag = pageEtag(productAvailableService.getCatalogVersion(), afterId, pageSize, responseType);
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
+        }
+        List<ProductAvailable> products = productAvailableService.getProducts(afterId, pageSize);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT)
+                .contentType(responseType);
+        if (products.size() == pageSize) {
+            response.header(NEXT_AFTER_HEADER, products.get(pageSize - 1).getId().toString());
+        }
+        return response.body(products);
+    }
+
+    /**
+     * Builds the ETag of a page of the catalog, which changes with the catalog version.
+     *
+     * @param catalogVersion the version of the catalog
+     * @param afterId        the ID after which the page starts
+     * @param pageSize       the maximum number of products of the page
+     * @param responseType   the media type of the page, JSON or CBOR
+     * @return the quoted ETag
+     */
+    static String pageEtag(long catalogVersion, long afterId, int pageSize, MediaType responseType) {
+        String suffix = MediaType.APPLICATION_CBOR.equals(responseType) ? "-cbor" : "";
+        return "\"catalog-%s-%s-%s%s\"".formatted(catalogVersion, afterId, pageSize, suffix);
+    }
+
+    /**
+     * Chooses the representation of the whole catalog, which has its own ETag.
+     *
+     * @param cbor          whether the catalog is encoded in CBOR
+     * @param contentCoding the gzip content coding of the response, or null
+     * @return the representation of the catalog
+     */
+    static ProductCatalogCache.Representation representation(boolean cbor, String contentCoding) {
+        if (cbor) {
+            return ProductCatalogCache.Representation.CBOR;
+        }
+        return contentCoding == null ? ProductCatalogCache.Representation.JSON
+                : ProductCatalogCache.Representation.GZIP;
+    }
+
+    /**
+     * Chooses the gzip content coding of a response from the {@code Accept-Encoding} header of the client.
+     * A coding is accepted when its quality is above zero, so {@code gzip;q=0} refuses gzip; {@code x-gzip}
+     * is the legacy name of gzip and is answered with that name, and {@code *} accepts gzip unless gzip is
+     * listed on its own.
+     *
+     * @param acceptEncoding the header value, or null
+     * @return {@code gzip}, {@code x-gzip}, or null if the response must not be compressed
+     */
+    static String gzipCoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        double gzip = -1;
+        double xGzip = -1;
+        double any = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = quality(parts);
+            if (coding.equals("gzip")) {
+                gzip = Math.max(gzip, quality);
+            } else if (coding.equals("x-gzip")) {
+                xGzip = Math.max(xGzip, quality);
+            } else if (coding.equals("*")) {
+                any = Math.max(any, quality);
+            }
+        }
+        if (gzip > 0 || gzip < 0 && xGzip < 0 && any > 0) {
+            return "gzip";
+        }
+        return gzip < 0 && xGzip > 0 ? "x-gzip" : null;
+    }
+
+    /**
+     * Reads the quality of an element of an {@code Accept-Encoding} header, 1 when it has none and 0 when it
+     * can not be parsed.
+     *
+     * @param parts the coding and the parameters of the element
+     * @return the quality of the element
+     */
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.length() > 2 && Character.toLowerCase(parameter.charAt(0)) == 'q'
+                    && parameter.charAt(1) == '=') {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Checks whether an {@code If-None-Match} header matches an ETag, ignoring weak validator prefixes.
+     *
+     * @param ifNoneMatch the header value, or null
+     * @param etag        the quoted ETag of the current response
+     * @return true if the client already holds the response
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.startsWith("W/") && tag.substring(2).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
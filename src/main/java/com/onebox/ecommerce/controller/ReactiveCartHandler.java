@@ -0,0 +1,398 @@
+package com.onebox.ecommerce.controller;
+
+import com.onebox.ecommerce.dto.CartLookup;
+import com.onebox.ecommerce.dto.CartSummary;
+import com.onebox.ecommerce.dto.LineChangeDto;
+import com.onebox.ecommerce.dto.ProductDto;
+import com.onebox.ecommerce.dto.ProductUpdateDto;
+import com.onebox.ecommerce.exception.IdempotencyKeyException;
+import com.onebox.ecommerce.exception.NotFoundException;
+import com.onebox.ecommerce.exception.OutOfStockException;
+import com.onebox.ecommerce.exception.WebRestControllerAdvice;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.service.ReactiveCartService;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Reactive handler of the {@code /cart} endpoints, serving the same contract as the {@link CartController}
+ * on the reactive stack, and of the carts query and the catalog update of the {@link AdminController}.
+ * The errors are turned into responses by the {@link WebRestControllerAdvice},
+ * so both stacks answer with the same status codes and error bodies, the bodies are encoded in JSON or in
+ * CBOR as negotiated by the {@link CborConfig}, and the idempotency keys of the
+ * mutations are honored through the same {@link IdempotencyCache}.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveCartHandler {
+
+    private static final ParameterizedTypeReference<List<ProductDto>> PRODUCTS =
+            new ParameterizedTypeReference<>() {
+            };
+    private static final ParameterizedTypeReference<List<LineChangeDto>> LINE_CHANGES =
+            new ParameterizedTypeReference<>() {
+            };
+    private static final ParameterizedTypeReference<List<ProductUpdateDto>> PRODUCT_UPDATES =
+            new ParameterizedTypeReference<>() {
+            };
+
+    /**
+     * The non-blocking service used to handle cart operations.
+     */
+    private final ReactiveCartService cartService;
+
+    /**
+     * The handler of the exceptions shared with the servlet stack.
+     */
+    private final WebRestControllerAdvice controllerAdvice;
+
+    /**
+     * The validator of the request bodies.
+     */
+    private final Validator validator;
+
+    /**
+     * The responses of the mutations sent with an idempotency key.
+     */
+    private final IdempotencyCache idempotencyCache;
+
+    /**
+     * Constructs a new ReactiveCartHandler.
+     *
+     * @param cartService      the non-blocking service to be used for cart operations
+     * @param controllerAdvice the handler of the exceptions
+     * @param validator        the validator of the request bodies
+     * @param idempotencyCache the responses of the mutations sent with an idempotency key
+     */
+    @Autowired
+    public ReactiveCartHandler(ReactiveCartService cartService, WebRestControllerAdvice controllerAdvice,
+                               Validator validator, IdempotencyCache idempotencyCache) {
+        this.cartService = cartService;
+        this.controllerAdvice = controllerAdvice;
+        this.validator = validator;
+        this.idempotencyCache = idempotencyCache;
+    }
+
+    /**
+     * Creates a new shopping cart.
+     *
+     * @param request the request, with an optional {@code Idempotency-Key} header
+     * @return the newly created cart, or the cart created by an earlier request with the same key,
+     *         with a status of 201 (Created)
+     */
+    public Mono<ServerResponse> createCart(ServerRequest request) {
+        return idempotent(request, IdempotencyCache.createFingerprint(), HttpStatus.CREATED, cartService.createCart())
+                .onErrorResume(this::errorResponse);
+    }
+
+    /**
+     * Creates several shopping carts at once.
+     *
+     * @param request the request, with the {@code count} query parameter
+     * @return the newly created carts with a status of 201 (Created), or a 400 (Bad Request) response if the
+     *         count is missing or invalid
+     */
+    public Mono<ServerResponse> createCarts(ServerRequest request) {
+        long count = request.queryParam("count")
+                .map(value -> ReactiveProductAvailableHandler.parse("count", value))
+                .orElseThrow(() -> new ServerWebInputException("Missing count"));
+        CartController.checkBatchSize("count", count);
+        return cartService.createCarts((int) count)
+                .flatMap(carts -> ServerResponse.status(HttpStatus.CREATED)
+                        .contentType(responseType(request)).bodyValue(carts));
+    }
+
+    /**
+     * Retrieves several carts by their IDs, each with its cart or the error of an ID without cart.
+     *
+     * @param request the request, with the {@code ids} query parameter holding comma-separated IDs
+     * @return the item of each ID with a status of 200 (OK), or a 400 (Bad Request) response if the IDs are
+     *         invalid
+     */
+    public Mono<ServerResponse> getCarts(ServerRequest request) {
+        long[] cartIds = request.queryParams().getOrDefault("ids", List.of()).stream()
+                .flatMap(value -> Arrays.stream(value.split(",")))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .mapToLong(value -> ReactiveProductAvailableHandler.parse("ids", value))
+                .toArray();
+        CartController.checkBatchSize("ids", cartIds.length);
+        return cartService.findCartsByIds(cartIds)
+                .flatMap(carts -> ServerResponse.ok().contentType(responseType(request))
+                        .bodyValue(CartLookup.of(cartIds, carts)));
+    }
+
+    /**
+     * Retrieves a cart by its ID.
+     *
+     * @param request the request, with the {@code cartId} path variable
+     * @return the cart with a status of 200 (OK), or a 404 (Not Found) response
+     */
+    public Mono<ServerResponse> getCartById(ServerRequest request) {
+        Long cartId = cartId(request);
+        return cartService.findCartById(cartId)
+                .switchIfEmpty(Mono.error(() -> NotFoundException.cart(cartId)))
+                .flatMap(cart -> ServerResponse.ok().contentType(responseType(request)).bodyValue(cart))
+                .onErrorResume(this::errorResponse);
+    }
+
+    /**
+     * Retrieves the totals of a cart by its ID, without its lines.
+     *
+     * @param request the request, with the {@code cartId} path variable
+     * @return the summary of the cart with a status of 200 (OK), or a 404 (Not Found) response
+     */
+    public Mono<ServerResponse> getCartSummary(ServerRequest request) {
+        Long cartId = cartId(request);
+        return cartService.findCartById(cartId)
+                .switchIfEmpty(Mono.error(() -> NotFoundException.cart(cartId)))
+                .flatMap(cart -> ServerResponse.ok().contentType(responseType(request))
+                        .bodyValue(CartSummary.of(cart)))
+                .onErrorResume(this::errorResponse);
+    }
+
+    /**
+     * Updates the products in a cart.
+     *
+     * @param request the request, with the {@code cartId} path variable, the list of products as body and an
+     *                optional {@code Idempotency-Key} header
+     * @return the updated cart with a status of 200 (OK), a 404 (Not Found) response if the cart or
+     *         a product does not exist, or a 400 (Bad Request) response if the body is invalid or a
+     *         product has not enough stock
+     */
+    public Mono<ServerResponse> updateProductsFromCart(ServerRequest request) {
+        Long cartId = cartId(request);
+        return request.bodyToMono(PRODUCTS)
+                .switchIfEmpty(Mono.error(() -> new ServerWebInputException("Missing request body")))
+                .doOnNext(this::validate)
+                .flatMap(products -> idempotent(request, IdempotencyCache.updateFingerprint(cartId, products),
+                        HttpStatus.OK, cartService.updateProductsFromCart(cartId, products)))
+                .onErrorResume(this::errorResponse);
+    }
+
+    /**
+     * Changes some lines of a cart by increments, decrements and removals.
+     *
+     * @param request the request, with the {@code cartId} path variable, the list of changes as body and an
+     *                optional {@code Idempotency-Key} header
+     * @return the changed lines and the new version and totals of the cart with a status of 200 (OK), a 404
+     *         (Not Found) response if the cart or a product does not exist, or a 400 (Bad Request) response if
+     *         the body is invalid or a product has not enough stock
+     */
+    public Mono<ServerResponse> patchCart(ServerRequest request) {
+        Long cartId = cartId(request);
+        return request.bodyToMono(LINE_CHANGES)
+                .switchIfEmpty(Mono.error(() -> new ServerWebInputException("Missing request body")))
+                .doOnNext(this::validate)
+                .flatMap(changes -> idempotent(request, IdempotencyCache.patchFingerprint(cartId, changes),
+                        HttpStatus.OK, cartService.patchCart(cartId, changes)))
+                .onErrorResume(this::errorResponse);
+    }
+
+    /**
+     * Deletes a cart by its ID.
+     *
+     * @param request the request, with the {@code cartId} path variable and an optional {@code Idempotency-Key}
+     *                header
+     * @return a response with a status of 204 (No Content), or a 404 (Not Found) response
+     */
+    public Mono<ServerResponse> deleteCart(ServerRequest request) {
+        Long cartId = cartId(request);
+        return idempotent(request, IdempotencyCache.deleteFingerprint(cartId), HttpStatus.NO_CONTENT,
+                        cartService.deleteCart(cartId).then(Mono.<Cart>empty()))
+                .onErrorResume(this::errorResponse);
+    }
+
+    /**
+     * Retrieves a page of the IDs of the carts holding a product, sorted by cart ID.
+     *
+     * @param request the request, with the {@code productId} path variable and the optional
+     *                {@code after} and {@code limit} query parameters
+     * @return the cart IDs with a status of 200 (OK)
+     */
+    public Mono<ServerResponse> getCartsWithProduct(ServerRequest request) {
+        Long productId = ReactiveProductAvailableHandler.parse("productId", request.pathVariable("productId"));
+        long afterCartId = request.queryParam("after")
+                .map(value -> ReactiveProductAvailableHandler.parse("after", value))
+                .orElse(Long.MIN_VALUE);
+        int pageSize = request.queryParam("limit")
+                .map(value -> (int) Math.max(1, Math.min(ReactiveProductAvailableHandler.parse("limit", value),
+                        ProductAvailableController.MAX_PAGE_SIZE)))
+                .orElse(ProductAvailableController.DEFAULT_PAGE_SIZE);
+        return Mono.zip(cartService.getCartIdsWithProduct(productId, afterCartId, pageSize),
+                        cartService.countCartsWithProduct(productId))
+                .flatMap(page -> {
+                    long[] cartIds = page.getT1();
+                    ServerResponse.BodyBuilder response = ServerResponse.ok()
+                            .contentType(responseType(request))
+                            .header(AdminController.TOTAL_COUNT_HEADER, page.getT2().toString());
+                    if (cartIds.length == pageSize) {
+                        response.header(ProductAvailableController.NEXT_AFTER_HEADER,
+                                Long.toString(cartIds[pageSize - 1]));
+                    }
+                    return response.bodyValue(cartIds);
+                });
+    }
+
+    /**
+     * Adds or updates several products of the catalog at once.
+     *
+     * @param request the request, with the list of product updates as body
+     * @return a 204 (No Content) response, or a 400 (Bad Request) response if the body is invalid
+     */
+    public Mono<ServerResponse> updateProducts(ServerRequest request) {
+        return request.bodyToMono(PRODUCT_UPDATES)
+                .switchIfEmpty(Mono.error(() -> new ServerWebInputException("Missing request body")))
+                .doOnNext(this::validate)
+                .flatMap(cartService::updateCatalog)
+                .flatMap(repriced -> ServerResponse.noContent().build());
+    }
+
+    /**
+     * Runs a mutation of a cart, unless a request with the same idempotency key already ran it, in which case
+     * the response of that request is returned, once it completes if it is still running.
+     * A request cancelled before its mutation completes forgets its key, so its retry runs the mutation.
+     *
+     * @param request     the request, with an optional {@code Idempotency-Key} header
+     * @param fingerprint the fingerprint of the request, which a retry with the same key must match
+     * @param status      the status of the response
+     * @param mutation    the mutation, emitting the body of the response or nothing for a response without body
+     * @param <T>         the type of the body of the response
+     * @return the response of the mutation or of the earlier request with the same key
+     */
+    private <T> Mono<ServerResponse> idempotent(ServerRequest request, String fingerprint, HttpStatus status,
+                                                Mono<T> mutation) {
+        return Mono.defer(() -> {
+            String idempotencyKey = request.headers().firstHeader(IdempotencyCache.KEY_HEADER);
+            IdempotencyCache.Attempt attempt = idempotencyCache.claim(idempotencyKey, fingerprint);
+            if (attempt == null) {
+                return optional(mutation).flatMap(body -> bodyResponse(request, status, body, false));
+            }
+            if (attempt.isReplay()) {
+                return optional(Mono.fromFuture(attempt.<T>response()))
+                        .flatMap(body -> bodyResponse(request, status, body, true));
+            }
+            return optional(mutation)
+                    .doOnNext(body -> attempt.complete(body.orElse(null)))
+                    .doOnError(attempt::fail)
+                    .doOnCancel(() -> attempt.fail(new CancellationException("Request cancelled")))
+                    .flatMap(body -> bodyResponse(request, status, body, false));
+        });
+    }
+
+    /**
+     * Wraps the body emitted by a mutation, so a mutation that emits nothing still emits a value.
+     *
+     * @param mutation the mutation
+     * @param <T>      the type of the body
+     * @return a Mono emitting the body, or an empty optional if the mutation emits nothing
+     */
+    private static <T> Mono<Optional<T>> optional(Mono<T> mutation) {
+        return mutation.map(Optional::of).defaultIfEmpty(Optional.empty());
+    }
+
+    /**
+     * Builds the response of a mutation.
+     *
+     * @param request  the request, whose {@code Accept} header chooses the encoding of the body
+     * @param status   the status of the response
+     * @param body     the body of the response, or empty for a response without body
+     * @param replayed whether the response is the one of an earlier request with the same idempotency key
+     * @param <T>      the type of the body
+     * @return the response
+     */
+    private static <T> Mono<ServerResponse> bodyResponse(ServerRequest request, HttpStatus status, Optional<T> body,
+                                                         boolean replayed) {
+        ServerResponse.BodyBuilder response = ServerResponse.status(status);
+        if (replayed) {
+            response.header(IdempotencyCache.REPLAYED_HEADER, "true");
+        }
+        return body.isPresent()
+                ? response.contentType(responseType(request)).bodyValue(body.get())
+                : response.build();
+    }
+
+    /**
+     * Chooses the encoding of a response, CBOR or JSON, from the {@code Accept} header of the request.
+     *
+     * @param request the request
+     * @return the media type of the response
+     */
+    private static MediaType responseType(ServerRequest request) {
+        return CborConfig.responseType(String.join(",", request.headers().header(HttpHeaders.ACCEPT)));
+    }
+
+    /**
+     * Parses the {@code cartId} path variable.
+     *
+     * @param request the request
+     * @return the id of the cart
+     * @throws ServerWebInputException if the path variable is not a number
+     */
+    private static Long cartId(ServerRequest request) {
+        String cartId = request.pathVariable("cartId");
+        try {
+            return Long.valueOf(cartId);
+        } catch (NumberFormatException ex) {
+            throw new ServerWebInputException("Invalid cart id: " + cartId);
+        }
+    }
+
+    /**
+     * Validates the products of an update, as {@code @Valid} does on the servlet stack.
+     *
+     * @param products the products of the request body
+     * @param <T>      the type of the products
+     * @throws ServerWebInputException if a product is invalid
+     */
+    private <T> void validate(List<T> products) {
+        for (T product : products) {
+            Set<ConstraintViolation<T>> violations = validator.validate(product);
+            if (!violations.isEmpty()) {
+                ConstraintViolation<T> violation = violations.iterator().next();
+                throw new ServerWebInputException(violation.getPropertyPath() + " " + violation.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Turns the not-found, out-of-stock and idempotency key errors into the responses of the controller advice.
+     * Any other error is propagated to the default error handling.
+     *
+     * @param error the error raised while handling the request
+     * @return the error response
+     */
+    private Mono<ServerResponse> errorResponse(Throwable error) {
+        ResponseEntity<WebRestControllerAdvice.ErrorResponse> response;
+        if (error instanceof OutOfStockException) {
+            response = controllerAdvice.handleOutOfStockException((OutOfStockException) error);
+        } else if (error instanceof IdempotencyKeyException) {
+            response = controllerAdvice.handleIdempotencyKeyException((IdempotencyKeyException) error);
+        } else if (error instanceof IllegalArgumentException) {
+            response = controllerAdvice.handleIllegalArgumentException((IllegalArgumentException) error);
+        } else {
+            return Mono.error(error);
+        }
+        return ServerResponse.status(response.getStatusCode())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(response.getBody());
+    }
+}
@@ -0,0 +1,143 @@
+package com.onebox.ecommerce.controller;
+
+import com.onebox.ecommerce.model.ProductAvailable;
+import com.onebox.ecommerce.service.ProductAvailableService;
+import com.onebox.ecommerce.service.ProductCatalogCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Reactive handler of the {@code /products} endpoint, serving the same contract as the
+ * {@link ProductAvailableController} on the reactive stack: the whole catalog from the
+ * {@link ProductCatalogCache}, or a page of it when {@code after} or {@code limit} is given,
+ * both with an ETag of the catalog version, in JSON or in CBOR as negotiated by the {@link CborConfig}.
+ * Reading the catalog never blocks, so the responses are built on the event loop.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveProductAvailableHandler {
+
+    /**
+     * The service used to manages product availability.
+     */
+    private final ProductAvailableService productAvailableService;
+
+    /**
+     * The cache of the serialized catalog.
+     */
+    private final ProductCatalogCache productCatalogCache;
+
+    /**
+     * Constructs a new ReactiveProductAvailableHandler with the specified services.
+     *
+     * @param productAvailableService the service to be used for product operations
+     * @param productCatalogCache     the cache of the serialized catalog
+     */
+    @Autowired
+    public ReactiveProductAvailableHandler(ProductAvailableService productAvailableService,
+                                           ProductCatalogCache productCatalogCache) {
+        this.productAvailableService = productAvailableService;
+        this.productCatalogCache = productCatalogCache;
+    }
+
+    /**
+     * Retrieves all available products, or a page of them when {@code after} or {@code limit} is given.
+     *
+     * @param request the request
+     * @return the products, or a 304 (Not Modified) response if the client holds the current ETag
+     */
+    public Mono<ServerResponse> getProducts(ServerRequest request) {
+        Optional<String> after = request.queryParam("after");
+        Optional<String> limit = request.queryParam("limit");
+        if (after.isEmpty() && limit.isEmpty()) {
+            return getAllProducts(request.headers());
+        }
+        return getProductsPage(after, limit, request.headers());
+    }
+
+    private Mono<ServerResponse> getAllProducts(ServerRequest.Headers headers) {
+        boolean cbor = MediaType.APPLICATION_CBOR.equals(CborConfig.responseType(accept(headers)));
+        String contentCoding = cbor ? null
+                : ProductAvailableController.gzipCoding(headers.firstHeader(HttpHeaders.ACCEPT_ENCODING));
+        ProductCatalogCache.Representation representation =
+                ProductAvailableController.representation(cbor, contentCoding);
+        String currentEtag = productCatalogCache.currentEtag(representation);
+        if (ProductAvailableController.matches(ifNoneMatch(headers), currentEtag)) {
+            return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(currentEtag)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING).build();
+        }
+        ProductCatalogCache.CachedCatalog catalog = productCatalogCache.getCatalog();
+        ServerResponse.BodyBuilder response = ServerResponse.ok()
+                .eTag(catalog.getEtag(representation))
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (cbor) {
+            return response.contentType(MediaType.APPLICATION_CBOR).bodyValue(catalog.getCbor());
+        }
+        response.contentType(MediaType.APPLICATION_JSON);
+        if (contentCoding != null) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, contentCoding).bodyValue(catalog.getGzip());
+        }
+        return response.bodyValue(catalog.getJson());
+    }
+
+    private Mono<ServerResponse> getProductsPage(Optional<String> after, Optional<String> limit,
+                                                 ServerRequest.Headers headers) {
+        long afterId = after.map(value -> parse("after", value)).orElse(Long.MIN_VALUE);
+        int pageSize = limit.map(value -> (int) Math.max(1, Math.min(parse("limit", value),
+                        ProductAvailableController.MAX_PAGE_SIZE)))
+                .orElse(ProductAvailableController.DEFAULT_PAGE_SIZE);
+        MediaType responseType = CborConfig.responseType(accept(headers));
+        String etag = ProductAvailableController.pageEtag(productAvailableService.getCatalogVersion(), afterId,
+                pageSize, responseType);
+        if (ProductAvailableController.matches(ifNoneMatch(headers), etag)) {
+            return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(etag)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+        }
+        List<ProductAvailable> products = productAvailableService.getProducts(afterId, pageSize);
+        ServerResponse.BodyBuilder response = ServerResponse.ok().eTag(etag)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .contentType(responseType);
+        if (products.size() == pageSize) {
+            response.header(ProductAvailableController.NEXT_AFTER_HEADER,
+                    products.get(pageSize - 1).getId().toString());
+        }
+        return response.bodyValue(products);
+    }
+
+    private static String accept(ServerRequest.Headers headers) {
+        List<String> values = headers.header(HttpHeaders.ACCEPT);
+        return values.isEmpty() ? null : String.join(",", values);
+    }
+
+    private static String ifNoneMatch(ServerRequest.Headers headers) {
+        List<String> values = headers.header(HttpHeaders.IF_NONE_MATCH);
+        return values.isEmpty() ? null : String.join(",", values);
+    }
+
+    /**
+     * Parses a numeric query parameter.
+     *
+     * @param name  the name of the parameter
+     * @param value the value of the parameter
+     * @return the number
+     * @throws ServerWebInputException if the value is not a number
+     */
+    static long parse(String name, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            throw new ServerWebInputException("Invalid %s: %s".formatted(name, value));
+        }
+    }
+}
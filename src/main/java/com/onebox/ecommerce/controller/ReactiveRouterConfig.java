@@ -0,0 +1,64 @@
+package com.onebox.ecommerce.controller;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+/**
+ * Routes of the reactive stack, enabled with {@code spring.main.web-application-type=reactive}.
+ * They serve the {@code /cart} and {@code /products} contract of the servlet controllers with the
+ * reactive handlers, on a Netty server whose event loops hold the connections without a thread each.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRouterConfig {
+
+    /**
+     * Builds the Netty server factory, which is preferred over the servlet containers on the classpath.
+     *
+     * @return the server factory
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * Builds the routes of the {@code /cart} endpoints and of the carts query of the admin endpoints.
+     *
+     * @param handler the handler of the cart requests
+     * @return the routes
+     */
+    @Bean
+    public RouterFunction<ServerResponse> cartRoutes(ReactiveCartHandler handler) {
+        return RouterFunctions.route()
+                .POST("/cart", handler::createCart)
+                .POST("/cart/batch", handler::createCarts)
+                .GET("/cart", handler::getCarts)
+                .GET("/cart/{cartId}", handler::getCartById)
+                .GET("/cart/{cartId}/summary", handler::getCartSummary)
+                .PUT("/cart/{cartId}", handler::updateProductsFromCart)
+                .PATCH("/cart/{cartId}", handler::patchCart)
+                .DELETE("/cart/{cartId}", handler::deleteCart)
+                .GET("/admin/products/{productId}/carts", handler::getCartsWithProduct)
+                .PUT("/admin/products", handler::updateProducts)
+                .build();
+    }
+
+    /**
+     * Builds the route of the {@code /products} endpoint.
+     *
+     * @param handler the handler of the product requests
+     * @return the routes
+     */
+    @Bean
+    public RouterFunction<ServerResponse> productRoutes(ReactiveProductAvailableHandler handler) {
+        return RouterFunctions.route()
+                .GET("/products", handler::getProducts)
+                .build();
+    }
+}
@@ -0,0 +1,57 @@
+package com.onebox.ecommerce.dto;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Data Transfer Object (DTO) for the response of a partial update of a cart.
+ * It holds only the lines the update changed, each with its new amount, 0 for a product removed,
+ * along with the new version and totals of the cart, so its size follows the size of the change
+ * instead of the size of the cart.
+ */
+@Getter
+public class CartDelta {
+
+    /**
+     * The unique identifier of the cart.
+     */
+    private final long id;
+
+    /**
+     * The version of the cart after the update.
+     */
+    private final long version;
+
+    /**
+     * The lines changed by the update, sorted by product ID, with their new amount.
+     */
+    private final List<ProductDto> lines;
+
+    /**
+     * The number of units of all the products in the cart after the update.
+     */
+    private final long itemCount;
+
+    /**
+     * The subtotal of the cart after the update, in minor units.
+     */
+    private final long subtotal;
+
+    /**
+     * Constructs a new {@link CartDelta} instance.
+     *
+     * @param id        the unique identifier of the cart
+     * @param version   the version of the cart after the update
+     * @param lines     the lines changed by the update, with their new amount
+     * @param itemCount the number of units of all the products in the cart after the update
+     * @param subtotal  the subtotal of the cart after the update, in minor units
+     */
+    public CartDelta(long id, long version, List<ProductDto> lines, long itemCount, long subtotal) {
+        this.id = id;
+        this.version = version;
+        this.lines = lines;
+        this.itemCount = itemCount;
+        this.subtotal = subtotal;
+    }
+}
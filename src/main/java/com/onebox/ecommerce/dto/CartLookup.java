@@ -0,0 +1,64 @@
+package com.onebox.ecommerce.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.onebox.ecommerce.exception.NotFoundException;
+import com.onebox.ecommerce.model.Cart;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Transfer Object (DTO) for one item of a multi-get of carts.
+ * Each requested id gets its own item, in the order of the request, holding either the cart or the
+ * error of an id without cart, so an unknown id does not fail the lookup of the others.
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CartLookup {
+
+    /**
+     * The requested id of the cart.
+     */
+    private final long id;
+
+    /**
+     * The cart, or null if it does not exist.
+     */
+    private final Cart cart;
+
+    /**
+     * The error of the lookup, or null if the cart was found.
+     */
+    private final String error;
+
+    /**
+     * Constructs a new {@link CartLookup} instance.
+     *
+     * @param id    the requested id of the cart
+     * @param cart  the cart, or null if it does not exist
+     * @param error the error of the lookup, or null if the cart was found
+     */
+    public CartLookup(long id, Cart cart, String error) {
+        this.id = id;
+        this.cart = cart;
+        this.error = error;
+    }
+
+    /**
+     * Builds the items of a multi-get from the requested ids and the carts found for them.
+     *
+     * @param cartIds the requested ids
+     * @param carts   the cart of each id, at the same position, or null where the cart does not exist
+     * @return the item of each requested id, in the same order
+     */
+    public static List<CartLookup> of(long[] cartIds, Cart[] carts) {
+        List<CartLookup> items = new ArrayList<>(cartIds.length);
+        for (int i = 0; i < cartIds.length; i++) {
+            items.add(carts[i] != null
+                    ? new CartLookup(cartIds[i], carts[i], null)
+                    : new CartLookup(cartIds[i], null, NotFoundException.cart(cartIds[i]).getMessage()));
+        }
+        return items;
+    }
+}
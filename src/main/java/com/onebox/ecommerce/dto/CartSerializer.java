@@ -0,0 +1,68 @@
+package com.onebox.ecommerce.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.repository.ProductAvailableRepository;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+
+/**
+ * JSON serializer for {@link Cart}.
+ * A cart only stores product ids and amounts, so this serializer resolves the description of each
+ * product from the catalog while writing it. The output keeps the original contract: the id, the
+ * products as an object keyed by product id with their id, description and amount, and the
+ * lastUpdated timestamp, along with the version and the totals of the cart: its line count, item count
+ * and subtotal in minor units, taken from the same snapshot of the lines.
+ */
+@JsonComponent
+public class CartSerializer extends JsonSerializer<Cart> {
+
+    /**
+     * The catalog used to resolve the product descriptions.
+     */
+    private final ProductAvailableRepository productAvailableRepository;
+
+    /**
+     * Constructs a new CartSerializer with the specified ProductAvailableRepository.
+     *
+     * @param productAvailableRepository the catalog used to resolve the product descriptions
+     */
+    public CartSerializer(ProductAvailableRepository productAvailableRepository) {
+        this.productAvailableRepository = productAvailableRepository;
+    }
+
+    /**
+     * Writes a cart as JSON.
+     *
+     * @param cart        the cart to write
+     * @param gen         the generator used to write the JSON
+     * @param serializers the provider used to write the timestamp with the configured date format
+     * @throws IOException if the JSON can not be written
+     */
+    @Override
+    public void serialize(Cart cart, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        Cart.Lines lines = cart.getLines();
+        gen.writeStartObject();
+        gen.writeNumberField("id", cart.getId());
+        gen.writeNumberField("version", cart.getVersion());
+        gen.writeObjectFieldStart("products");
+        for (int i = 0; i < lines.size(); i++) {
+            long productId = lines.productId(i);
+            gen.writeFieldName(Long.toString(productId));
+            gen.writeStartObject();
+            gen.writeNumberField("id", productId);
+            gen.writeStringField("description", productAvailableRepository.getDescription(productId));
+            gen.writeNumberField("amount", lines.amount(i));
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+        gen.writeNumberField("lineCount", lines.size());
+        gen.writeNumberField("itemCount", lines.itemCount());
+        gen.writeNumberField("subtotal", lines.subtotal());
+        serializers.defaultSerializeField("lastUpdated", cart.getLastUpdated(), gen);
+        gen.writeEndObject();
+    }
+}
@@ -0,0 +1,73 @@
+package com.onebox.ecommerce.dto;
+
+import com.onebox.ecommerce.model.Cart;
+import lombok.Getter;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Data Transfer Object (DTO) for the totals of a cart.
+ * It holds the running totals kept by the cart, without its lines, so a client that only needs
+ * the totals does not pay for resolving and serializing every product of the cart.
+ */
+@Getter
+public class CartSummary {
+
+    /**
+     * The unique identifier of the cart.
+     */
+    private final long id;
+
+    /**
+     * The number of distinct products in the cart.
+     */
+    private final int lineCount;
+
+    /**
+     * The number of units of all the products in the cart.
+     */
+    private final long itemCount;
+
+    /**
+     * The sum of the amount times the unit price of the products, in minor units.
+     */
+    private final long subtotal;
+
+    /**
+     * The timestamp of the last update made to the cart.
+     */
+    private final LocalDateTime lastUpdated;
+
+    /**
+     * Constructs a new {@link CartSummary} instance with the specified totals.
+     *
+     * @param id          the unique identifier of the cart
+     * @param lineCount   the number of distinct products in the cart
+     * @param itemCount   the number of units of all the products in the cart
+     * @param subtotal    the subtotal of the cart, in minor units
+     * @param lastUpdated the timestamp of the last update made to the cart
+     */
+    public CartSummary(long id, int lineCount, long itemCount, long subtotal, LocalDateTime lastUpdated) {
+        this.id = id;
+        this.lineCount = lineCount;
+        this.itemCount = itemCount;
+        this.subtotal = subtotal;
+        this.lastUpdated = lastUpdated;
+    }
+
+    /**
+     * Builds the summary of a cart from a single snapshot of its lines, so the totals are consistent
+     * with each other while the cart is being updated.
+     *
+     * @param cart the cart to summarize
+     * @return the summary of the cart
+     */
+    public static CartSummary of(Cart cart) {
+        Cart.Lines lines = cart.getLines();
+        LocalDateTime lastUpdated = LocalDateTime.ofInstant(Instant.ofEpochMilli(cart.getLastUpdatedMillis()),
+                ZoneId.systemDefault());
+        return new CartSummary(cart.getId(), lines.size(), lines.itemCount(), lines.subtotal(), lastUpdated);
+    }
+}
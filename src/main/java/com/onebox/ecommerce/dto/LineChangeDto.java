@@ -0,0 +1,65 @@
+package com.onebox.ecommerce.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+
+/**
+ * Data Transfer Object (DTO) for the change of one line of a cart in a partial update.
+ * A change either adds a delta to the amount of the product in the cart, positive to add units and
+ * negative to take them out, or removes the product from the cart whatever its amount.
+ */
+@Getter
+public class LineChangeDto {
+
+    /**
+     * The unique identifier of the product.
+     */
+    @NotNull
+    private final Long id;
+
+    /**
+     * The units to add to the amount of the product, or to take out if negative; null for a removal.
+     */
+    private final Integer delta;
+
+    /**
+     * Whether the product is removed from the cart.
+     */
+    private final Boolean remove;
+
+    /**
+     * Constructs a new {@link LineChangeDto} instance.
+     *
+     * @param id     the unique identifier of the product
+     * @param delta  the units to add to the amount of the product, negative to take them out, or null
+     * @param remove whether the product is removed from the cart, or null for false
+     */
+    public LineChangeDto(Long id, Integer delta, Boolean remove) {
+        this.id = id;
+        this.delta = delta;
+        this.remove = remove;
+    }
+
+    /**
+     * Checks whether the change removes the product from the cart.
+     *
+     * @return true if the product is removed
+     */
+    @JsonIgnore
+    public boolean isRemoval() {
+        return Boolean.TRUE.equals(remove);
+    }
+
+    /**
+     * Checks that the change has either a delta or a removal, but not both.
+     *
+     * @return true if the change is valid
+     */
+    @JsonIgnore
+    @AssertTrue(message = "must have either a delta or remove")
+    public boolean isDeltaOrRemove() {
+        return isRemoval() != (delta != null);
+    }
+}
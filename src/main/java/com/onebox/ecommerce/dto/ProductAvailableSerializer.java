@@ -0,0 +1,38 @@
+package com.onebox.ecommerce.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.onebox.ecommerce.model.ProductAvailable;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+
+/**
+ * Streaming serializer for {@link ProductAvailable}.
+ * It writes the id, description, price and stock of the product straight to the generator, in the
+ * order of the original contract, instead of discovering them by reflection over the getters. The
+ * generator decides the encoding, so the same serializer writes the JSON and the CBOR responses.
+ */
+@JsonComponent
+public class ProductAvailableSerializer extends JsonSerializer<ProductAvailable> {
+
+    /**
+     * Writes an available product.
+     *
+     * @param product     the product to write
+     * @param gen         the generator used to write the product
+     * @param serializers the provider of the serializers, not used
+     * @throws IOException if the product can not be written
+     */
+    @Override
+    public void serialize(ProductAvailable product, JsonGenerator gen, SerializerProvider serializers)
+            throws IOException {
+        gen.writeStartObject(product, 4);
+        gen.writeNumberField("id", product.getId());
+        gen.writeStringField("description", product.getDescription());
+        gen.writeNumberField("price", product.getPrice());
+        gen.writeNumberField("stock", product.getStock());
+        gen.writeEndObject();
+    }
+}
@@ -0,0 +1,35 @@
+package com.onebox.ecommerce.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.onebox.ecommerce.model.Product;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+
+/**
+ * Streaming serializer for {@link Product}.
+ * It writes the id, description and amount of the product straight to the generator, like the
+ * products of the {@link CartSerializer}, instead of discovering them by reflection over the getters.
+ */
+@JsonComponent
+public class ProductSerializer extends JsonSerializer<Product> {
+
+    /**
+     * Writes a product.
+     *
+     * @param product     the product to write
+     * @param gen         the generator used to write the product
+     * @param serializers the provider of the serializers, not used
+     * @throws IOException if the product can not be written
+     */
+    @Override
+    public void serialize(Product product, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        gen.writeStartObject(product, 3);
+        gen.writeNumberField("id", product.getId());
+        gen.writeStringField("description", product.getDescription());
+        gen.writeNumberField("amount", product.getAmount());
+        gen.writeEndObject();
+    }
+}
@@ -0,0 +1,53 @@
+package com.onebox.ecommerce.dto;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+
+/**
+ * Data Transfer Object (DTO) for an update of a catalog product.
+ * This class is used to transfer one product of a bulk catalog update. Only the ID is required:
+ * the fields left out keep their current value, and a product that does not exist yet is created
+ * without description, price or stock unless they are given.
+ */
+@Getter
+public class ProductUpdateDto {
+
+    /**
+     * The unique identifier of the product.
+     */
+    @NotNull
+    private final Long id;
+
+    /**
+     * The new description of the product, or null to keep the current one.
+     */
+    private final String description;
+
+    /**
+     * The new unit price of the product in minor units, or null to keep the current one.
+     */
+    @Min(0)
+    private final Long price;
+
+    /**
+     * The new available stock of the product, or null to keep the current one.
+     */
+    @Min(0)
+    private final Integer stock;
+
+    /**
+     * Constructs a new {@link ProductUpdateDto} instance with the specified values.
+     *
+     * @param id          the unique identifier of the product
+     * @param description the new description of the product, or null to keep it
+     * @param price       the new unit price of the product in minor units, or null to keep it
+     * @param stock       the new available stock of the product, or null to keep it
+     */
+    public ProductUpdateDto(Long id, String description, Long price, Integer stock) {
+        this.id = id;
+        this.description = description;
+        this.price = price;
+        this.stock = stock;
+    }
+}
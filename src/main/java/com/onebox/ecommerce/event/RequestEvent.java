@@ -0,0 +1,75 @@
+package com.onebox.ecommerce.event;
+
+import lombok.Getter;
+
+/**
+ * An event of a cart or product request, written to the log by the {@link RequestEventLog}.
+ * It holds structured fields instead of a formatted message, so publishing it only allocates
+ * this object and the formatting happens on the logging thread.
+ */
+@Getter
+public final class RequestEvent {
+
+    /**
+     * Id value of an event that does not refer to a cart.
+     */
+    public static final long NO_CART = -1;
+
+    private final Type type;
+
+    private final long cartId;
+
+    private final long count;
+
+    private final long timestampMillis;
+
+    /**
+     * Constructs a new RequestEvent that happened now.
+     *
+     * @param type   the type of the event
+     * @param cartId the id of the cart, or {@link #NO_CART}
+     * @param count  the number of products the event refers to
+     */
+    public RequestEvent(Type type, long cartId, long count) {
+        this.type = type;
+        this.cartId = cartId;
+        this.count = count;
+        this.timestampMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Appends the event as a line of {@code key=value} fields.
+     *
+     * @param line the builder to append to
+     */
+    void appendTo(StringBuilder line) {
+        line.append("event=").append(type).append(" ts=").append(timestampMillis);
+        if (cartId != NO_CART) {
+            line.append(" cartId=").append(cartId);
+        }
+        line.append(" products=").append(count);
+    }
+
+    /**
+     * The types of the events, marking the high-volume ones which are sampled.
+     */
+    @Getter
+    public enum Type {
+        CART_CREATED(false),
+        CART_RETRIEVED(true),
+        CART_UPDATED(true),
+        CART_DELETED(false),
+        CART_EXPIRED(false),
+        CART_EVICTED(false),
+        PRODUCTS_LISTED(true);
+
+        /**
+         * Whether the events of this type are frequent enough to be sampled.
+         */
+        private final boolean sampled;
+
+        Type(boolean sampled) {
+            this.sampled = sampled;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.onebox.ecommerce.event;
+
+import com.onebox.ecommerce.config.EventProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous log of the cart and product request events.
+ * Request threads publish events into a bounded ring buffer and never wait: when the buffer is
+ * full the event is dropped and counted. A single daemon thread drains the buffer in batches and
+ * writes each batch as one log statement of {@code key=value} lines to the
+ * {@code com.onebox.ecommerce.events} logger. High-volume events are sampled before they are
+ * published, so most of them cost a random number only.
+ */
+@Component
+public class RequestEventLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestEventLog.class);
+
+    private static final Logger EVENTS = LoggerFactory.getLogger("com.onebox.ecommerce.events");
+
+    private static final long POLL_MILLIS = 200;
+
+    private static final RequestEventLog DISCARDING = new RequestEventLog();
+
+    private final BlockingQueue<RequestEvent> queue;
+
+    private final int batchSize;
+
+    private final int sampleEvery;
+
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * The thread that writes the events, or null if the events are discarded.
+     */
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a RequestEventLog that discards every event and has no writer thread.
+     */
+    private RequestEventLog() {
+        this.queue = new ArrayBlockingQueue<>(1);
+        this.batchSize = 1;
+        this.sampleEvery = 1;
+        this.writer = null;
+        this.running = false;
+    }
+
+    /**
+     * Constructs a new RequestEventLog and starts its writer thread.
+     *
+     * @param properties    the configuration of the log
+     * @param meterRegistry the registry of the count of dropped events
+     */
+    @Autowired
+    public RequestEventLog(EventProperties properties, MeterRegistry meterRegistry) {
+        this.queue = new ArrayBlockingQueue<>(properties.getCapacity());
+        this.batchSize = properties.getBatchSize();
+        this.sampleEvery = Math.max(1, properties.getSampleEvery());
+        FunctionCounter.builder("ecommerce.events.dropped", dropped, LongAdder::sum)
+                .description("Request events dropped because the event queue was full")
+                .register(meterRegistry);
+        this.writer = new Thread(this::writeEvents, "request-event-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Returns a shared RequestEventLog that discards every event, used when the services are created
+     * outside the application context.
+     *
+     * @return the discarding log
+     */
+    public static RequestEventLog discarding() {
+        return DISCARDING;
+    }
+
+    /**
+     * Publishes an event without blocking. A sampled type is skipped unless it is picked by the
+     * sampling, and the event is dropped if the queue is full or the events are not logged.
+     *
+     * @param type   the type of the event
+     * @param cartId the id of the cart, or {@link RequestEvent#NO_CART}
+     * @param count  the number of items the event refers to
+     */
+    public void publish(RequestEvent.Type type, long cartId, long count) {
+        if (writer == null || !EVENTS.isInfoEnabled()
+                || type.isSampled() && sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0) {
+            return;
+        }
+        if (!queue.offer(new RequestEvent(type, cartId, count))) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Retrieves the number of events dropped because the queue was full.
+     *
+     * @return the dropped events since startup
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stops the writer thread once the events already published are written.
+     */
+    @PreDestroy
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Loop of the writer thread: waits for an event, drains up to a batch and writes it.
+     */
+    private void writeEvents() {
+        List<RequestEvent> batch = new ArrayList<>(batchSize);
+        StringBuilder lines = new StringBuilder();
+        long reportedDrops = 0;
+        while (running || !queue.isEmpty()) {
+            try {
+                RequestEvent first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                lines.setLength(0);
+                for (RequestEvent event : batch) {
+                    if (lines.length() > 0) {
+                        lines.append(System.lineSeparator());
+                    }
+                    event.appendTo(lines);
+                }
+                EVENTS.info(lines.toString());
+                batch.clear();
+                long drops = dropped.sum();
+                if (drops > reportedDrops) {
+                    LOGGER.warn("Dropped {} request events because the event queue was full", drops - reportedDrops);
+                    reportedDrops = drops;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException ex) {
+                LOGGER.error("Failed to write request events", ex);
+                batch.clear();
+            }
+        }
+    }
+}
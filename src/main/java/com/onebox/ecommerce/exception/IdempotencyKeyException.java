@@ -0,0 +1,18 @@
+package com.onebox.ecommerce.exception;
+
+/**
+ * Exception raised when an {@code Idempotency-Key} header can not be honored: the key is too long, or
+ * it was already used by a request to another endpoint or with another body.
+ * Like {@link NotFoundException}, it does not capture the stack trace.
+ */
+public class IdempotencyKeyException extends RuntimeException {
+
+    /**
+     * Constructs a new IdempotencyKeyException with the given message.
+     *
+     * @param message the error message
+     */
+    public IdempotencyKeyException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,65 @@
+package com.onebox.ecommerce.exception;
+
+/**
+ * Exception raised when a cart or a product does not exist.
+ * It is cheap to raise on a hot path: the stack trace is not captured and the message is only
+ * formatted when it is read, which usually happens once when the error response is written.
+ * It extends IllegalArgumentException so the callers that handle an unknown id keep working.
+ */
+public class NotFoundException extends IllegalArgumentException {
+
+    private final String entity;
+
+    private final transient Object id;
+
+    /**
+     * Constructs a new NotFoundException for the given entity and id.
+     *
+     * @param entity the name of the entity, as it starts the message
+     * @param id     the id that was not found
+     */
+    public NotFoundException(String entity, Object id) {
+        this.entity = entity;
+        this.id = id;
+    }
+
+    /**
+     * Builds the exception raised when a cart does not exist.
+     *
+     * @param cartId the id of the cart
+     * @return the exception to throw
+     */
+    public static NotFoundException cart(Long cartId) {
+        return new NotFoundException("Cart", cartId);
+    }
+
+    /**
+     * Builds the exception raised when a product does not exist.
+     *
+     * @param productId the id of the product
+     * @return the exception to throw
+     */
+    public static NotFoundException product(Long productId) {
+        return new NotFoundException("Product", productId);
+    }
+
+    /**
+     * Formats the message from the entity and the id.
+     *
+     * @return the message, such as {@code Cart not found for the id: 1}
+     */
+    @Override
+    public String getMessage() {
+        return entity + " not found for the id: " + id;
+    }
+
+    /**
+     * Skips the capture of the stack trace, which is never reported for an unknown id.
+     *
+     * @return this exception
+     */
+    @Override
+    public Throwable fillInStackTrace() {
+        return this;
+    }
+}
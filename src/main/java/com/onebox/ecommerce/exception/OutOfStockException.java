@@ -1,7 +1,52 @@
 package com.onebox.ecommerce.exception;
 
+/**
+ * Exception raised when a product has not enough stock to reserve the requested units.
+ * Like {@link NotFoundException}, it does not capture the stack trace and formats its message
+ * only when it is read.
+ */
 public class OutOfStockException extends RuntimeException {
+
+    private final long productId;
+
+    private final int stock;
+
+    /**
+     * Constructs a new OutOfStockException with the given message.
+     *
+     * @param message the error message
+     */
     public OutOfStockException(String message) {
-        super(message);
+        super(message, null, false, false);
+        this.productId = 0;
+        this.stock = -1;
+    }
+
+    /**
+     * Constructs a new OutOfStockException for a product and the stock it has left.
+     *
+     * @param productId the id of the product
+     * @param stock     the units left in stock
+     */
+    public OutOfStockException(long productId, int stock) {
+        super(null, null, false, false);
+        this.productId = productId;
+        this.stock = stock;
+    }
+
+    /**
+     * Returns the message given on construction or formats it from the product and its stock.
+     *
+     * @return the error message
+     */
+    @Override
+    public String getMessage() {
+        if (stock < 0) {
+            return super.getMessage();
+        }
+        if (stock == 0) {
+            return "Product has not more stock for the id: " + productId;
+        }
+        return "Product has only " + stock + " stock for the id: " + productId;
     }
 }
@@ -0,0 +1,55 @@
+package com.onebox.ecommerce.exception;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logs at most one error per interval and counts the errors suppressed in between, so a flood of
+ * failed requests costs an increment each instead of a log line. The suppressed count is reported
+ * with the next error that is logged.
+ */
+class RateLimitedLogger {
+
+    private final Logger logger;
+
+    private final long intervalNanos;
+
+    private final AtomicLong nextLogNanos = new AtomicLong(System.nanoTime());
+
+    private final LongAdder suppressed = new LongAdder();
+
+    /**
+     * Constructs a new RateLimitedLogger.
+     *
+     * @param logger   the logger to write to
+     * @param interval the minimum time between two log lines
+     * @param unit     the unit of the interval
+     */
+    RateLimitedLogger(Logger logger, long interval, TimeUnit unit) {
+        this.logger = logger;
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Logs the message of an exception at WARN level unless another one was logged within the interval.
+     *
+     * @param ex the exception to log
+     */
+    void warn(Exception ex) {
+        long now = System.nanoTime();
+        long next = nextLogNanos.get();
+        if (now - next < 0 || !nextLogNanos.compareAndSet(next, now + intervalNanos)) {
+            suppressed.increment();
+            return;
+        }
+        long skipped = suppressed.sumThenReset();
+        if (skipped > 0) {
+            logger.warn("{} ({} similar errors suppressed)", ex.getMessage(), skipped);
+        } else {
+            logger.warn(ex.getMessage());
+        }
+    }
+}
@@ -2,21 +2,36 @@ package com.onebox.ecommerce.exception;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Global exception handler for REST controllers.
  * This class provides a centralized mechanism for handling exceptions thrown
  * by the controllers in the e-commerce application. It specifically handles
- * IllegalArgumentException and returns a structured error response with a
- * NOT_FOUND (404) HTTP status.
+ * IllegalArgumentException, including {@link NotFoundException}, and returns a structured error
+ * response with a NOT_FOUND (404) HTTP status, OutOfStockException with a BAD_REQUEST (400) one and
+ * IdempotencyKeyException with an UNPROCESSABLE_ENTITY (422) one.
+ * The errors are logged here rather than where they are raised, at most once per second for each
+ * kind, so a client polling stale ids does not flood the log.
  */
 @RestControllerAdvice
 public class WebRestControllerAdvice {
 
+    private final RateLimitedLogger notFoundLogger =
+            new RateLimitedLogger(LoggerFactory.getLogger(NotFoundException.class), 1, TimeUnit.SECONDS);
+
+    private final RateLimitedLogger outOfStockLogger =
+            new RateLimitedLogger(LoggerFactory.getLogger(OutOfStockException.class), 1, TimeUnit.SECONDS);
+
+    private final RateLimitedLogger idempotencyKeyLogger =
+            new RateLimitedLogger(LoggerFactory.getLogger(IdempotencyKeyException.class), 1, TimeUnit.SECONDS);
+
     /**
      * Handles IllegalArgumentException and returns an error response when the cartId doesn't exist.
      *
@@ -25,16 +40,38 @@ public class WebRestControllerAdvice {
      */
     @ExceptionHandler(IllegalArgumentException.class)
     public ResponseEntity<ErrorResponse> handleIllegalArgumentException(IllegalArgumentException ex) {
+        notFoundLogger.warn(ex);
         ErrorResponse errorResponse = new ErrorResponse(ex.getMessage());
         return new ResponseEntity<>(errorResponse, HttpStatus.NOT_FOUND);
     }
 
+    /**
+     * Handles OutOfStockException and returns an error response when a product has not enough stock.
+     *
+     * @param ex the exception that was thrown
+     * @return a ResponseEntity containing an ErrorResponse with the exception message and a 400 status code
+     */
     @ExceptionHandler(OutOfStockException.class)
     public ResponseEntity<ErrorResponse> handleOutOfStockException(OutOfStockException ex) {
+        outOfStockLogger.warn(ex);
         ErrorResponse errorResponse = new ErrorResponse(ex.getMessage());
         return new ResponseEntity<>(errorResponse, HttpStatus.BAD_REQUEST);
     }
 
+    /**
+     * Handles IdempotencyKeyException and returns an error response when an idempotency key can not be
+     * honored, such as a key reused by a request to another endpoint or with another body.
+     *
+     * @param ex the exception that was thrown
+     * @return a ResponseEntity containing an ErrorResponse with the exception message and a 422 status code
+     */
+    @ExceptionHandler(IdempotencyKeyException.class)
+    public ResponseEntity<ErrorResponse> handleIdempotencyKeyException(IdempotencyKeyException ex) {
+        idempotencyKeyLogger.warn(ex);
+        ErrorResponse errorResponse = new ErrorResponse(ex.getMessage());
+        return new ResponseEntity<>(errorResponse, HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
     /**
      * Represents an error response returned by the API when an exception occurs.
      */
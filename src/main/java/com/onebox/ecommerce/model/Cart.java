@@ -1,61 +1,456 @@
 package com.onebox.ecommerce.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.function.LongFunction;
+import java.util.function.LongUnaryOperator;
 
 /**
  * Represents a shopping cart in the e-commerce system.
  * Each cart has a unique id, maintains a collection of products, and tracks the last time
  * it was updated. The cart is initialized with an empty product collection and the timestamp
  * of its creation.
+ * To keep millions of carts cheap, the products are stored as {@link Lines}: parallel arrays of
+ * product ids and amounts, without descriptions, which are resolved from the catalog when the cart
+ * is serialized. The timestamp is stored as epoch milliseconds.
+ * The lines also carry the running totals of the cart, its item count and its subtotal in minor units,
+ * which are adjusted by the difference of each changed line instead of being summed again.
+ * Every change of the lines bumps the version of the cart, so a client can tell whether the lines it
+ * holds are still current.
  */
 @Getter
-@Setter
 public class Cart {
 
     /**
-     * Counter used to generate unique ids for each cart since
-     * there isn't a database to ensure a unique ID for the carts.
-     * I considered using a UUID, but I use Long in order to maintain
-     * consistency with the numerical IDs used for the products.
+     * The unit prices of a cart whose products are not priced, such as a cart not stored yet.
      */
-    private static Long counter = 0L;
+    public static final LongUnaryOperator NO_PRICES = productId -> 0L;
 
     /**
      * Unique identifier for the cart.
      */
-    private final Long id;
+    private final long id;
 
     /**
-     * A map of products in the cart, where the key is the product id and the value is the product.
-     * I decided to use a Map since there isn't a database and is more efficient
-     * for working with get(), put(), remove(), etc. that a List.
+     * The products in the cart, sorted by product id.
+     * The lines are immutable and replaced on every change, so a reader always sees a consistent
+     * snapshot with a single volatile read while another request updates the cart.
      */
-    private Map<Long, Product> products;
+    @JsonIgnore
+    private volatile Lines lines;
 
     /**
-     * The timestamp of the last update made to the cart.
+     * The version of the lines, bumped by every change of them since the cart was created or restored.
+     * Only written inside the atomic updates of the cart, so the increment does not need to be atomic.
      */
-    private LocalDateTime lastUpdated;
+    @JsonIgnore
+    private volatile long version;
 
     /**
-     * Constructs a new Cart instance with a unique id, an empty product map,
+     * The timestamp of the last update made to the cart, in epoch milliseconds.
+     * Volatile because it is written by request threads and read by the inactivity sweep.
+     */
+    @JsonIgnore
+    @Setter
+    private volatile long lastUpdatedMillis;
+
+    /**
+     * The tick of the expiry index under which the repository last scheduled this cart, or 0 if it never did.
+     * It lets the repository schedule a touched cart again only when its bucket is due.
+     */
+    @JsonIgnore
+    @Setter
+    private long expiryTick;
+
+    /**
+     * Resolves the unit price of a product, in minor units, when one of its lines changes.
+     * Only used inside the atomic updates of the cart, so it does not need to be volatile.
+     */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    private LongUnaryOperator unitPrices = NO_PRICES;
+
+    /**
+     * Constructs a new Cart instance with the given id, no products,
      * and the current time as the last updated timestamp.
+     * The id is generated by the repository, since there isn't a database to ensure a unique id for the carts.
+     *
+     * @param id the unique id of the cart
+     */
+    public Cart(long id) {
+        this.id = id;
+        this.lines = Lines.EMPTY;
+        this.lastUpdatedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Constructs a Cart instance with a known id, timestamp and products, such as a cart restored
+     * from persistent storage.
+     *
+     * @param id                the id of the cart
+     * @param lastUpdatedMillis the timestamp of the last update made to the cart, in epoch milliseconds
+     * @param lines             the products of the cart
+     */
+    public Cart(long id, long lastUpdatedMillis, Lines lines) {
+        this.id = id;
+        this.lines = lines;
+        this.lastUpdatedMillis = lastUpdatedMillis;
+    }
+
+    /**
+     * Returns a copy of the cart as it is now, which later changes of the cart do not affect.
+     *
+     * @return the copy of the cart, with the same id, lines, version and timestamp
      */
-    public Cart() {
-        this.id = ++counter;
-        this.products = new HashMap<>();
-        this.lastUpdated = LocalDateTime.now();
+    public Cart snapshot() {
+        Cart copy = new Cart(id, lastUpdatedMillis, lines);
+        copy.version = version;
+        return copy;
+    }
+
+    /**
+     * Puts the cart back in the state of a snapshot taken from it, such as after an update that could
+     * not be stored.
+     *
+     * @param snapshot a snapshot of this cart, taken with {@link #snapshot()}
+     */
+    public void restore(Cart snapshot) {
+        this.lines = snapshot.lines;
+        this.version = snapshot.version;
+        this.lastUpdatedMillis = snapshot.lastUpdatedMillis;
     }
 
     /**
      * Updates the cart's lastUpdated timestamp to the current time.
      */
     public void updateTimestamp() {
-        this.lastUpdated = LocalDateTime.now();
+        this.lastUpdatedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the timestamp of the last update made to the cart.
+     *
+     * @return the last update in the system time zone
+     */
+    public LocalDateTime getLastUpdated() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(lastUpdatedMillis), ZoneId.systemDefault());
+    }
+
+    /**
+     * Sets the timestamp of the last update made to the cart.
+     *
+     * @param lastUpdated the last update in the system time zone
+     */
+    public void setLastUpdated(LocalDateTime lastUpdated) {
+        this.lastUpdatedMillis = lastUpdated.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Sets the unit prices of the products of the cart and recomputes its subtotal with them.
+     *
+     * @param unitPrices resolves the unit price of a product, in minor units, from its id
+     */
+    public void setUnitPrices(LongUnaryOperator unitPrices) {
+        this.unitPrices = unitPrices;
+        this.lines = lines.priced(unitPrices);
+    }
+
+    /**
+     * Returns the amount of a product in the cart.
+     *
+     * @param productId the id of the product
+     * @return the amount of the product, or 0 if it is not in the cart
+     */
+    public int getAmountOf(long productId) {
+        return lines.amountOf(productId);
+    }
+
+    /**
+     * Returns the number of distinct products in the cart.
+     *
+     * @return the number of lines
+     */
+    public int getLineCount() {
+        return lines.size();
+    }
+
+    /**
+     * Returns the number of units of all the products in the cart.
+     *
+     * @return the sum of the amounts of the lines
+     */
+    public long getItemCount() {
+        return lines.itemCount();
+    }
+
+    /**
+     * Returns the subtotal of the cart.
+     *
+     * @return the sum of the amount times the unit price of the lines, in minor units
+     */
+    public long getSubtotal() {
+        return lines.subtotal();
+    }
+
+    /**
+     * Adds, updates or removes a product of the cart. A product with amount 0 is removed.
+     *
+     * @param product the product to add or update in the cart
+     */
+    public void putProduct(Product product) {
+        putProduct(product.getId(), product.getAmount());
+    }
+
+    /**
+     * Adds, updates or removes a product of the cart. A product with amount 0 is removed.
+     *
+     * @param productId the id of the product
+     * @param amount    the new amount of the product
+     */
+    public void putProduct(long productId, int amount) {
+        lines = lines.with(productId, amount, unitPrices.applyAsLong(productId));
+        version++;
+    }
+
+    /**
+     * Adds, updates or removes several products of the cart in a single pass.
+     * Products with amount 0 are removed.
+     *
+     * @param amounts the new amount of each product, by product id
+     */
+    public void putProducts(Map<Long, Integer> amounts) {
+        long[] productIds = amounts.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        int[] newAmounts = new int[productIds.length];
+        for (int i = 0; i < productIds.length; i++) {
+            newAmounts[i] = amounts.get(productIds[i]);
+        }
+        putProducts(productIds, newAmounts);
+    }
+
+    /**
+     * Adds, updates or removes several products of the cart in a single pass.
+     * Products with amount 0 are removed.
+     *
+     * @param productIds the ids of the products, sorted ascending without duplicates
+     * @param amounts    the new amount of each product, in the same order as the ids
+     */
+    public void putProducts(long[] productIds, int[] amounts) {
+        lines = lines.merge(productIds, amounts, unitPrices);
+        version++;
+    }
+
+    /**
+     * Returns the products in the cart as Product entities, sorted by product id.
+     *
+     * @param descriptions resolves the description of a product from its id
+     * @return the products of the cart, by product id
+     */
+    public Map<Long, Product> getProducts(LongFunction<String> descriptions) {
+        Lines current = lines;
+        Map<Long, Product> products = new LinkedHashMap<>();
+        for (int i = 0; i < current.size(); i++) {
+            long productId = current.productIds[i];
+            products.put(productId, new Product(productId, descriptions.apply(productId), current.amounts[i]));
+        }
+        return products;
+    }
+
+    /**
+     * Immutable snapshot of the products of a cart: parallel arrays of product ids, sorted ascending,
+     * and their amounts. Products with amount 0 are never stored.
+     * The item count and the subtotal are carried along and adjusted by each change of a line, so they
+     * always match the lines of the same snapshot.
+     */
+    public static final class Lines {
+
+        /**
+         * The lines of a cart without products, shared by every empty cart.
+         */
+        static final Lines EMPTY = new Lines(new long[0], new int[0], 0L, 0L);
+
+        private final long[] productIds;
+        private final int[] amounts;
+        private final long itemCount;
+        private final long subtotal;
+
+        private Lines(long[] productIds, int[] amounts, long itemCount, long subtotal) {
+            this.productIds = productIds;
+            this.amounts = amounts;
+            this.itemCount = itemCount;
+            this.subtotal = subtotal;
+        }
+
+        /**
+         * Returns the lines holding the given products, without prices.
+         *
+         * @param productIds the ids of the products, sorted ascending without duplicates
+         * @param amounts    the amount of each product, in the same order as the ids; none of them 0
+         * @return the lines of the products
+         */
+        public static Lines of(long[] productIds, int[] amounts) {
+            if (productIds.length == 0) {
+                return EMPTY;
+            }
+            long itemCount = 0;
+            for (int amount : amounts) {
+                itemCount += amount;
+            }
+            return new Lines(productIds, amounts, itemCount, 0L);
+        }
+
+        /**
+         * Returns the number of products.
+         *
+         * @return the number of products
+         */
+        public int size() {
+            return productIds.length;
+        }
+
+        /**
+         * Returns the id of the product at the given position.
+         *
+         * @param index the position of the product, between 0 and {@link #size()}
+         * @return the id of the product
+         */
+        public long productId(int index) {
+            return productIds[index];
+        }
+
+        /**
+         * Returns the amount of the product at the given position.
+         *
+         * @param index the position of the product, between 0 and {@link #size()}
+         * @return the amount of the product
+         */
+        public int amount(int index) {
+            return amounts[index];
+        }
+
+        /**
+         * Returns the number of units of all the products.
+         *
+         * @return the sum of the amounts
+         */
+        public long itemCount() {
+            return itemCount;
+        }
+
+        /**
+         * Returns the sum of the amount times the unit price of every product.
+         *
+         * @return the subtotal in minor units
+         */
+        public long subtotal() {
+            return subtotal;
+        }
+
+        /**
+         * Returns the amount of a product.
+         *
+         * @param productId the id of the product
+         * @return the amount of the product, or 0 if it is not in the lines
+         */
+        public int amountOf(long productId) {
+            int index = indexOf(productId);
+            return index >= 0 ? amounts[index] : 0;
+        }
+
+        private int indexOf(long productId) {
+            return Arrays.binarySearch(productIds, productId);
+        }
+
+        private Lines priced(LongUnaryOperator unitPrices) {
+            if (productIds.length == 0) {
+                return this;
+            }
+            long newSubtotal = 0;
+            for (int i = 0; i < productIds.length; i++) {
+                newSubtotal += amounts[i] * unitPrices.applyAsLong(productIds[i]);
+            }
+            return new Lines(productIds, amounts, itemCount, newSubtotal);
+        }
+
+        private Lines with(long productId, int amount, long unitPrice) {
+            int index = indexOf(productId);
+            int delta = amount - (index >= 0 ? amounts[index] : 0);
+            long newItemCount = itemCount + delta;
+            long newSubtotal = subtotal + delta * unitPrice;
+            if (index >= 0) {
+                if (amount == 0) {
+                    return without(index, newItemCount, newSubtotal);
+                }
+                int[] newAmounts = amounts.clone();
+                newAmounts[index] = amount;
+                return new Lines(productIds, newAmounts, newItemCount, newSubtotal);
+            }
+            if (amount == 0) {
+                return this;
+            }
+            int insertAt = -index - 1;
+            long[] newIds = new long[productIds.length + 1];
+            int[] newAmounts = new int[amounts.length + 1];
+            System.arraycopy(productIds, 0, newIds, 0, insertAt);
+            System.arraycopy(amounts, 0, newAmounts, 0, insertAt);
+            newIds[insertAt] = productId;
+            newAmounts[insertAt] = amount;
+            System.arraycopy(productIds, insertAt, newIds, insertAt + 1, productIds.length - insertAt);
+            System.arraycopy(amounts, insertAt, newAmounts, insertAt + 1, amounts.length - insertAt);
+            return new Lines(newIds, newAmounts, newItemCount, newSubtotal);
+        }
+
+        private Lines without(int index, long newItemCount, long newSubtotal) {
+            if (productIds.length == 1) {
+                return EMPTY;
+            }
+            long[] newIds = new long[productIds.length - 1];
+            int[] newAmounts = new int[amounts.length - 1];
+            System.arraycopy(productIds, 0, newIds, 0, index);
+            System.arraycopy(amounts, 0, newAmounts, 0, index);
+            System.arraycopy(productIds, index + 1, newIds, index, productIds.length - index - 1);
+            System.arraycopy(amounts, index + 1, newAmounts, index, amounts.length - index - 1);
+            return new Lines(newIds, newAmounts, newItemCount, newSubtotal);
+        }
+
+        private Lines merge(long[] updatedIds, int[] updatedAmounts, LongUnaryOperator unitPrices) {
+            long[] newIds = new long[productIds.length + updatedIds.length];
+            int[] newAmounts = new int[newIds.length];
+            long newItemCount = itemCount;
+            long newSubtotal = subtotal;
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < productIds.length || j < updatedIds.length) {
+                if (j == updatedIds.length || i < productIds.length && productIds[i] < updatedIds[j]) {
+                    newIds[size] = productIds[i];
+                    newAmounts[size++] = amounts[i++];
+                } else {
+                    int delta = updatedAmounts[j];
+                    if (i < productIds.length && productIds[i] == updatedIds[j]) {
+                        delta -= amounts[i++];
+                    }
+                    if (delta != 0) {
+                        newItemCount += delta;
+                        newSubtotal += delta * unitPrices.applyAsLong(updatedIds[j]);
+                    }
+                    if (updatedAmounts[j] != 0) {
+                        newIds[size] = updatedIds[j];
+                        newAmounts[size++] = updatedAmounts[j];
+                    }
+                    j++;
+                }
+            }
+            return size == 0 ? EMPTY : new Lines(Arrays.copyOf(newIds, size), Arrays.copyOf(newAmounts, size),
+                    newItemCount, newSubtotal);
+        }
     }
 }
@@ -3,14 +3,19 @@ package com.onebox.ecommerce.model;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import lombok.Getter;
-import lombok.Setter;
 
 /**
  * Represents a product available in the e-commerce system.
  * This class is used to define the details of a product that is available for purchase,
- * such as its unique identifier (ID), description, and available stock.
+ * such as its unique identifier (ID), description, unit price and available stock.
+ * The price is stored in minor units (cents), so the totals of the carts are exact.
+ * The stock is a {@link StockCounter}: units held by carts are taken from it atomically and given back
+ * when the carts release them, so concurrent carts can never take the same unit, and a product reserved
+ * by many threads at once spreads its stock over stripes instead of contending on a single field.
+ * Apart from the stock counter the product is immutable: a change of its description or price is a new
+ * instance, published in a new snapshot of the catalog, that keeps counting on the same stock, and a
+ * change of its stock replaces the units of that same counter.
  */
-@Setter
 @Getter
 public class ProductAvailable {
 
@@ -26,22 +31,95 @@ public class ProductAvailable {
     private final String description;
 
     /**
-     * The amount of the product available in stock.
+     * The unit price of the product, in minor units.
      */
-    @NotNull
     @Min(0)
-    private final Integer stock;
+    private final long price;
+
+    /**
+     * The amount of the product available in stock, not counting the units held by carts.
+     */
+    @NotNull
+    private final StockCounter stock;
 
     /**
-     * Constructs a new ProductAvailable instance with the specified ID, description, and stock.
+     * Constructs a new ProductAvailable instance with the specified ID, description, and stock,
+     * without a price.
      *
      * @param id the unique identifier of the product
      * @param description the description of the product
      * @param stock the amount of the product available in stock
      */
     public ProductAvailable(Long id, String description, Integer stock) {
+        this(id, description, stock, 0L);
+    }
+
+    /**
+     * Constructs a new ProductAvailable instance with the specified ID, description, stock and price.
+     *
+     * @param id the unique identifier of the product
+     * @param description the description of the product
+     * @param stock the amount of the product available in stock
+     * @param price the unit price of the product, in minor units
+     */
+    public ProductAvailable(Long id, String description, Integer stock, long price) {
+        this(id, description, price, new StockCounter(stock));
+    }
+
+    private ProductAvailable(Long id, String description, long price, StockCounter stock) {
         this.id = id;
         this.description = description;
+        this.price = price;
         this.stock = stock;
     }
+
+    /**
+     * Returns a copy of this product with the given description and price that shares its stock,
+     * so the units reserved and released through either instance are counted once.
+     *
+     * @param newDescription the description of the copy
+     * @param newPrice       the unit price of the copy, in minor units
+     * @return the copy of the product
+     */
+    public ProductAvailable withDetails(String newDescription, long newPrice) {
+        return new ProductAvailable(id, newDescription, newPrice, stock);
+    }
+
+    /**
+     * Replaces the amount of the product available in stock, shared with the copies of the product.
+     * Reservations and releases made through any copy are counted on the new amount from then on.
+     *
+     * @param units the units that are not held by any cart
+     */
+    public void replaceStock(int units) {
+        stock.set(units);
+    }
+
+    /**
+     * Returns the amount of the product available in stock.
+     *
+     * @return the units that are not held by any cart
+     */
+    public Integer getStock() {
+        return stock.get();
+    }
+
+    /**
+     * Atomically takes the given amount of units from the stock if enough units are available.
+     *
+     * @param amount the amount of units to take; must be positive
+     * @return true if the units were taken, false if the stock was not enough and nothing was taken
+     */
+    public boolean tryReserve(int amount) {
+        return stock.tryReserve(amount);
+    }
+
+    /**
+     * Atomically gives back the given amount of units to the stock.
+     *
+     * @param amount the amount of units to give back; must be positive
+     */
+    public void release(int amount) {
+        stock.release(amount);
+    }
 }
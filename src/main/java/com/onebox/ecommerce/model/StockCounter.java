@@ -0,0 +1,249 @@
+package com.onebox.ecommerce.model;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stock of a product that never oversells and does not turn a hot product into a single contended field.
+ * The units start in a base counter taken with a compare-and-set loop, which is all a product ever
+ * needs while its reservations do not collide. The first collision splits the counter into stripes,
+ * each on its own cache line, and every operation then reserves from or releases to a stripe picked
+ * with {@link ThreadLocalRandom}, moving to another stripe when its compare-and-set collides. The pick
+ * does not depend on the thread, so it spreads the short-lived virtual threads of the requests as
+ * well as a pool of platform threads. A stripe holds a sub-budget of the units: when it runs dry, the
+ * units of the base and of every stripe are collected under a lock, the reservation is taken from the
+ * total and the rest is spread over the stripes again. A unit is only ever taken from a counter by an
+ * atomic operation, so the stock can not be oversold. A reservation is rejected when the units it sees
+ * are not enough: the base counter alone before the split, all the counters collected by the rebalance
+ * after it. The units of a release or a {@link #set(int)} that runs at the same time may be missed, so
+ * such a reservation can be rejected although the stock is enough once they land; the next reservation
+ * sees them.
+ */
+public final class StockCounter {
+
+    /**
+     * Number of ints between two stripes, so each stripe sits on its own 64-byte cache line.
+     */
+    private static final int PADDING = 16;
+
+    private static final int MAX_STRIPES = 64;
+
+    private static final AtomicIntegerFieldUpdater<StockCounter> BASE =
+            AtomicIntegerFieldUpdater.newUpdater(StockCounter.class, "base");
+
+    private static final AtomicReferenceFieldUpdater<StockCounter, Stripes> STRIPES =
+            AtomicReferenceFieldUpdater.newUpdater(StockCounter.class, Stripes.class, "stripes");
+
+    /**
+     * The number of rebalances of all the counters since startup.
+     */
+    private static final LongAdder REBALANCES = new LongAdder();
+
+    /**
+     * The units held by the base counter.
+     */
+    private volatile int base;
+
+    /**
+     * The stripes of the counter; null until two operations collide on the base counter.
+     */
+    private volatile Stripes stripes;
+
+    /**
+     * Constructs a new StockCounter holding the given units.
+     *
+     * @param units the units of the stock
+     */
+    public StockCounter(int units) {
+        this.base = units;
+    }
+
+    /**
+     * Returns the number of rebalances of all the stock counters since startup.
+     *
+     * @return the number of rebalances
+     */
+    public static long rebalanceCount() {
+        return REBALANCES.sum();
+    }
+
+    /**
+     * Returns the units not reserved. While reservations are in flight the sum of the stripes is not
+     * taken atomically, so it may be off by the units of those reservations, but it is never negative.
+     *
+     * @return the available units
+     */
+    public int get() {
+        int units = base;
+        Stripes current = stripes;
+        if (current != null) {
+            for (int i = 0; i < current.size; i++) {
+                units += current.cells.get(i * PADDING);
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Takes the given units if the stock holds enough of them.
+     *
+     * @param amount the units to take; must be positive
+     * @return true if the units were taken, false if the units seen were not enough and nothing was taken
+     */
+    public boolean tryReserve(int amount) {
+        Stripes current = stripes;
+        if (current == null) {
+            int units = base;
+            if (units >= amount && BASE.compareAndSet(this, units, units - amount)) {
+                return true;
+            }
+            if (units < amount && stripes == null) {
+                return false;
+            }
+            current = inflate();
+        }
+        int index = current.pick();
+        int units = current.cells.get(index);
+        while (units >= amount) {
+            if (current.cells.compareAndSet(index, units, units - amount)) {
+                return true;
+            }
+            index = current.pick();
+            units = current.cells.get(index);
+        }
+        return rebalance(current, index, amount);
+    }
+
+    /**
+     * Gives back the given units.
+     *
+     * @param amount the units to give back; must be positive
+     */
+    public void release(int amount) {
+        Stripes current = stripes;
+        if (current == null) {
+            int units = base;
+            if (BASE.compareAndSet(this, units, units + amount)) {
+                return;
+            }
+            current = inflate();
+        }
+        current.cells.getAndAdd(current.pick(), amount);
+    }
+
+    /**
+     * Replaces the units not reserved, as one atomic step with respect to the reservations and releases:
+     * the units taken or given back before it are overwritten, the ones after it count on the new units.
+     *
+     * @param units the units of the stock
+     */
+    public void set(int units) {
+        Stripes current = stripes;
+        if (current == null) {
+            int before = base;
+            if (BASE.compareAndSet(this, before, units) && stripes == null) {
+                return;
+            }
+            current = inflate();
+        }
+        current.lock.lock();
+        try {
+            BASE.set(this, 0);
+            for (int i = 0; i < current.size; i++) {
+                current.cells.set(i * PADDING, 0);
+            }
+            spread(current, 0, units);
+        } finally {
+            current.lock.unlock();
+        }
+    }
+
+    /**
+     * Splits the counter into stripes, unless another thread already did. The units stay in the base
+     * counter until the first rebalance spreads them.
+     *
+     * @return the stripes of the counter
+     */
+    private Stripes inflate() {
+        STRIPES.compareAndSet(this, null, new Stripes());
+        return stripes;
+    }
+
+    /**
+     * Collects the units of the base counter and of every stripe, takes the reservation from the total
+     * if it is enough and spreads the rest over the stripes, the remainder of the division going to the
+     * stripe the caller last picked.
+     *
+     * @param current the stripes of the counter
+     * @param index   the index of the stripe the caller last picked
+     * @param amount  the units to take
+     * @return true if the units were taken
+     */
+    private boolean rebalance(Stripes current, int index, int amount) {
+        current.lock.lock();
+        try {
+            REBALANCES.increment();
+            int total = BASE.getAndSet(this, 0);
+            for (int i = 0; i < current.size; i++) {
+                total += current.cells.getAndSet(i * PADDING, 0);
+            }
+            boolean reserved = total >= amount;
+            if (reserved) {
+                total -= amount;
+            }
+            spread(current, index, total);
+            return reserved;
+        } finally {
+            current.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds units to the stripes in equal shares, the remainder of the division going to the given stripe.
+     * Must be called holding the lock of the stripes.
+     *
+     * @param current the stripes of the counter
+     * @param index   the index of the stripe that takes the remainder
+     * @param total   the units to add
+     */
+    private static void spread(Stripes current, int index, int total) {
+        int share = total / current.size;
+        for (int i = 0; i < current.size; i++) {
+            int units = i * PADDING == index ? total - share * (current.size - 1) : share;
+            if (units > 0) {
+                current.cells.getAndAdd(i * PADDING, units);
+            }
+        }
+    }
+
+    /**
+     * The stripes of a contended counter, one per cache line, and the lock of their rebalances.
+     */
+    private static final class Stripes {
+
+        private final int size;
+        private final int mask;
+        private final AtomicIntegerArray cells;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Stripes() {
+            int processors = Runtime.getRuntime().availableProcessors();
+            this.size = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, processors * 2 - 1)) << 1);
+            this.mask = size - 1;
+            this.cells = new AtomicIntegerArray(size * PADDING);
+        }
+
+        /**
+         * Picks the stripe of an operation.
+         *
+         * @return the index of the stripe in the cells
+         */
+        private int pick() {
+            return (ThreadLocalRandom.current().nextInt() & mask) * PADDING;
+        }
+    }
+}
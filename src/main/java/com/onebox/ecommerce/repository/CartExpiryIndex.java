@@ -0,0 +1,93 @@
+package com.onebox.ecommerce.repository;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongConsumer;
+
+/**
+ * Deadline-ordered index of cart expiries.
+ * Deadlines are rounded up to a tick and every tick owns a bucket of cart ids, kept in a skip list
+ * ordered by tick. The sweep only detaches the buckets whose tick is already due, so its cost depends
+ * on the number of carts expiring and not on the number of live carts.
+ * A cart has a single entry however often it is touched: touching a cart only moves its deadline, and
+ * when its bucket is due the repository checks the real deadline of the cart and schedules it again in
+ * the bucket of that deadline. Entries are never removed, so the entries of deleted carts, or of carts
+ * scheduled again earlier, become stale; the repository discards them when it checks each cart returned
+ * by {@link #pollExpired(long, LongConsumer)}.
+ */
+class CartExpiryIndex {
+
+    /**
+     * The granularity of the index in milliseconds.
+     */
+    private final long tickMillis;
+
+    /**
+     * Buckets of cart ids ordered by the tick in which they expire.
+     */
+    private final ConcurrentNavigableMap<Long, Queue<Long>> buckets = new ConcurrentSkipListMap<>();
+
+    /**
+     * Constructs a new CartExpiryIndex with the given granularity.
+     *
+     * @param tickMillis the granularity of the index in milliseconds; values below 1 are raised to 1
+     */
+    CartExpiryIndex(long tickMillis) {
+        this.tickMillis = Math.max(1L, tickMillis);
+    }
+
+    /**
+     * Returns the tick a deadline belongs to, rounding up so a cart is never expired early.
+     *
+     * @param deadlineMillis the deadline in epoch milliseconds
+     * @return the tick of the deadline
+     */
+    long tickOf(long deadlineMillis) {
+        return Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis);
+    }
+
+    /**
+     * Returns the last tick whose bucket is due at the given time.
+     *
+     * @param nowMillis the current time in epoch milliseconds
+     * @return the last due tick
+     */
+    long dueTick(long nowMillis) {
+        return Math.floorDiv(nowMillis, tickMillis);
+    }
+
+    /**
+     * Adds a cart to the bucket of the given tick.
+     * If the sweep detaches the bucket while the id is being added, the id is added again to a new
+     * bucket; the duplicate it may leave behind is discarded like any other stale entry.
+     *
+     * @param cartId the id of the cart
+     * @param tick   the tick in which the cart expires
+     */
+    void schedule(long cartId, long tick) {
+        Queue<Long> bucket;
+        do {
+            bucket = buckets.computeIfAbsent(tick, key -> new ConcurrentLinkedQueue<>());
+            bucket.add(cartId);
+        } while (buckets.get(tick) != bucket);
+    }
+
+    /**
+     * Detaches every bucket that is due at the given time and passes each of its cart ids to the consumer.
+     *
+     * @param nowMillis the current time in epoch milliseconds
+     * @param consumer  the consumer of the cart ids whose deadline may have passed
+     */
+    void pollExpired(long nowMillis, LongConsumer consumer) {
+        long nowTick = dueTick(nowMillis);
+        Map.Entry<Long, Queue<Long>> entry;
+        while ((entry = buckets.firstEntry()) != null && entry.getKey() <= nowTick) {
+            if (buckets.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().forEach(consumer::accept);
+            }
+        }
+    }
+}
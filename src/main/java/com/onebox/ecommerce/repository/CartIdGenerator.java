@@ -0,0 +1,132 @@
+package com.onebox.ecommerce.repository;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free generator of unique cart ids.
+ * An id holds the node id in its upper bits and a sequence in the lower {@value #SEQUENCE_BITS} bits,
+ * so instances of the service configured with different node ids never hand out the same id.
+ * Both fit in the lower {@value #ID_BITS} bits, so every id is at most 2^53 - 1, the largest integer a
+ * JSON client that reads numbers as doubles, such as JavaScript, holds exactly.
+ * The sequence is handed out in blocks: a shared counter only reserves a block of
+ * {@value #BLOCK_SIZE} ids at a time, and the ids of a block are taken from one of several stripes
+ * picked with {@link ThreadLocalRandom} for each id. Threads therefore contend on the shared counter
+ * once per block, and on a stripe only with the threads that picked the same stripe at the same time.
+ * Ids are unique but only ordered within a stripe.
+ */
+public class CartIdGenerator {
+
+    /**
+     * The number of bits of an id, node id and sequence included.
+     */
+    public static final int ID_BITS = 53;
+
+    /**
+     * The number of bits of the sequence. The remaining bits of the id hold the node id.
+     */
+    public static final int SEQUENCE_BITS = 43;
+
+    /**
+     * The largest node id.
+     */
+    public static final long MAX_NODE_ID = (1L << (ID_BITS - SEQUENCE_BITS)) - 1;
+
+    /**
+     * The number of ids reserved from the shared counter at a time.
+     */
+    static final int BLOCK_SIZE = 1024;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long nodePrefix;
+
+    /**
+     * The next sequence value not reserved by any block.
+     */
+    private final AtomicLong nextBlock = new AtomicLong(1);
+
+    /**
+     * The current block of each stripe; null until the stripe is first used.
+     */
+    private final AtomicReferenceArray<Block> blocks;
+
+    private final int stripeMask;
+
+    /**
+     * Constructs a new CartIdGenerator for the given node.
+     *
+     * @param nodeId the id of this instance of the service, between 0 and {@link #MAX_NODE_ID}
+     * @throws IllegalArgumentException if the node id is out of range
+     */
+    public CartIdGenerator(long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and %s: %s".formatted(MAX_NODE_ID, nodeId));
+        }
+        this.nodePrefix = nodeId << SEQUENCE_BITS;
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.stripeMask = stripes - 1;
+        this.blocks = new AtomicReferenceArray<>(stripes);
+    }
+
+    /**
+     * Returns a new unique id.
+     *
+     * @return the id, always positive and at most 2^53 - 1
+     * @throws IllegalStateException if the sequence of this node is exhausted
+     */
+    public long nextId() {
+        int stripe = ThreadLocalRandom.current().nextInt() & stripeMask;
+        while (true) {
+            Block block = blocks.get(stripe);
+            if (block != null) {
+                long sequence = block.getAndIncrement();
+                if (sequence < block.end) {
+                    return nodePrefix | sequence;
+                }
+            }
+            refill(stripe, block);
+        }
+    }
+
+    /**
+     * Makes sure that every id generated afterwards is greater in sequence than the given one, if it
+     * belongs to this node. Used when carts are restored with ids generated by a previous run.
+     *
+     * @param id an id already in use
+     */
+    public void advancePast(long id) {
+        if ((id & ~SEQUENCE_MASK) == nodePrefix) {
+            nextBlock.accumulateAndGet((id & SEQUENCE_MASK) + 1, Math::max);
+        }
+    }
+
+    /**
+     * Reserves a new block for a stripe whose block is missing or exhausted. If another thread replaced
+     * the block meanwhile, the new block is discarded and the caller retries with the other one.
+     *
+     * @param stripe   the stripe
+     * @param previous the exhausted block, or null if the stripe had no block
+     */
+    private void refill(int stripe, Block previous) {
+        long start = nextBlock.getAndAdd(BLOCK_SIZE);
+        if (start + BLOCK_SIZE > SEQUENCE_MASK) {
+            throw new IllegalStateException("Cart id sequence exhausted");
+        }
+        blocks.compareAndSet(stripe, previous, new Block(start, start + BLOCK_SIZE));
+    }
+
+    /**
+     * A block of the sequence: the value is the next sequence value to hand out, valid below the end.
+     */
+    private static final class Block extends AtomicLong {
+
+        private final long end;
+
+        private Block(long start, long end) {
+            super(start);
+            this.end = end;
+        }
+    }
+}
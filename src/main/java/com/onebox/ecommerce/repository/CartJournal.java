@@ -0,0 +1,638 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.model.Cart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Append-only journal of cart mutations, stored in memory-mapped segment files, with periodic
+ * compacted snapshots.
+ * Every record holds absolute state (the full cart, the new amount of the changed lines, or the removal
+ * of a cart) and is protected by a CRC32C checksum, so replaying records that a snapshot already
+ * includes is harmless and a torn record at the tail of the journal is detected and ignored.
+ * A snapshot first rolls the journal to a new segment and then writes every live cart, so the carts
+ * are restored from the snapshot plus the segments from that one onwards, and older segments are deleted.
+ * The stores run each mutation and its append through {@link #mutate}, which the roll of a snapshot
+ * excludes, so every mutation is either visible to the snapshot or appended to the segments after it.
+ */
+class CartJournal implements Closeable {
+
+    /**
+     * Record holding the full state of a cart.
+     */
+    static final byte CART = 1;
+
+    /**
+     * Record holding the new amount of the lines that changed in a cart; 0 means the line was removed.
+     */
+    static final byte LINES = 2;
+
+    /**
+     * Record of a cart deleted by a request.
+     */
+    static final byte DELETE = 3;
+
+    /**
+     * Record of a cart deleted due to inactivity.
+     */
+    static final byte EXPIRE = 4;
+
+    /**
+     * Record of a cart evicted due to the size bound of the store.
+     */
+    static final byte EVICT = 5;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CartJournal.class);
+    private static final int RECORD_HEADER = Integer.BYTES * 2;
+    private static final int RECORD_FIXED_BODY = Byte.BYTES + Long.BYTES * 2 + Integer.BYTES;
+    private static final int RECORD_LINE = Long.BYTES + Integer.BYTES;
+    private static final String SEGMENT_PREFIX = "cart-journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_FILE = "cart-snapshot.bin";
+    private static final int SNAPSHOT_MAGIC = 0x43534e50;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final CartProperties.FsyncPolicy fsync;
+
+    /**
+     * Serializes the appends, which only copy a record into the mapped segment, and the segment rolls.
+     */
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    /**
+     * Guards the group commit state.
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition flushed = flushLock.newCondition();
+    private long durablePosition;
+    private boolean flushing;
+
+    /**
+     * Shared by the mutations of the store and their appends, taken exclusively by the roll of a snapshot,
+     * so no mutation is appended to a segment the snapshot deletes without being visible to it.
+     */
+    private final ReentrantReadWriteLock mutationLock = new ReentrantReadWriteLock();
+
+    /**
+     * Serializes the snapshots.
+     */
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+
+    /**
+     * Forces the journal in the background with the {@link CartProperties.FsyncPolicy#INTERVAL} policy.
+     */
+    private final ScheduledExecutorService intervalFlusher;
+
+    private volatile Segment current;
+
+    /**
+     * Receives the state stored in the journal while it is replayed.
+     */
+    interface Visitor {
+
+        /**
+         * Receives the full state of a cart.
+         *
+         * @param cartId     the id of the cart
+         * @param timestamp  the last update of the cart, in epoch milliseconds
+         * @param productIds the ids of the products, sorted ascending
+         * @param amounts    the amount of each product
+         */
+        void cart(long cartId, long timestamp, long[] productIds, int[] amounts);
+
+        /**
+         * Receives the lines that changed in a cart.
+         *
+         * @param cartId     the id of the cart
+         * @param timestamp  the last update of the cart, in epoch milliseconds
+         * @param productIds the ids of the changed products, sorted ascending
+         * @param amounts    the new amount of each product; 0 means the product was removed
+         */
+        void lines(long cartId, long timestamp, long[] productIds, int[] amounts);
+
+        /**
+         * Receives the removal of a cart.
+         *
+         * @param cartId the id of the cart
+         */
+        void remove(long cartId);
+    }
+
+    private CartJournal(CartProperties.Journal config) {
+        this.directory = config.getDirectory();
+        this.segmentSize = (int) Math.min(Integer.MAX_VALUE, config.getSegmentSize().toBytes());
+        this.fsync = config.getFsync();
+        if (fsync == CartProperties.FsyncPolicy.INTERVAL) {
+            long intervalMillis = Math.max(1L, config.getFsyncInterval().toMillis());
+            this.intervalFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cart-journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            intervalFlusher.scheduleAtFixedRate(this::forceCurrent, intervalMillis, intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.intervalFlusher = null;
+        }
+    }
+
+    /**
+     * Replays the snapshot and the journal segments in the configured directory and opens a new
+     * segment for the following mutations.
+     *
+     * @param config  the journal configuration
+     * @param visitor receives the restored state, in the order it was written
+     * @return the journal, ready to append
+     * @throws UncheckedIOException if the journal can not be read or created
+     */
+    static CartJournal open(CartProperties.Journal config, Visitor visitor) {
+        CartJournal journal = new CartJournal(config);
+        try {
+            Files.createDirectories(journal.directory);
+            long firstSegment = journal.readSnapshot(visitor);
+            long lastSegment = journal.replaySegments(firstSegment, visitor);
+            journal.current = journal.openSegment(Math.max(firstSegment, lastSegment + 1));
+        } catch (IOException ex) {
+            journal.close();
+            throw new UncheckedIOException("Cart journal can not be opened in " + journal.directory, ex);
+        }
+        return journal;
+    }
+
+    /**
+     * Runs a mutation of the store together with its append, so that a snapshot does not roll the journal
+     * between the two. Any number of mutations run at the same time.
+     *
+     * @param mutation the mutation, which applies the change to the store and appends it
+     * @param <T>      the type of the result of the mutation
+     * @return the result of the mutation
+     */
+    <T> T mutate(Supplier<T> mutation) {
+        mutationLock.readLock().lock();
+        try {
+            return mutation.get();
+        } finally {
+            mutationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the full state of a cart.
+     *
+     * @param cart the cart
+     * @return the position of the journal after the record
+     */
+    long appendCart(Cart cart) {
+        Cart.Lines lines = cart.getLines();
+        long[] productIds = new long[lines.size()];
+        int[] amounts = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            productIds[i] = lines.productId(i);
+            amounts[i] = lines.amount(i);
+        }
+        return append(CART, cart.getId(), cart.getLastUpdatedMillis(), productIds, amounts, productIds.length);
+    }
+
+    /**
+     * Appends the lines of a cart that differ from its previous lines.
+     *
+     * @param cart   the updated cart
+     * @param before the lines of the cart before the update
+     * @return the position of the journal after the record
+     */
+    long appendLines(Cart cart, Cart.Lines before) {
+        Cart.Lines after = cart.getLines();
+        long[] productIds = new long[before.size() + after.size()];
+        int[] amounts = new int[productIds.length];
+        int changes = 0;
+        int i = 0;
+        int j = 0;
+        while (i < before.size() || j < after.size()) {
+            if (j == after.size() || i < before.size() && before.productId(i) < after.productId(j)) {
+                productIds[changes] = before.productId(i++);
+                amounts[changes++] = 0;
+            } else if (i == before.size() || after.productId(j) < before.productId(i)) {
+                productIds[changes] = after.productId(j);
+                amounts[changes++] = after.amount(j++);
+            } else {
+                if (before.amount(i) != after.amount(j)) {
+                    productIds[changes] = after.productId(j);
+                    amounts[changes++] = after.amount(j);
+                }
+                i++;
+                j++;
+            }
+        }
+        return append(LINES, cart.getId(), cart.getLastUpdatedMillis(), productIds, amounts, changes);
+    }
+
+    /**
+     * Appends the removal of a cart.
+     *
+     * @param cartId the id of the cart
+     * @param type   {@link #DELETE}, {@link #EXPIRE} or {@link #EVICT}
+     * @return the position of the journal after the record
+     */
+    long appendRemove(long cartId, byte type) {
+        return append(type, cartId, System.currentTimeMillis(), new long[0], new int[0], 0);
+    }
+
+    /**
+     * Waits until the journal is forced up to the given position, as the fsync policy requires.
+     *
+     * @param position a position returned by one of the append methods
+     */
+    void awaitDurable(long position) {
+        if (fsync == CartProperties.FsyncPolicy.PER_WRITE) {
+            forceCurrent();
+        } else if (fsync == CartProperties.FsyncPolicy.GROUP) {
+            groupCommit(position);
+        }
+    }
+
+    /**
+     * Writes a compacted snapshot of the given carts and deletes the journal segments it replaces.
+     * The journal is rolled to a new segment while no mutation is running, and the carts are read after
+     * it: a mutation that ran before the roll is visible to the snapshot, and one that runs after it is
+     * kept in the segments that are replayed after the snapshot.
+     *
+     * @param carts supplies the live carts once the journal has been rolled
+     * @throws UncheckedIOException if the snapshot can not be written
+     */
+    void snapshot(Supplier<Iterable<Cart>> carts) {
+        snapshotLock.lock();
+        try {
+            long firstSegment;
+            mutationLock.writeLock().lock();
+            appendLock.lock();
+            try {
+                firstSegment = roll().index;
+            } finally {
+                appendLock.unlock();
+                mutationLock.writeLock().unlock();
+            }
+            long count = writeSnapshot(firstSegment, carts.get());
+            deleteSegmentsBefore(firstSegment);
+            LOGGER.info("Cart snapshot written with {} carts, journal replays from segment {}", count, firstSegment);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cart snapshot can not be written in " + directory, ex);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Forces the current segment and releases the journal files.
+     */
+    @Override
+    public void close() {
+        if (intervalFlusher != null) {
+            intervalFlusher.shutdownNow();
+        }
+        Segment segment = current;
+        if (segment != null) {
+            appendLock.lock();
+            try {
+                segment.force();
+                segment.channel.close();
+            } catch (IOException ex) {
+                LOGGER.error("Cart journal segment {} can not be closed", segment.index, ex);
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    private long append(byte type, long cartId, long timestamp, long[] productIds, int[] amounts, int count) {
+        int bodyLength = RECORD_FIXED_BODY + count * RECORD_LINE;
+        int recordLength = RECORD_HEADER + bodyLength;
+        if (recordLength > segmentSize) {
+            throw new IllegalStateException("Cart %s does not fit in a journal segment".formatted(cartId));
+        }
+        appendLock.lock();
+        try {
+            Segment segment = current;
+            if (segment.written + recordLength > segmentSize) {
+                segment = roll();
+            }
+            MappedByteBuffer buffer = segment.buffer;
+            int start = segment.written;
+            int offset = start + RECORD_HEADER;
+            buffer.put(offset, type);
+            buffer.putLong(offset + 1, cartId);
+            buffer.putLong(offset + 9, timestamp);
+            buffer.putInt(offset + 17, count);
+            offset += RECORD_FIXED_BODY;
+            for (int i = 0; i < count; i++, offset += RECORD_LINE) {
+                buffer.putLong(offset, productIds[i]);
+                buffer.putInt(offset + Long.BYTES, amounts[i]);
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(start + RECORD_HEADER, bodyLength));
+            buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+            buffer.putInt(start, bodyLength);
+            segment.written = start + recordLength;
+            return segment.index * segmentSize + segment.written;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Forces the current segment and switches to the next one. Must be called holding the append lock.
+     *
+     * @return the new segment
+     */
+    private Segment roll() {
+        Segment previous = current;
+        try {
+            Segment next = openSegment(previous.index + 1);
+            previous.force();
+            previous.channel.close();
+            current = next;
+            return next;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cart journal can not roll to a new segment in " + directory, ex);
+        }
+    }
+
+    private void groupCommit(long position) {
+        flushLock.lock();
+        try {
+            while (durablePosition < position) {
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                long target;
+                flushLock.unlock();
+                try {
+                    target = forceCurrent();
+                } finally {
+                    flushLock.lock();
+                    flushing = false;
+                }
+                durablePosition = Math.max(durablePosition, target);
+                flushed.signalAll();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Forces what has been written to the current segment. Previous segments are forced when rolled.
+     *
+     * @return the position of the journal that is durable
+     */
+    private long forceCurrent() {
+        Segment segment = current;
+        int written = segment.written;
+        segment.force();
+        return segment.index * segmentSize + written;
+    }
+
+    private Segment openSegment(long index) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(index), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(index, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve("%s%019d%s".formatted(SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> segmentIndexes() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Replays the segments from the given one onwards. A segment is replayed up to its first torn or
+     * corrupted record, which can only be the tail a crash left behind, and the replay goes on with the
+     * following segments, which hold the mutations written after the restart that followed that crash.
+     *
+     * @return the index of the last existing segment, or -1 if there is none
+     */
+    private long replaySegments(long firstSegment, Visitor visitor) throws IOException {
+        List<Long> indexes = segmentIndexes();
+        long records = 0;
+        for (long index : indexes) {
+            if (index >= firstSegment) {
+                records += replaySegment(index, visitor);
+            }
+        }
+        LOGGER.info("Cart journal replayed {} records", records);
+        return indexes.isEmpty() ? -1 : indexes.get(indexes.size() - 1);
+    }
+
+    /**
+     * Replays a segment up to its end or its first torn or corrupted record.
+     *
+     * @return the number of records replayed
+     */
+    private long replaySegment(long index, Visitor visitor) throws IOException {
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(segmentPath(index), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int offset = 0;
+            while (offset + RECORD_HEADER <= buffer.limit()) {
+                int bodyLength = buffer.getInt(offset);
+                if (bodyLength <= 0) {
+                    break;
+                }
+                int body = offset + RECORD_HEADER;
+                if (bodyLength < RECORD_FIXED_BODY || body + bodyLength > buffer.limit()
+                        || !checksumMatches(buffer, body, bodyLength, buffer.getInt(offset + Integer.BYTES))) {
+                    LOGGER.warn("Cart journal replay skipped a torn record in segment {} at offset {}", index, offset);
+                    break;
+                }
+                replayRecord(buffer, body, visitor);
+                records++;
+                offset = body + bodyLength;
+            }
+        }
+        return records;
+    }
+
+    private static boolean checksumMatches(ByteBuffer buffer, int body, int bodyLength, int expected) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(body, bodyLength));
+        return (int) crc.getValue() == expected;
+    }
+
+    private static void replayRecord(ByteBuffer buffer, int offset, Visitor visitor) {
+        byte type = buffer.get(offset);
+        long cartId = buffer.getLong(offset + 1);
+        long timestamp = buffer.getLong(offset + 9);
+        int count = buffer.getInt(offset + 17);
+        long[] productIds = new long[count];
+        int[] amounts = new int[count];
+        int line = offset + RECORD_FIXED_BODY;
+        for (int i = 0; i < count; i++, line += RECORD_LINE) {
+            productIds[i] = buffer.getLong(line);
+            amounts[i] = buffer.getInt(line + Long.BYTES);
+        }
+        if (type == CART) {
+            visitor.cart(cartId, timestamp, productIds, amounts);
+        } else if (type == LINES) {
+            visitor.lines(cartId, timestamp, productIds, amounts);
+        } else if (type == DELETE || type == EXPIRE || type == EVICT) {
+            visitor.remove(cartId);
+        } else {
+            LOGGER.warn("Cart journal record of unknown type {} ignored", type);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file, forces it and moves it over the previous snapshot.
+     *
+     * @return the number of carts in the snapshot
+     */
+    private long writeSnapshot(long firstSegment, Iterable<Cart> carts) throws IOException {
+        Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), new CRC32C());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(firstSegment);
+            for (Cart cart : carts) {
+                Cart.Lines lines = cart.getLines();
+                out.writeBoolean(true);
+                out.writeLong(cart.getId());
+                out.writeLong(cart.getLastUpdatedMillis());
+                out.writeInt(lines.size());
+                for (int i = 0; i < lines.size(); i++) {
+                    out.writeLong(lines.productId(i));
+                    out.writeInt(lines.amount(i));
+                }
+                count++;
+            }
+            out.writeBoolean(false);
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Replays the snapshot, if there is one.
+     *
+     * @return the first segment to replay after the snapshot, or 0 if there is no snapshot
+     * @throws IllegalStateException if the snapshot is corrupted
+     */
+    private long readSnapshot(Visitor visitor) throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(snapshot)) {
+            return 0;
+        }
+        CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16), new CRC32C());
+        try (DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IllegalStateException("Cart snapshot has an unknown format: " + snapshot);
+            }
+            long firstSegment = in.readLong();
+            long count = 0;
+            while (in.readBoolean()) {
+                long cartId = in.readLong();
+                long timestamp = in.readLong();
+                int size = in.readInt();
+                long[] productIds = new long[size];
+                int[] amounts = new int[size];
+                for (int i = 0; i < size; i++) {
+                    productIds[i] = in.readLong();
+                    amounts[i] = in.readInt();
+                }
+                visitor.cart(cartId, timestamp, productIds, amounts);
+                count++;
+            }
+            int computed = (int) checked.getChecksum().getValue();
+            if (in.readInt() != computed) {
+                throw new IllegalStateException("Cart snapshot is corrupted: " + snapshot);
+            }
+            LOGGER.info("Cart snapshot restored with {} carts", count);
+            return firstSegment;
+        }
+    }
+
+    private void deleteSegmentsBefore(long firstSegment) throws IOException {
+        for (long index : segmentIndexes()) {
+            if (index < firstSegment) {
+                Files.deleteIfExists(segmentPath(index));
+            }
+        }
+    }
+
+    /**
+     * A memory-mapped journal segment.
+     */
+    private static final class Segment {
+        private final long index;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * The bytes written to the segment. Written holding the append lock, read by the flushers.
+         */
+        private volatile int written;
+
+        private Segment(long index, FileChannel channel, MappedByteBuffer buffer) {
+            this.index = index;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private void force() {
+            int end = written;
+            if (end > 0) {
+                buffer.force(0, end);
+            }
+        }
+    }
+}
@@ -1,15 +1,36 @@
 package com.onebox.ecommerce.repository;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.exception.NotFoundException;
 import com.onebox.ecommerce.model.Cart;
 import com.onebox.ecommerce.model.Product;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
-import java.time.Duration;
-import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Supplier;
 
 /**
  * Repository class that handles operations related to carts in the e-commerce system.
@@ -17,52 +38,268 @@ import java.util.Map;
  * mechanism (a Map of carts). It supports creating, updating, retrieving, and deleting
  * carts and products within them, as well as automatically removing inactive carts
  * after a set period of time.
+ * Inactive carts are found through a {@link CartExpiryIndex}, so the sweep only visits carts whose
+ * deadline has passed instead of scanning the whole store.
+ * The storage is a {@link ConcurrentHashMap}: every mutation of a cart runs holding the
+ * {@link ReentrantLock} of that cart, one of a fixed set of locks striped by cart id, so request threads
+ * and the inactivity sweep never contend on a global lock, and a request that waits for a cart, for the
+ * stock or for the journal inside a mutation never holds a monitor that would pin a virtual thread.
+ * With {@code ecommerce.cart.max-carts} or {@code ecommerce.cart.max-memory} set, the storage is a
+ * size-bounded Caffeine map instead, which evicts carts by frequency and recency of use (W-TinyLFU)
+ * once the budget is reached. The eviction itself only queues the cart; its removal from the indexes
+ * and the journal is completed holding the lock of the cart by the next write or drain. Evicted carts are
+ * counted apart from expired ones and handed to the service through {@link #drainEvictedCarts()}.
+ * When {@code ecommerce.cart.journal.enabled} is set, every mutation is also appended to a
+ * {@link CartJournal} holding that same lock, so the journal keeps the order of the mutations of each
+ * cart, and the carts are restored from the journal when the repository is created.
+ * Each mutation runs through {@link CartJournal#mutate}, so a snapshot never rolls the journal between a
+ * change of the map and its record.
+ * A {@link ProductCartIndex} of the carts holding each product is updated holding the lock of the cart
+ * whenever the lines of a cart change or a cart is deleted, expired or evicted.
+ * Every stored cart resolves the unit prices of its products from the catalog, so its item count and
+ * subtotal are adjusted by the changed line alone on every update instead of being summed again.
  */
 @Repository
 public class CartRepository {
 
     /**
-     * The inactivity limit in minutes. A cart is considered inactive if it has not been updated for this period.
+     * Logger for logging information and errors related to cart operations.
      */
-    private static final int INACTIVE_LIMIT = 10;
+    private static final Logger LOGGER = LoggerFactory.getLogger(CartRepository.class);
 
     /**
-     * Logger for logging information and errors related to cart operations.
+     * Estimated bytes of a cart without lines, including its entry in the storage.
      */
-    private static final Logger LOGGER = LoggerFactory.getLogger(CartRepository.class);
+    private static final int CART_BYTES = 160;
 
     /**
-     * Error message for when a cart is not found by its id.
+     * Estimated bytes of each line of a cart.
      */
-    private static final String CART_NOT_FOUND_ERROR = "Cart not found for the id: %s";
+    private static final int LINE_BYTES = 12;
+
+    /**
+     * Number of cart ids read from the product index at once while repricing the carts of a product.
+     */
+    private static final int REPRICE_BATCH = 1024;
+
+    /**
+     * Number of locks the mutations of the carts are striped over; a power of two.
+     */
+    private static final int LOCK_STRIPES = 1024;
 
     /**
      * In-memory storage for the carts, mapping cart ids to Cart objects.
      */
-    private final Map<Long, Cart> carts = new HashMap<>();
+    private final ConcurrentMap<Long, Cart> carts;
+
+    /**
+     * The locks of the carts. A cart is stored, updated and removed only holding the lock of its id,
+     * so that whatever a mutation waits for, it does not wait inside an atomic operation of the map.
+     */
+    private final ReentrantLock[] cartLocks = new ReentrantLock[LOCK_STRIPES];
+
+    /**
+     * The carts evicted by the size bound whose removal from the indexes and the journal is not done yet.
+     */
+    private final Queue<Cart> pendingEvictions = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The carts evicted by the size bound whose stock has not been released yet.
+     */
+    private final Queue<Cart> evictedCarts = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of carts evicted by the size bound.
+     */
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    /**
+     * The number of carts deleted due to inactivity.
+     */
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /**
+     * The inactivity limit in milliseconds. A cart is considered inactive if it has not been updated for this period.
+     */
+    private final long inactiveTtlMillis;
+
+    /**
+     * Index of the carts ordered by the time at which they become inactive.
+     */
+    private final CartExpiryIndex expiryIndex;
+
+    /**
+     * The generator of the ids of new carts.
+     */
+    private final CartIdGenerator idGenerator;
+
+    /**
+     * The number of lines of all the stored carts, kept up to date by each mutation of a cart.
+     */
+    private final LongAdder lineCount = new LongAdder();
+
+    /**
+     * The carts holding each product, updated with the lines of the carts.
+     */
+    private final ProductCartIndex productIndex = new ProductCartIndex();
+
+    /**
+     * Resolves the unit price of a product, in minor units, for the subtotals of the carts.
+     */
+    private final LongUnaryOperator unitPrices;
+
+    /**
+     * The journal of the cart mutations, or null if the journal is disabled.
+     */
+    private final CartJournal journal;
+
+    /**
+     * Measures the duration of the inactivity sweep.
+     */
+    private final Timer sweepTimer;
+
+    /**
+     * Counts the lookups of carts that do not exist.
+     */
+    private final Counter notFoundCounter;
+
+    /**
+     * Constructs a new CartRepository with the default inactivity limit and expiry granularity.
+     */
+    public CartRepository() {
+        this(new CartProperties());
+    }
+
+    /**
+     * Constructs a new CartRepository with the given inactivity limit and expiry granularity,
+     * whose carts are not priced and whose metrics are not exported.
+     *
+     * @param properties the cart store configuration
+     */
+    public CartRepository(CartProperties properties) {
+        this(properties, Cart.NO_PRICES, new SimpleMeterRegistry());
+    }
+
+    /**
+     * Constructs a new CartRepository with the given inactivity limit and expiry granularity, whose
+     * carts are priced with the catalog.
+     *
+     * @param properties                 the cart store configuration
+     * @param productAvailableRepository the catalog holding the unit prices of the products
+     * @param meterRegistry              the registry of the cart store metrics
+     */
+    @Autowired
+    public CartRepository(CartProperties properties, ProductAvailableRepository productAvailableRepository,
+                          MeterRegistry meterRegistry) {
+        this(properties, productAvailableRepository::getPrice, meterRegistry);
+    }
+
+    /**
+     * Constructs a new CartRepository with the given inactivity limit, expiry granularity and unit prices.
+     *
+     * @param properties    the cart store configuration
+     * @param unitPrices    resolves the unit price of a product, in minor units, from its id
+     * @param meterRegistry the registry of the cart store metrics
+     */
+    public CartRepository(CartProperties properties, LongUnaryOperator unitPrices, MeterRegistry meterRegistry) {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            cartLocks[i] = new ReentrantLock();
+        }
+        this.carts = createStorage(properties);
+        this.unitPrices = unitPrices;
+        this.inactiveTtlMillis = properties.getInactiveTtl().toMillis();
+        this.expiryIndex = new CartExpiryIndex(properties.getExpiryTick().toMillis());
+        this.idGenerator = new CartIdGenerator(properties.getNodeId());
+        this.journal = properties.getJournal().isEnabled() ? restore(properties.getJournal()) : null;
+        this.sweepTimer = Timer.builder("ecommerce.cart.sweep")
+                .description("Duration of the sweep of inactive carts")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.notFoundCounter = Counter.builder("ecommerce.lookup.not.found")
+                .description("Lookups of entities that do not exist")
+                .tag("entity", "cart")
+                .register(meterRegistry);
+        FunctionCounter.builder("ecommerce.carts.removed", expiredCount, AtomicLong::get)
+                .description("Carts removed by the store")
+                .tag("cause", "expired")
+                .register(meterRegistry);
+        FunctionCounter.builder("ecommerce.carts.removed", evictedCount, AtomicLong::get)
+                .description("Carts removed by the store")
+                .tag("cause", "evicted")
+                .register(meterRegistry);
+        Gauge.builder("ecommerce.carts.live", carts, ConcurrentMap::size)
+                .description("Carts in the store")
+                .register(meterRegistry);
+        Gauge.builder("ecommerce.cart.lines.live", lineCount, LongAdder::sum)
+                .description("Lines of all the carts in the store")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Generates the id of a new cart, unique across threads and, with distinct node ids, across
+     * instances of the service.
+     *
+     * @return the new cart id
+     */
+    public long nextCartId() {
+        return idGenerator.nextId();
+    }
+
+    /**
+     * Looks up a cart by its id.
+     *
+     * @param cartId the id of the cart to look up
+     * @return the cart with the specified id, or empty if it does not exist
+     */
+    public Optional<Cart> findCartById(Long cartId) {
+        Cart cart = carts.get(cartId);
+        if (cart == null) {
+            notFoundCounter.increment();
+        }
+        return Optional.ofNullable(cart);
+    }
+
+    /**
+     * Looks up several carts by their ids in a single pass over the store.
+     *
+     * @param cartIds the ids of the carts to look up
+     * @return the cart of each id, at the same position, or null where the cart does not exist
+     */
+    public Cart[] findCartsByIds(long[] cartIds) {
+        Cart[] found = new Cart[cartIds.length];
+        int missing = 0;
+        for (int i = 0; i < cartIds.length; i++) {
+            found[i] = carts.get(cartIds[i]);
+            if (found[i] == null) {
+                missing++;
+            }
+        }
+        if (missing > 0) {
+            notFoundCounter.increment(missing);
+        }
+        return found;
+    }
 
     /**
      * Retrieves a cart by its id.
      *
      * @param cartId the id of the cart to retrieve
      * @return the cart with the specified id
-     * @throws IllegalArgumentException if the cart is not found
+     * @throws NotFoundException if the cart is not found
      */
     public Cart getCartById(Long cartId) {
-        existsCartById(cartId);
-        return carts.get(cartId);
+        return findCartById(cartId).orElseThrow(() -> NotFoundException.cart(cartId));
     }
 
     /**
      * Checks if a cart with the given id exists in the system.
      *
      * @param cartId the id of the cart to check
-     * @throws IllegalArgumentException if the cart does not exist
+     * @throws NotFoundException if the cart does not exist
      */
     public void existsCartById(Long cartId) {
         if (!carts.containsKey(cartId)) {
-            LOGGER.error("Cart not found for the id: {}", cartId);
-            throw new IllegalArgumentException(CART_NOT_FOUND_ERROR.formatted(cartId));
+            throw cartNotFound(cartId);
         }
         LOGGER.debug("Cart exists for ID: {}", cartId);
     }
@@ -70,56 +307,497 @@ public class CartRepository {
     /**
      * Updates the products in a cart. If the product amount is 0, it will be removed from the cart.
      * If the product exists or has a non-zero amount, it will be added or updated in the cart.
+     * The item count and the subtotal of the cart are adjusted by the difference of this line only.
      *
      * @param cartId  the id of the cart to update
      * @param product the product to add or update in the cart
+     * @throws NotFoundException if the cart does not exist
      */
     public void updateProduct(Long cartId, Product product) {
-        Cart cart = getCartById(cartId);
-        Map<Long, Product> products = cart.getProducts();
-        if (product.getAmount() == 0 && products.containsKey(product.getId())) {
-            products.remove(product.getId());
-        } else {
-            products.put(product.getId(), product);
+        updateCart(cartId, cart -> cart.putProduct(product));
+    }
+
+    /**
+     * Applies an update to a cart and bumps its timestamp.
+     * The update and the timestamp bump are applied holding the lock of the cart, so atomically with
+     * respect to other updates, deletions and the inactivity sweep of the same cart, and a size-bounded
+     * store weighs the cart again once updated. If the update or the journal append throws an exception,
+     * the cart is put back as it was before the update and the exception is propagated. With the journal
+     * enabled, the method returns once the changed lines are journaled and durable according to the fsync
+     * policy. The cart is returned as a snapshot taken holding the lock, so the response of the update does
+     * not show the changes of the updates that follow it.
+     *
+     * @param cartId the id of the cart to update
+     * @param update the update to apply to the cart; it must be short and must not access other carts
+     * @return a snapshot of the updated cart
+     * @throws NotFoundException if the cart does not exist
+     */
+    public Cart updateCart(Long cartId, Consumer<Cart> update) {
+        long[] position = new long[1];
+        Cart updated = journaled(() -> locked(cartId, () -> {
+            Cart cart = carts.get(cartId);
+            if (cart == null) {
+                return null;
+            }
+            Cart before = cart.snapshot();
+            try {
+                update.accept(cart);
+                cart.updateTimestamp();
+                if (journal != null) {
+                    position[0] = journal.appendLines(cart, before.getLines());
+                }
+            } catch (RuntimeException ex) {
+                cart.restore(before);
+                throw ex;
+            }
+            scheduleExpiry(cart);
+            lineCount.add(cart.getLines().size() - before.getLines().size());
+            productIndex.update(cartId, before.getLines(), cart.getLines());
+            carts.replace(cartId, cart, cart);
+            return cart.snapshot();
+        }));
+        completeEvictions();
+        if (updated == null) {
+            throw cartNotFound(cartId);
         }
-        cart.updateTimestamp();
+        awaitDurable(position[0]);
+        return updated;
     }
 
     /**
-     * Saves a cart to the in-memory storage.
+     * Saves a cart to the in-memory storage and schedules its expiry from its last update.
      *
      * @param cart the cart to save
      * @return the saved cart
      */
     public Cart saveCart(Cart cart) {
-        carts.put(cart.getId(), cart);
+        long position = store(cart);
+        completeEvictions();
+        awaitDurable(position);
         return cart;
     }
 
+    /**
+     * Saves several carts to the in-memory storage and schedules their expiry.
+     * With the journal enabled, the carts are appended one after the other and the batch waits for a single
+     * force of the journal instead of one per cart.
+     *
+     * @param batch the carts to save
+     */
+    public void saveCarts(List<Cart> batch) {
+        long position = 0;
+        for (Cart cart : batch) {
+            position = Math.max(position, store(cart));
+        }
+        completeEvictions();
+        awaitDurable(position);
+    }
+
     /**
      * Deletes a cart by its id.
      *
      * @param cartId the id of the cart to delete
-     * @throws IllegalArgumentException if the cart does not exist
+     * @return the deleted cart
+     * @throws NotFoundException if the cart does not exist
+     */
+    public Cart deleteCart(Long cartId) {
+        long[] position = new long[1];
+        Cart deleted = journaled(() -> locked(cartId, () -> {
+            Cart cart = carts.get(cartId);
+            if (cart == null || !carts.remove(cartId, cart)) {
+                return null;
+            }
+            if (journal != null) {
+                position[0] = journal.appendRemove(cartId, CartJournal.DELETE);
+            }
+            lineCount.add(-cart.getLines().size());
+            productIndex.removeCart(cartId, cart.getLines());
+            return cart;
+        }));
+        if (deleted == null) {
+            throw cartNotFound(cartId);
+        }
+        awaitDurable(position[0]);
+        return deleted;
+    }
+
+    /**
+     * Retrieves a page of the ids of the carts holding a product, sorted by cart id, from the index
+     * maintained with the lines of the carts.
+     *
+     * @param productId   the id of the product
+     * @param afterCartId the cart id after which the page starts
+     * @param limit       the maximum number of cart ids of the page
+     * @return the cart ids of the page
      */
-    public void deleteCart(Long cartId) {
-        existsCartById(cartId);
-        carts.remove(cartId);
+    public long[] findCartIdsWithProduct(long productId, long afterCartId, int limit) {
+        return productIndex.page(productId, afterCartId, limit);
+    }
+
+    /**
+     * Counts the carts holding a product.
+     *
+     * @param productId the id of the product
+     * @return the number of carts holding the product
+     */
+    public int countCartsWithProduct(long productId) {
+        return productIndex.count(productId);
+    }
+
+    /**
+     * Recomputes the subtotal of every cart holding a product with the current unit prices, after the
+     * price of the product changed. The carts are found through the product index, and each of them is
+     * repriced holding its lock without bumping its timestamp.
+     *
+     * @param productId the id of the product whose price changed
+     * @return the number of carts repriced
+     */
+    public int repriceCarts(long productId) {
+        int repriced = 0;
+        long afterCartId = Long.MIN_VALUE;
+        long[] cartIds;
+        do {
+            cartIds = productIndex.page(productId, afterCartId, REPRICE_BATCH);
+            for (long cartId : cartIds) {
+                Cart cart = locked(cartId, () -> {
+                    Cart current = carts.get(cartId);
+                    if (current != null) {
+                        current.setUnitPrices(unitPrices);
+                    }
+                    return current;
+                });
+                if (cart != null) {
+                    repriced++;
+                }
+            }
+            if (cartIds.length > 0) {
+                afterCartId = cartIds[cartIds.length - 1];
+            }
+        } while (cartIds.length == REPRICE_BATCH);
+        return repriced;
     }
 
     /**
      * Deletes all carts that have been inactive for more than the specified inactivity limit.
-     * Logs information for each cart that is deleted due to inactivity.
+     * The deleted carts are returned so the caller can release their stock and log them.
+     * Only the carts of the due buckets of the expiry index are checked. Each of them is checked and
+     * removed holding its lock, so a cart that is updated while the sweep is running is never removed
+     * with that update lost.
+     *
+     * @return the deleted carts
+     */
+    public List<Cart> deleteInactiveCarts() {
+        return sweepTimer.record(this::sweepInactiveCarts);
+    }
+
+    /**
+     * Removes the carts of the due buckets of the expiry index whose deadline has passed, and schedules
+     * again the carts touched since they were scheduled. An entry of a cart scheduled in a later bucket is
+     * stale and skipped.
+     *
+     * @return the deleted carts
      */
-    public void deleteInactiveCarts() {
-        LocalDateTime now = LocalDateTime.now();
+    private List<Cart> sweepInactiveCarts() {
+        long now = System.currentTimeMillis();
+        long nowTick = expiryIndex.dueTick(now);
+        List<Cart> deleted = new ArrayList<>();
 
-        carts.entrySet().removeIf(entry -> {
-            boolean isInactive = Duration.between(entry.getValue().getLastUpdated(), now).toMinutes() >= INACTIVE_LIMIT;
-            if (isInactive) {
-                LOGGER.info("Cart was deleted due to inactivity with ID: {}", entry.getKey());
+        expiryIndex.pollExpired(now, cartId -> journaled(() -> locked(cartId, () -> {
+            Cart cart = carts.get(cartId);
+            if (cart == null) {
+                return false;
+            }
+            if (deadlineOf(cart) > now) {
+                if (cart.getExpiryTick() <= nowTick) {
+                    cart.setExpiryTick(0);
+                    scheduleExpiry(cart);
+                }
+                return false;
+            }
+            if (!carts.remove(cartId, cart)) {
+                return false;
+            }
+            if (journal != null) {
+                journal.appendRemove(cartId, CartJournal.EXPIRE);
+            }
+            expiredCount.incrementAndGet();
+            lineCount.add(-cart.getLines().size());
+            productIndex.removeCart(cartId, cart.getLines());
+            return deleted.add(cart);
+        })));
+        return deleted;
+    }
+
+    /**
+     * Removes and returns the carts evicted by the size bound since the last call.
+     *
+     * @return the evicted carts
+     */
+    public List<Cart> drainEvictedCarts() {
+        completeEvictions();
+        List<Cart> drained = new ArrayList<>();
+        Cart cart;
+        while ((cart = evictedCarts.poll()) != null) {
+            drained.add(cart);
+        }
+        return drained;
+    }
+
+    /**
+     * Returns the number of carts evicted by the size bound since startup.
+     *
+     * @return the number of evicted carts
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * Returns the number of carts deleted due to inactivity since startup.
+     *
+     * @return the number of expired carts
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Passes every stored cart to the consumer. Carts updated or deleted meanwhile may be seen in
+     * either state.
+     *
+     * @param consumer the consumer of the carts
+     */
+    public void forEachCart(Consumer<Cart> consumer) {
+        carts.values().forEach(consumer);
+    }
+
+    /**
+     * Writes a compacted snapshot of the carts and deletes the journal segments it replaces.
+     * Does nothing if the journal is disabled.
+     */
+    public void snapshot() {
+        if (journal != null) {
+            journal.snapshot(carts::values);
+        }
+    }
+
+    /**
+     * Writes a last snapshot, so the next startup does not replay the journal, and closes the journal.
+     */
+    @PreDestroy
+    public void close() {
+        if (journal != null) {
+            snapshot();
+            journal.close();
+        }
+    }
+
+    /**
+     * Creates the storage of the carts: a size-bounded Caffeine map if a budget is configured,
+     * or a plain {@link ConcurrentHashMap} otherwise.
+     *
+     * @param properties the cart store configuration
+     * @return the storage
+     */
+    private ConcurrentMap<Long, Cart> createStorage(CartProperties properties) {
+        if (properties.getMaxMemory() == null && properties.getMaxCarts() <= 0) {
+            return new ConcurrentHashMap<>();
+        }
+        Caffeine<Long, Cart> builder = Caffeine.newBuilder()
+                .executor(Runnable::run)
+                .evictionListener((Long id, Cart cart, RemovalCause cause) -> {
+                    if (cart != null && cause.wasEvicted()) {
+                        pendingEvictions.add(cart);
+                    }
+                });
+        if (properties.getMaxMemory() != null) {
+            builder = builder.maximumWeight(properties.getMaxMemory().toBytes())
+                    .weigher((Long id, Cart cart) -> CART_BYTES + LINE_BYTES * cart.getLines().size());
+        } else {
+            builder = builder.maximumSize(properties.getMaxCarts());
+        }
+        return builder.build().asMap();
+    }
+
+    /**
+     * Replays the journal into the store and schedules the expiry of every restored cart.
+     * The id generator is advanced past every cart id found, so restored ids are not generated again.
+     * Carts evicted by the size bound while replaying never reserved stock in this run, so they are not
+     * handed to the service, and their eviction is journaled so a later restart does not restore them and
+     * reserve their stock either.
+     *
+     * @param config the journal configuration
+     * @return the journal, ready to append
+     */
+    private CartJournal restore(CartProperties.Journal config) {
+        CartJournal restored = CartJournal.open(config, new CartJournal.Visitor() {
+            @Override
+            public void cart(long cartId, long timestamp, long[] productIds, int[] amounts) {
+                idGenerator.advancePast(cartId);
+                carts.put(cartId, new Cart(cartId, timestamp, Cart.Lines.of(productIds, amounts)));
+            }
+
+            @Override
+            public void lines(long cartId, long timestamp, long[] productIds, int[] amounts) {
+                Cart cart = carts.get(cartId);
+                if (cart != null) {
+                    cart.putProducts(productIds, amounts);
+                    cart.setLastUpdatedMillis(timestamp);
+                }
+            }
+
+            @Override
+            public void remove(long cartId) {
+                idGenerator.advancePast(cartId);
+                carts.remove(cartId);
             }
-            return isInactive;
         });
+        long position = 0;
+        Cart evicted;
+        while ((evicted = pendingEvictions.poll()) != null) {
+            if (!carts.containsKey(evicted.getId())) {
+                position = restored.appendRemove(evicted.getId(), CartJournal.EVICT);
+            }
+        }
+        if (position > 0) {
+            restored.awaitDurable(position);
+        }
+        lineCount.reset();
+        productIndex.clear();
+        carts.values().forEach(cart -> {
+            cart.setUnitPrices(unitPrices);
+            scheduleExpiry(cart);
+            lineCount.add(cart.getLines().size());
+            productIndex.addCart(cart.getId(), cart.getLines());
+        });
+        evictedCarts.clear();
+        LOGGER.info("Restored {} carts from the journal in {}", carts.size(), config.getDirectory());
+        return restored;
+    }
+
+    /**
+     * Stores a cart in the map, replacing any cart with the same id, and appends it to the journal.
+     *
+     * @param cart the cart to store
+     * @return the position of the journal record of the cart, or 0 without journal
+     */
+    private long store(Cart cart) {
+        long id = cart.getId();
+        return journaled(() -> locked(id, () -> {
+            cart.setUnitPrices(unitPrices);
+            scheduleExpiry(cart);
+            Cart current = carts.put(id, cart);
+            lineCount.add(cart.getLines().size() - (current != null ? current.getLines().size() : 0));
+            if (current != null) {
+                productIndex.update(id, current.getLines(), cart.getLines());
+            } else {
+                productIndex.addCart(id, cart.getLines());
+            }
+            return journal != null ? journal.appendCart(cart) : 0L;
+        }));
+    }
+
+    /**
+     * Completes the removal of the carts evicted by the size bound: removes them from the indexes and
+     * appends their eviction, holding the lock of each cart, and hands them over to
+     * {@link #drainEvictedCarts()}. A cart updated while it was evicted is removed with its last lines.
+     */
+    private void completeEvictions() {
+        Cart cart;
+        while ((cart = pendingEvictions.poll()) != null) {
+            Cart evicted = cart;
+            long id = evicted.getId();
+            journaled(() -> locked(id, () -> {
+                if (journal != null) {
+                    journal.appendRemove(id, CartJournal.EVICT);
+                }
+                evictedCount.incrementAndGet();
+                lineCount.add(-evicted.getLines().size());
+                productIndex.removeCart(id, evicted.getLines());
+                return evictedCarts.add(evicted);
+            }));
+            LOGGER.debug("Cart was evicted due to the size bound with ID: {}", id);
+        }
+    }
+
+    /**
+     * Runs an action holding the lock of a cart. With the journal enabled, it must run inside
+     * {@link #journaled}, never the other way round, so a mutation waiting for a cart does not hold
+     * back a snapshot that another mutation of that cart waits for.
+     *
+     * @param cartId the id of the cart
+     * @param action the action
+     * @param <T>    the type of the result of the action
+     * @return the result of the action
+     */
+    private <T> T locked(long cartId, Supplier<T> action) {
+        ReentrantLock lock = cartLocks[Long.hashCode(cartId) & (LOCK_STRIPES - 1)];
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs a mutation of the store that appends to the journal, so that a snapshot does not roll the
+     * journal between the change of the map and its record. Runs it directly if the journal is disabled.
+     *
+     * @param mutation the mutation of the store
+     * @param <T>      the type of the result of the mutation
+     * @return the result of the mutation
+     */
+    private <T> T journaled(Supplier<T> mutation) {
+        return journal != null ? journal.mutate(mutation) : mutation.get();
+    }
+
+    /**
+     * Waits until the journal is durable up to the given position. Does nothing if the journal is disabled.
+     *
+     * @param position the position returned when the mutation was appended
+     */
+    private void awaitDurable(long position) {
+        if (journal != null) {
+            journal.awaitDurable(position);
+        }
+    }
+
+    /**
+     * Schedules the expiry of a cart from its last update, unless it is already scheduled in the same tick
+     * or in an earlier one, where the sweep schedules it again from its deadline of then. A hot cart
+     * therefore has a single entry in the index instead of one per touch.
+     * Must be called holding the lock of the cart.
+     *
+     * @param cart the cart to schedule
+     */
+    private void scheduleExpiry(Cart cart) {
+        long tick = expiryIndex.tickOf(deadlineOf(cart));
+        if (cart.getExpiryTick() == 0 || tick < cart.getExpiryTick()) {
+            cart.setExpiryTick(tick);
+            expiryIndex.schedule(cart.getId(), tick);
+        }
+    }
+
+    /**
+     * Returns the time at which a cart becomes inactive.
+     *
+     * @param cart the cart to check
+     * @return the deadline of the cart in epoch milliseconds
+     */
+    private long deadlineOf(Cart cart) {
+        return cart.getLastUpdatedMillis() + inactiveTtlMillis;
+    }
+
+    /**
+     * Counts and builds the exception raised when a cart does not exist.
+     * It is logged, rate-limited, where it is turned into an HTTP response.
+     *
+     * @param cartId the id of the cart that was not found
+     * @return the exception to throw
+     */
+    private NotFoundException cartNotFound(Long cartId) {
+        notFoundCounter.increment();
+        return NotFoundException.cart(cartId);
     }
 }
@@ -0,0 +1,100 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.model.ProductAvailable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable version of the products of the catalog, by ID.
+ * The repository publishes a new snapshot through a single volatile reference, so a reader that
+ * reads the reference once sees every product of the same version and never a change half applied.
+ * A snapshot is built off to the side from a copy of the previous one and never modified once
+ * published. Only the stock counters of its products keep changing, since they are shared with the
+ * following snapshots.
+ */
+final class CatalogSnapshot {
+
+    /**
+     * The snapshot of a catalog without products.
+     */
+    static final CatalogSnapshot EMPTY = new CatalogSnapshot(0L, new HashMap<>());
+
+    private final long version;
+    private final Map<Long, ProductAvailable> products;
+
+    /**
+     * Constructs a snapshot that takes ownership of the given map, which must not be modified afterwards.
+     *
+     * @param version  the version of the snapshot
+     * @param products the products of the snapshot, by ID
+     */
+    CatalogSnapshot(long version, Map<Long, ProductAvailable> products) {
+        this.version = version;
+        this.products = Collections.unmodifiableMap(products);
+    }
+
+    /**
+     * Returns the version of the snapshot, incremented by every published snapshot.
+     *
+     * @return the version
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * Returns a product of the snapshot.
+     *
+     * @param productId the ID of the product
+     * @return the product, or null if it is not in the snapshot
+     */
+    ProductAvailable get(long productId) {
+        return products.get(productId);
+    }
+
+    /**
+     * Checks whether a product is in the snapshot.
+     *
+     * @param productId the ID of the product
+     * @return true if the product is in the snapshot
+     */
+    boolean contains(long productId) {
+        return products.containsKey(productId);
+    }
+
+    /**
+     * Returns the products of the snapshot.
+     *
+     * @return an unmodifiable view of the products
+     */
+    Collection<ProductAvailable> products() {
+        return products.values();
+    }
+
+    /**
+     * Returns the number of products of the snapshot.
+     *
+     * @return the number of products
+     */
+    int size() {
+        return products.size();
+    }
+
+    /**
+     * Builds the next snapshot from a copy of this one with the given products added or replaced.
+     *
+     * @param changed the new or replaced products
+     * @return the next snapshot
+     */
+    CatalogSnapshot with(Collection<ProductAvailable> changed) {
+        Map<Long, ProductAvailable> next = new HashMap<>((int) ((products.size() + changed.size()) / 0.75f) + 1);
+        next.putAll(products);
+        for (ProductAvailable product : changed) {
+            next.put(product.getId(), product);
+        }
+        return new CatalogSnapshot(version + 1, next);
+    }
+}
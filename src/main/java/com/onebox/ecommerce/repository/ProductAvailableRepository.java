@@ -1,93 +1,343 @@
 package com.onebox.ecommerce.repository;
 
+import com.onebox.ecommerce.config.CatalogProperties;
+import com.onebox.ecommerce.exception.NotFoundException;
 import com.onebox.ecommerce.model.ProductAvailable;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
 
 /**
  * Repository class for managing product availability in the e-commerce system.
- * This repository uses an in-memory data structure, a Map, to store and manage
- * the available products. Each product is represented by a ProductAvailable object.
- * The repository is initialized with a predefined list of product names and assigns
- * unique IDs to each product. The initial stock for each product is set to 50 units.
+ * This repository keeps the products in memory as an immutable {@link CatalogSnapshot} behind a
+ * volatile reference, so a lookup is a single volatile read and never sees a change half applied.
+ * Each product is represented by a ProductAvailable object.
+ * The repository is initialized from the catalog file or snapshot configured in
+ * {@link CatalogProperties}, loaded by a {@link ProductCatalogLoader}. Without them, it is
+ * initialized with a predefined list of product names and assigns unique IDs to each product.
+ * Besides the snapshot, the repository maintains an index of the products with stock, sorted by id,
+ * which is reconciled whenever the stock of a product changes. Listing the available products
+ * reads that index instead of filtering the whole catalog, and a page of it starts with a
+ * single lookup of the last id of the previous page.
+ * Every change of the catalog also bumps a version counter, so the responses built from the
+ * catalog can be cached until the version changes.
+ * A bulk update of the products builds the next snapshot from a copy of the current one, off to the
+ * side, and publishes it with a single write, so readers and stock reservations never wait for it.
  */
 @Repository
 public class ProductAvailableRepository {
     private static final Logger LOGGER = LoggerFactory.getLogger(ProductAvailableRepository.class);
-    private static final String PRODUCT_NOT_FOUND_ERROR = "Product not found for the id: %s";
 
     /**
-     * The in-memory storage for products.
+     * The current snapshot of the products, replaced as a whole by every bulk update.
      */
-    private final Map<Long, ProductAvailable> products;
+    private volatile CatalogSnapshot catalog = CatalogSnapshot.EMPTY;
+
+    /**
+     * Serializes the bulk updates, so each one builds on the snapshot published by the previous one.
+     */
+    private final ReentrantLock publishLock = new ReentrantLock();
+
+    /**
+     * The products with stock, sorted by ID.
+     */
+    private final ConcurrentNavigableMap<Long, ProductAvailable> inStock = new ConcurrentSkipListMap<>();
+
+    /**
+     * The version of the catalog, bumped after every change of a product or its stock.
+     * It is only ever incremented, so its sum never goes back, and it is striped so the reservations of
+     * different products do not contend on a single counter.
+     */
+    private final LongAdder catalogVersion = new LongAdder();
+
+    /**
+     * Counts the lookups of products that do not exist.
+     */
+    private final Counter notFoundCounter;
 
     /**
      * Initializes the repository with a predefined list of product names and assigns
-     * unique IDs to each product. The product stock is initially set to 50 for each product.
+     * unique IDs to each product. The product stock is initially set to 100 times its ID.
      * Calls method initProducts() to initialize products
      */
     public ProductAvailableRepository() {
-        this.products = new HashMap<>();
-        initProducts();
+        this(new CatalogProperties());
+    }
+
+    /**
+     * Initializes the repository from the configured catalog snapshot or source file, or with the
+     * predefined products if none is configured. A source file is written to the snapshot once loaded.
+     *
+     * @param properties the catalog configuration
+     */
+    public ProductAvailableRepository(CatalogProperties properties) {
+        this(properties, new SimpleMeterRegistry());
+    }
+
+    /**
+     * Initializes the repository from the configured catalog snapshot or source file, or with the
+     * predefined products if none is configured, registering its metrics in the given registry.
+     *
+     * @param properties    the catalog configuration
+     * @param meterRegistry the registry of the catalog metrics
+     */
+    @Autowired
+    public ProductAvailableRepository(CatalogProperties properties, MeterRegistry meterRegistry) {
+        this.notFoundCounter = Counter.builder("ecommerce.lookup.not.found")
+                .description("Lookups of entities that do not exist")
+                .tag("entity", "product")
+                .register(meterRegistry);
+        Map<Long, ProductAvailable> loaded = new ConcurrentHashMap<>();
+        ProductCatalogLoader loader = new ProductCatalogLoader(properties);
+        if (loader.hasFreshSnapshot()) {
+            loader.loadSnapshot(product -> addProduct(loaded, product));
+        } else if (loader.hasSource()) {
+            loader.loadSource(product -> addProduct(loaded, product));
+            loader.writeSnapshot(loaded.values());
+        } else {
+            initProducts(loaded);
+        }
+        catalog = new CatalogSnapshot(1L, new HashMap<>(loaded));
+        catalogVersion.increment();
+    }
+
+    /**
+     * Looks up an available product by its ID.
+     *
+     * @param productId the ID of the product to look up
+     * @return the {@link ProductAvailable} with the specified ID, or empty if it does not exist
+     */
+    public Optional<ProductAvailable> findProductById(Long productId) {
+        ProductAvailable product = catalog.get(productId);
+        if (product == null) {
+            notFoundCounter.increment();
+        }
+        return Optional.ofNullable(product);
     }
 
     /**
      * Retrieves an available product by its ID.
      * This method checks if the product exists, and if so, returns it. If the product
-     * does not exist, it throws an IllegalArgumentException.
+     * does not exist, it throws a {@link NotFoundException}.
      *
      * @param productId the ID of the product to retrieve
      * @return the {@link ProductAvailable} with the specified ID
-     * @throws IllegalArgumentException if the product is not found
+     * @throws NotFoundException if the product is not found
      */
     public ProductAvailable getProductById(Long productId) {
-        existsProductById(productId);
-        return products.get(productId);
+        return findProductById(productId).orElseThrow(() -> NotFoundException.product(productId));
+    }
+
+    /**
+     * Retrieves the description of a product by its ID.
+     *
+     * @param productId the ID of the product
+     * @return the description of the product, or null if the product does not exist
+     */
+    public String getDescription(long productId) {
+        ProductAvailable product = catalog.get(productId);
+        return product != null ? product.getDescription() : null;
+    }
+
+    /**
+     * Retrieves the unit price of a product by its ID.
+     *
+     * @param productId the ID of the product
+     * @return the unit price of the product in minor units, or 0 if the product does not exist
+     */
+    public long getPrice(long productId) {
+        ProductAvailable product = catalog.get(productId);
+        return product != null ? product.getPrice() : 0L;
     }
 
     /**
      * Retrieves all available products.
-     * This method returns a list of all products available in the repository.
+     * This method returns a list of all products with stock, sorted by ID.
      *
      * @return a list of all available {@link ProductAvailable} objects
      */
     public List<ProductAvailable> getProducts() {
-        return products.values().stream()
-                .filter( product -> product.getStock() > 0)
-                .toList();
+        return new ArrayList<>(inStock.values());
+    }
+
+    /**
+     * Retrieves a page of the available products, sorted by ID.
+     *
+     * @param afterId the ID after which the page starts, usually the last ID of the previous page
+     * @param limit   the maximum number of products of the page
+     * @return the available {@link ProductAvailable} objects of the page
+     */
+    public List<ProductAvailable> getProducts(long afterId, int limit) {
+        List<ProductAvailable> page = new ArrayList<>(Math.min(limit, 64));
+        Iterator<ProductAvailable> iterator = inStock.tailMap(afterId, false).values().iterator();
+        while (page.size() < limit && iterator.hasNext()) {
+            page.add(iterator.next());
+        }
+        return page;
+    }
+
+    /**
+     * Retrieves the version of the catalog.
+     * The version is bumped after a change is visible, so anything read after reading a version
+     * is at least as recent as that version.
+     *
+     * @return the current version of the catalog
+     */
+    public long getCatalogVersion() {
+        return catalogVersion.sum();
+    }
+
+    /**
+     * Adds or replaces several products with a single atomic publication.
+     * Each update receives the current product, or null if there is none, and returns its replacement.
+     * The next snapshot is built from a copy of the current one while readers keep using the current
+     * one, then published with a single volatile write, and the index of the available products is
+     * reconciled with the new products.
+     *
+     * @param updates the update of each product, by product ID
+     * @return the IDs of the existing products whose price changed
+     */
+    public long[] updateProducts(Map<Long, UnaryOperator<ProductAvailable>> updates) {
+        return updateProducts(updates, Map.of());
+    }
+
+    /**
+     * Adds or replaces several products with a single atomic publication, as
+     * {@link #updateProducts(Map)} does, and replaces the available stock of some of them.
+     * The stocks are replaced only once the whole next snapshot is built, right before it is published,
+     * so an update that fails leaves both the catalog and the stock untouched.
+     *
+     * @param updates the update of each product, by product ID
+     * @param stocks  the units that replace the available stock of updated products, by product ID
+     * @return the IDs of the existing products whose price changed
+     */
+    public long[] updateProducts(Map<Long, UnaryOperator<ProductAvailable>> updates, Map<Long, Integer> stocks) {
+        publishLock.lock();
+        try {
+            CatalogSnapshot current = catalog;
+            List<ProductAvailable> changed = new ArrayList<>(updates.size());
+            long[] repriced = new long[updates.size()];
+            int repricedCount = 0;
+            for (Map.Entry<Long, UnaryOperator<ProductAvailable>> update : updates.entrySet()) {
+                ProductAvailable before = current.get(update.getKey());
+                ProductAvailable after = update.getValue().apply(before);
+                changed.add(after);
+                if (before != null && before.getPrice() != after.getPrice()) {
+                    repriced[repricedCount++] = after.getId();
+                }
+            }
+            CatalogSnapshot next = current.with(changed);
+            stocks.forEach((productId, units) -> next.get(productId).replaceStock(units));
+            catalog = next;
+            changed.forEach(product -> reconcile(product.getId()));
+            catalogVersion.increment();
+            LOGGER.info("Published catalog snapshot {} with {} products changed, {} products in total",
+                    next.version(), changed.size(), next.size());
+            return Arrays.copyOf(repriced, repricedCount);
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /**
+     * Reconciles the index of the available products with the stock of a product and bumps the
+     * version of the catalog.
+     * Must be called after every change of the stock.
+     *
+     * @param product the product whose stock changed
+     */
+    public void stockChanged(ProductAvailable product) {
+        reconcile(product.getId());
+        catalogVersion.increment();
     }
 
     /**
      * Checks if a product exists by its ID. If the product does not exist, it throws
-     * an IllegalArgumentException.
+     * a {@link NotFoundException}.
      *
      * @param productId the ID of the product to check
-     * @throws IllegalArgumentException if the product does not exist
+     * @throws NotFoundException if the product does not exist
      */
     public void existsProductById(Long productId) {
-        if (!products.containsKey(productId)) {
-            LOGGER.error("Product not found for the id: {}", productId);
-            throw new IllegalArgumentException(PRODUCT_NOT_FOUND_ERROR.formatted(productId));
+        if (!catalog.contains(productId)) {
+            notFoundCounter.increment();
+            throw NotFoundException.product(productId);
         }
         LOGGER.debug("Product exists for ID: {}", productId);
     }
 
+    /**
+     * Reconciles the index of the available products with the stock of the current version of a product.
+     * The index is only written when it does not match already, so the reservations of a product that
+     * stays available only read it. It is then checked against the current product and its stock again, so
+     * concurrent changes of the same product, including its replacement by a bulk update, always leave
+     * the index matching the last product and stock.
+     *
+     * @param productId the ID of the product
+     */
+    private void reconcile(long productId) {
+        ProductAvailable product;
+        boolean available;
+        do {
+            product = catalog.get(productId);
+            available = product != null && product.getStock() > 0;
+            if (available) {
+                if (inStock.get(productId) != product) {
+                    inStock.put(productId, product);
+                }
+            } else if (inStock.containsKey(productId)) {
+                inStock.remove(productId);
+            }
+        } while (product != catalog.get(productId) || available != (product != null && product.getStock() > 0));
+    }
+
+    /**
+     * Adds a product to the products being loaded and, if it has stock, to the index of available products.
+     * Safe to call from several threads while the catalog is loaded.
+     *
+     * @param loaded  the products loaded so far
+     * @param product the product to add
+     */
+    private void addProduct(Map<Long, ProductAvailable> loaded, ProductAvailable product) {
+        loaded.put(product.getId(), product);
+        if (product.getStock() > 0) {
+            inStock.put(product.getId(), product);
+        }
+    }
+
     /**
      * Initializes the in-memory product list with predefined products.
-     * This method assigns a unique ID to each product and sets the initial stock.
+     * This method assigns a unique ID to each product and sets the initial stock and the unit price.
+     *
+     * @param loaded the products being loaded
      */
-    private void initProducts() {
+    private void initProducts(Map<Long, ProductAvailable> loaded) {
         List<String> productNames = List.of("Apple", "Banana", "Orange", "Mango", "Pineapple",
                 "Watermelon", "Papaya", "Peach", "Kiwi", "Avocado");
+        long[] productPrices = {50, 25, 60, 150, 300, 450, 200, 80, 40, 120};
         long countter = 0L;
         for (String name : productNames) {
-            ProductAvailable productAvailable = new ProductAvailable(++countter, name, (int) countter * 100);
-            products.put(productAvailable.getId(), productAvailable);
+            ProductAvailable productAvailable = new ProductAvailable(++countter, name, (int) countter * 100,
+                    productPrices[(int) countter - 1]);
+            addProduct(loaded, productAvailable);
         }
     }
 }
@@ -0,0 +1,268 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.model.Cart;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the carts holding each product, maintained by the {@link CartRepository} whenever the
+ * lines of a cart change, so the carts affected by a change of a product are found without scanning
+ * every cart.
+ * The cart ids of a product are kept in a {@link CartIdSet}: sorted blocks of primitive longs, which
+ * take about 8 bytes per cart and page from any cart id with a single lookup. Every access to the set
+ * of a product runs inside an atomic operation of the map on that product, so the sets need no
+ * locking of their own; the repository updates the index inside the atomic update of the cart, so
+ * the index of a cart never lags behind its lines.
+ */
+class ProductCartIndex {
+
+    /**
+     * The sets of cart ids, by product id. A product without carts has no set.
+     */
+    private final ConcurrentHashMap<Long, CartIdSet> cartsByProduct = new ConcurrentHashMap<>();
+
+    /**
+     * Updates the index after the lines of a cart change.
+     * Both lines are sorted by product id, so the products added and removed are found in one pass.
+     *
+     * @param cartId the id of the cart
+     * @param before the lines of the cart before the change
+     * @param after  the lines of the cart after the change
+     */
+    void update(long cartId, Cart.Lines before, Cart.Lines after) {
+        int i = 0;
+        int j = 0;
+        while (i < before.size() || j < after.size()) {
+            long removed = i < before.size() ? before.productId(i) : Long.MAX_VALUE;
+            long added = j < after.size() ? after.productId(j) : Long.MAX_VALUE;
+            if (removed == added) {
+                i++;
+                j++;
+            } else if (removed < added) {
+                remove(removed, cartId);
+                i++;
+            } else {
+                add(added, cartId);
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Adds a cart under every product of its lines.
+     *
+     * @param cartId the id of the cart
+     * @param lines  the lines of the cart
+     */
+    void addCart(long cartId, Cart.Lines lines) {
+        for (int i = 0; i < lines.size(); i++) {
+            add(lines.productId(i), cartId);
+        }
+    }
+
+    /**
+     * Removes a cart from every product of its lines.
+     *
+     * @param cartId the id of the cart
+     * @param lines  the lines of the cart
+     */
+    void removeCart(long cartId, Cart.Lines lines) {
+        for (int i = 0; i < lines.size(); i++) {
+            remove(lines.productId(i), cartId);
+        }
+    }
+
+    /**
+     * Retrieves a page of the ids of the carts holding a product, sorted by cart id.
+     *
+     * @param productId   the id of the product
+     * @param afterCartId the cart id after which the page starts
+     * @param limit       the maximum number of cart ids of the page
+     * @return the cart ids of the page
+     */
+    long[] page(long productId, long afterCartId, int limit) {
+        long[][] page = new long[1][];
+        cartsByProduct.computeIfPresent(productId, (id, set) -> {
+            page[0] = set.page(afterCartId, limit);
+            return set;
+        });
+        return page[0] != null ? page[0] : new long[0];
+    }
+
+    /**
+     * Counts the carts holding a product.
+     *
+     * @param productId the id of the product
+     * @return the number of carts
+     */
+    int count(long productId) {
+        int[] count = new int[1];
+        cartsByProduct.computeIfPresent(productId, (id, set) -> {
+            count[0] = set.size;
+            return set;
+        });
+        return count[0];
+    }
+
+    /**
+     * Removes every entry of the index.
+     */
+    void clear() {
+        cartsByProduct.clear();
+    }
+
+    private void add(long productId, long cartId) {
+        cartsByProduct.compute(productId, (id, set) -> {
+            CartIdSet carts = set != null ? set : new CartIdSet();
+            carts.add(cartId);
+            return carts;
+        });
+    }
+
+    private void remove(long productId, long cartId) {
+        cartsByProduct.computeIfPresent(productId, (id, set) -> set.remove(cartId) && set.size == 0 ? null : set);
+    }
+
+    /**
+     * Sorted set of cart ids stored in blocks of at most {@value #BLOCK_SIZE} sorted longs, keyed by
+     * their first id. A block grows as ids are added, so a product held by a few carts takes a few
+     * longs. Not thread-safe: accessed only inside the atomic operations of the index.
+     */
+    private static final class CartIdSet {
+
+        private static final int BLOCK_SIZE = 128;
+
+        private final TreeMap<Long, Block> blocks = new TreeMap<>();
+
+        private int size;
+
+        /**
+         * Adds a cart id.
+         *
+         * @param cartId the cart id
+         * @return true if the id was not in the set
+         */
+        boolean add(long cartId) {
+            Map.Entry<Long, Block> entry = blocks.floorEntry(cartId);
+            if (entry == null) {
+                entry = blocks.firstEntry();
+                if (entry == null) {
+                    Block block = new Block(Block.INITIAL_CAPACITY);
+                    block.insert(0, cartId);
+                    blocks.put(cartId, block);
+                    size++;
+                    return true;
+                }
+            }
+            Block block = entry.getValue();
+            int index = Arrays.binarySearch(block.ids, 0, block.size, cartId);
+            if (index >= 0) {
+                return false;
+            }
+            int position = -index - 1;
+            block.insert(position, cartId);
+            if (position == 0) {
+                blocks.remove(entry.getKey());
+                blocks.put(cartId, block);
+            }
+            if (block.size == BLOCK_SIZE) {
+                Block upper = block.splitUpperHalf();
+                blocks.put(upper.ids[0], upper);
+            }
+            size++;
+            return true;
+        }
+
+        /**
+         * Removes a cart id.
+         *
+         * @param cartId the cart id
+         * @return true if the id was in the set
+         */
+        boolean remove(long cartId) {
+            Map.Entry<Long, Block> entry = blocks.floorEntry(cartId);
+            if (entry == null) {
+                return false;
+            }
+            Block block = entry.getValue();
+            int index = Arrays.binarySearch(block.ids, 0, block.size, cartId);
+            if (index < 0) {
+                return false;
+            }
+            block.delete(index);
+            if (block.size == 0) {
+                blocks.remove(entry.getKey());
+            } else if (index == 0) {
+                blocks.remove(entry.getKey());
+                blocks.put(block.ids[0], block);
+            }
+            size--;
+            return true;
+        }
+
+        /**
+         * Retrieves the cart ids greater than the given one, up to the limit.
+         *
+         * @param afterCartId the cart id after which the page starts
+         * @param limit       the maximum number of cart ids
+         * @return the cart ids, sorted
+         */
+        long[] page(long afterCartId, int limit) {
+            long[] page = new long[Math.min(limit, size)];
+            int count = 0;
+            Long start = blocks.floorKey(afterCartId);
+            for (Block block : (start != null ? blocks.tailMap(start, true) : blocks).values()) {
+                int index = Arrays.binarySearch(block.ids, 0, block.size, afterCartId);
+                for (int i = index >= 0 ? index + 1 : -index - 1; i < block.size && count < page.length; i++) {
+                    page[count++] = block.ids[i];
+                }
+                if (count == page.length) {
+                    break;
+                }
+            }
+            return count == page.length ? page : Arrays.copyOf(page, count);
+        }
+    }
+
+    /**
+     * A block of sorted cart ids.
+     */
+    private static final class Block {
+
+        private static final int INITIAL_CAPACITY = 4;
+
+        private long[] ids;
+
+        private int size;
+
+        private Block(int capacity) {
+            this.ids = new long[capacity];
+        }
+
+        private void insert(int position, long cartId) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, Math.min(ids.length * 2, CartIdSet.BLOCK_SIZE));
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = cartId;
+            size++;
+        }
+
+        private void delete(int index) {
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+        }
+
+        private Block splitUpperHalf() {
+            Block upper = new Block(CartIdSet.BLOCK_SIZE);
+            int half = size / 2;
+            upper.size = size - half;
+            System.arraycopy(ids, half, upper.ids, 0, upper.size);
+            size = half;
+            return upper;
+        }
+    }
+}
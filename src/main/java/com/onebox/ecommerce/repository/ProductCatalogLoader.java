@@ -0,0 +1,362 @@
+package com.onebox.ecommerce.repository;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.onebox.ecommerce.config.CatalogProperties;
+import com.onebox.ecommerce.model.ProductAvailable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Loads the product catalog on startup from a CSV or NDJSON file or from a binary snapshot.
+ * The source file is streamed in batches of lines that are parsed and indexed by a pool of threads,
+ * with a bounded number of batches in flight, so the memory used does not depend on the size of the file.
+ * CSV lines hold {@code id,description,stock} or {@code id,description,stock,price}, with an optional
+ * header and an optionally quoted description, which must be quoted if it ends with a comma and a number;
+ * NDJSON lines hold an object with the {@code id}, {@code description}, {@code stock} and optional
+ * {@code price} fields. Prices are in minor units. The ids must be unique.
+ * Once a source is loaded, the catalog is written to a binary snapshot, which is memory-mapped and
+ * decoded without parsing text on the following startups while the source does not change.
+ */
+class ProductCatalogLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProductCatalogLoader.class);
+    private static final int BATCH_LINES = 8192;
+    private static final int SNAPSHOT_MAGIC = 0x43415447;
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int SNAPSHOT_VERSION_WITHOUT_PRICES = 1;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Path source;
+    private final Path snapshot;
+    private final int parallelism;
+
+    /**
+     * Constructs a new ProductCatalogLoader with the given configuration.
+     *
+     * @param properties the catalog configuration
+     */
+    ProductCatalogLoader(CatalogProperties properties) {
+        this.source = properties.getSource();
+        this.snapshot = properties.getSnapshot();
+        this.parallelism = properties.getParallelism() > 0
+                ? properties.getParallelism() : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Checks whether the snapshot can be loaded instead of the source: it exists and it is not older
+     * than the source, if there is one.
+     *
+     * @return true if the snapshot is up to date
+     */
+    boolean hasFreshSnapshot() {
+        try {
+            return snapshot != null && Files.exists(snapshot) && (source == null
+                    || Files.getLastModifiedTime(snapshot).compareTo(Files.getLastModifiedTime(source)) >= 0);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Product catalog snapshot can not be checked: " + snapshot, ex);
+        }
+    }
+
+    /**
+     * Checks whether a source file is configured.
+     *
+     * @return true if there is a source file
+     */
+    boolean hasSource() {
+        return source != null;
+    }
+
+    /**
+     * Streams the source file, passing every product to the sink from several threads.
+     *
+     * @param sink the thread-safe consumer of the products
+     * @return the number of products loaded
+     * @throws IllegalStateException if a line can not be parsed
+     * @throws UncheckedIOException  if the file can not be read
+     */
+    long loadSource(Consumer<ProductAvailable> sink) {
+        long start = System.nanoTime();
+        AtomicLong loaded = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        List<Future<?>> batches = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+            List<String> batch = new ArrayList<>(BATCH_LINES);
+            long firstLine = 1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                batch.add(line);
+                if (batch.size() == BATCH_LINES) {
+                    batches.add(submit(executor, inFlight, batch, firstLine, sink, loaded));
+                    firstLine += batch.size();
+                    batch = new ArrayList<>(BATCH_LINES);
+                }
+            }
+            batches.add(submit(executor, inFlight, batch, firstLine, sink, loaded));
+            for (Future<?> future : batches) {
+                future.get();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Product catalog can not be read: " + source, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException("Product catalog can not be loaded: " + source, ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Product catalog load interrupted", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        logLoad(loaded.get(), source, start);
+        return loaded.get();
+    }
+
+    /**
+     * Memory-maps the snapshot and passes every product to the sink.
+     *
+     * @param sink the consumer of the products
+     * @return the number of products loaded
+     * @throws IllegalStateException if the snapshot is corrupted
+     * @throws UncheckedIOException  if the file can not be read
+     */
+    long loadSnapshot(Consumer<ProductAvailable> sink) {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Product catalog snapshot is too large to map: " + snapshot);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int end = buffer.limit() - Integer.BYTES;
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(0, Math.max(0, end)));
+            int version = end < Integer.BYTES * 2 ? 0 : buffer.getInt(Integer.BYTES);
+            if (end < Integer.BYTES * 2 + Long.BYTES || buffer.getInt(0) != SNAPSHOT_MAGIC
+                    || version != SNAPSHOT_VERSION && version != SNAPSHOT_VERSION_WITHOUT_PRICES
+                    || buffer.getInt(end) != (int) crc.getValue()) {
+                throw new IllegalStateException("Product catalog snapshot is corrupted: " + snapshot);
+            }
+            buffer.position(Integer.BYTES * 2);
+            long count = buffer.getLong();
+            for (long i = 0; i < count; i++) {
+                long id = buffer.getLong();
+                int stock = buffer.getInt();
+                long price = version == SNAPSHOT_VERSION ? buffer.getLong() : 0L;
+                int length = buffer.getInt();
+                String description = null;
+                if (length >= 0) {
+                    description = new String(readBytes(buffer, length), StandardCharsets.UTF_8);
+                }
+                sink.accept(new ProductAvailable(id, description, stock, price));
+            }
+            logLoad(count, snapshot, start);
+            return count;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Product catalog snapshot can not be read: " + snapshot, ex);
+        }
+    }
+
+    /**
+     * Writes the catalog to the snapshot, if one is configured, replacing the previous one atomically.
+     *
+     * @param products the products of the catalog
+     * @throws UncheckedIOException if the snapshot can not be written
+     */
+    void writeSnapshot(Collection<ProductAvailable> products) {
+        if (snapshot == null) {
+            return;
+        }
+        Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try {
+            if (snapshot.getParent() != null) {
+                Files.createDirectories(snapshot.getParent());
+            }
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                CheckedOutputStream checked = new CheckedOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), new CRC32C());
+                DataOutputStream out = new DataOutputStream(checked);
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(products.size());
+                for (ProductAvailable product : products) {
+                    out.writeLong(product.getId());
+                    out.writeInt(product.getStock());
+                    out.writeLong(product.getPrice());
+                    if (product.getDescription() == null) {
+                        out.writeInt(-1);
+                    } else {
+                        byte[] description = product.getDescription().getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(description.length);
+                        out.write(description);
+                    }
+                }
+                out.writeInt((int) checked.getChecksum().getValue());
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.info("Product catalog snapshot written with {} products to {}", products.size(), snapshot);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Product catalog snapshot can not be written: " + snapshot, ex);
+        }
+    }
+
+    /**
+     * Parses a single line of the source.
+     *
+     * @param line       the line
+     * @param lineNumber the number of the line, starting at 1
+     * @return the product, or null if the line is blank or the CSV header
+     * @throws IllegalStateException if the line can not be parsed
+     */
+    static ProductAvailable parseLine(String line, long lineNumber) {
+        String trimmed = line.strip();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        try {
+            if (trimmed.charAt(0) == '{') {
+                return parseJson(trimmed);
+            }
+            if (lineNumber == 1 && !Character.isDigit(trimmed.charAt(0)) && trimmed.charAt(0) != '-') {
+                return null;
+            }
+            return parseCsv(trimmed);
+        } catch (IOException | RuntimeException ex) {
+            throw new IllegalStateException("Invalid product catalog line %s: %s".formatted(lineNumber, line), ex);
+        }
+    }
+
+    private Future<?> submit(ExecutorService executor, Semaphore inFlight, List<String> batch, long firstLine,
+                             Consumer<ProductAvailable> sink, AtomicLong loaded) throws InterruptedException {
+        inFlight.acquire();
+        return executor.submit(() -> {
+            try {
+                long count = 0;
+                for (int i = 0; i < batch.size(); i++) {
+                    ProductAvailable product = parseLine(batch.get(i), firstLine + i);
+                    if (product != null) {
+                        sink.accept(product);
+                        count++;
+                    }
+                }
+                loaded.addAndGet(count);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private static ProductAvailable parseCsv(String line) {
+        int firstComma = line.indexOf(',');
+        int lastComma = line.lastIndexOf(',');
+        if (firstComma < 0 || firstComma == lastComma) {
+            throw new IllegalArgumentException("Expected id,description,stock[,price]");
+        }
+        long id = Long.parseLong(line.substring(0, firstComma).strip());
+        long price = 0L;
+        int stockComma = lastComma;
+        int stockEnd = line.length();
+        int previousComma = line.lastIndexOf(',', lastComma - 1);
+        if (previousComma > firstComma && isInteger(line.substring(previousComma + 1, lastComma).strip())) {
+            price = Long.parseLong(line.substring(lastComma + 1).strip());
+            stockComma = previousComma;
+            stockEnd = lastComma;
+        }
+        int stock = Integer.parseInt(line.substring(stockComma + 1, stockEnd).strip());
+        String description = line.substring(firstComma + 1, stockComma).strip();
+        if (description.length() >= 2 && description.startsWith("\"") && description.endsWith("\"")) {
+            description = description.substring(1, description.length() - 1).replace("\"\"", "\"");
+        }
+        return new ProductAvailable(id, description, stock, price);
+    }
+
+    private static boolean isInteger(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        for (int i = value.charAt(0) == '-' ? 1 : 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return value.length() > 1 || value.charAt(0) != '-';
+    }
+
+    private static ProductAvailable parseJson(String line) throws IOException {
+        Long id = null;
+        String description = null;
+        Integer stock = null;
+        long price = 0L;
+        try (JsonParser parser = JSON_FACTORY.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Expected an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "id":
+                        id = parser.getLongValue();
+                        break;
+                    case "description":
+                        description = value == JsonToken.VALUE_NULL ? null : parser.getText();
+                        break;
+                    case "stock":
+                        stock = parser.getIntValue();
+                        break;
+                    case "price":
+                        price = parser.getLongValue();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+        if (id == null || stock == null) {
+            throw new IllegalArgumentException("Expected the id and stock fields");
+        }
+        return new ProductAvailable(id, description, stock, price);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void logLoad(long count, Path file, long startNanos) {
+        long millis = Math.max(1L, (System.nanoTime() - startNanos) / 1_000_000L);
+        LOGGER.info("Loaded {} products from {} in {} ms ({} rows/s)", count, file, millis, count * 1000L / millis);
+    }
+}
@@ -1,16 +1,34 @@
 package com.onebox.ecommerce.service;
 
+import com.onebox.ecommerce.dto.CartDelta;
+import com.onebox.ecommerce.dto.LineChangeDto;
 import com.onebox.ecommerce.dto.ProductDto;
+import com.onebox.ecommerce.dto.ProductUpdateDto;
+import com.onebox.ecommerce.event.RequestEvent;
+import com.onebox.ecommerce.event.RequestEventLog;
+import com.onebox.ecommerce.exception.OutOfStockException;
 import com.onebox.ecommerce.model.Cart;
-import com.onebox.ecommerce.model.Product;
-import com.onebox.ecommerce.model.ProductAvailable;
 import com.onebox.ecommerce.repository.CartRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Service class for managing shopping carts in the e-commerce system.
@@ -21,11 +39,6 @@ import java.util.List;
 @Service
 public class CartService {
 
-    /**
-     * The fixed rate in milliseconds for running the scheduled task that deletes inactive carts.
-     */
-    private static final int SCHEDULED_TIME_MS = 60000;
-
     /**
      * Logger for logging information related to cart operations.
      */
@@ -42,27 +55,144 @@ public class CartService {
     private final ProductAvailableService productAvailableService;
 
     /**
-     * Constructs a new CartService with the specified CartRepository and ProductAvailableService.
+     * The asynchronous log of the cart events.
+     */
+    private final RequestEventLog eventLog;
+
+    /**
+     * Measures the duration of the updates of the products of a cart.
+     */
+    private final Timer updateTimer;
+
+    /**
+     * Counts the carts created.
+     */
+    private final Counter createdCounter;
+
+    /**
+     * Counts the carts deleted on request.
+     */
+    private final Counter deletedCounter;
+
+    /**
+     * Constructs a new CartService with the specified CartRepository and ProductAvailableService,
+     * whose metrics are not exported.
      *
      * @param cartRepository the repository to use for managing carts
      * @param productAvailableService the service to use for retrieving product availability
      */
     public CartService(CartRepository cartRepository, ProductAvailableService productAvailableService) {
+        this(cartRepository, productAvailableService, RequestEventLog.discarding(), new SimpleMeterRegistry());
+    }
+
+    /**
+     * Constructs a new CartService with the specified CartRepository and ProductAvailableService.
+     *
+     * @param cartRepository the repository to use for managing carts
+     * @param productAvailableService the service to use for retrieving product availability
+     * @param eventLog the log of the cart events
+     * @param meterRegistry the registry of the cart metrics
+     */
+    @Autowired
+    public CartService(CartRepository cartRepository, ProductAvailableService productAvailableService,
+                       RequestEventLog eventLog, MeterRegistry meterRegistry) {
         this.cartRepository = cartRepository;
         this.productAvailableService = productAvailableService;
+        this.eventLog = eventLog;
+        this.updateTimer = Timer.builder("ecommerce.cart.update")
+                .description("Duration of the updates of the products of a cart")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.createdCounter = Counter.builder("ecommerce.carts.created")
+                .description("Carts created")
+                .register(meterRegistry);
+        this.deletedCounter = Counter.builder("ecommerce.carts.deleted")
+                .description("Carts deleted on request")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reserves again the stock held by the carts restored from the journal on startup.
+     * A product that no longer exists or has not enough stock is removed from the cart.
+     */
+    @PostConstruct
+    public void reserveRestoredStock() {
+        cartRepository.forEachCart(cart -> {
+            Cart.Lines lines = cart.getLines();
+            for (int i = 0; i < lines.size(); i++) {
+                long productId = lines.productId(i);
+                try {
+                    productAvailableService.adjustStock(productId, lines.amount(i));
+                } catch (OutOfStockException | IllegalArgumentException ex) {
+                    LOGGER.warn("Product {} removed from restored cart {}: {}", productId, cart.getId(),
+                            ex.getMessage());
+                    cartRepository.updateCart(cart.getId(), restored -> restored.putProduct(productId, 0));
+                }
+            }
+        });
     }
 
     /**
      * Creates a new cart and saves it in the repository.
      *
-     * @return the newly created Cart
+     * @return a snapshot of the newly created Cart, taken before it is stored
      */
     public Cart createCart() {
-        Cart cartCreated = cartRepository.saveCart(new Cart());
-        LOGGER.info("Created new cart with ID: {}", cartCreated.getId());
+        Cart cart = new Cart(cartRepository.nextCartId());
+        Cart cartCreated = cart.snapshot();
+        cartRepository.saveCart(cart);
+        createdCounter.increment();
+        eventLog.publish(RequestEvent.Type.CART_CREATED, cartCreated.getId(), 0);
         return cartCreated;
     }
 
+    /**
+     * Creates several carts and saves them in the repository as a single batch.
+     *
+     * @param count the number of carts to create
+     * @return the newly created carts
+     */
+    public List<Cart> createCarts(int count) {
+        List<Cart> carts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            carts.add(new Cart(cartRepository.nextCartId()));
+        }
+        cartRepository.saveCarts(carts);
+        createdCounter.increment(count);
+        for (Cart cart : carts) {
+            eventLog.publish(RequestEvent.Type.CART_CREATED, cart.getId(), 0);
+        }
+        return carts;
+    }
+
+    /**
+     * Looks up several carts by their ids.
+     *
+     * @param cartIds the ids of the carts to look up
+     * @return the cart of each id, at the same position, or null where the cart does not exist
+     */
+    public Cart[] findCartsByIds(long[] cartIds) {
+        Cart[] carts = cartRepository.findCartsByIds(cartIds);
+        for (Cart cart : carts) {
+            if (cart != null) {
+                eventLog.publish(RequestEvent.Type.CART_RETRIEVED, cart.getId(), cart.getLines().size());
+            }
+        }
+        return carts;
+    }
+
+    /**
+     * Looks up a cart by its id.
+     *
+     * @param cartId the id of the cart to look up
+     * @return the Cart with the specified id, or empty if it does not exist
+     */
+    public Optional<Cart> findCartById(Long cartId) {
+        Optional<Cart> cart = cartRepository.findCartById(cartId);
+        cart.ifPresent(found -> eventLog.publish(RequestEvent.Type.CART_RETRIEVED, cartId, found.getLines().size()));
+        return cart;
+    }
+
     /**
      * Retrieves a cart by its id.
      *
@@ -70,53 +200,211 @@ public class CartService {
      * @return the Cart with the specified id
      */
     public Cart getCartById(Long cartId) {
-        LOGGER.info("Retrieving cart with ID: {}", cartId);
-        return cartRepository.getCartById(cartId);
+        Cart cart = cartRepository.getCartById(cartId);
+        eventLog.publish(RequestEvent.Type.CART_RETRIEVED, cartId, cart.getLines().size());
+        return cart;
     }
 
     /**
      * Updates the products in a cart.
-     * This method updates the products of the cart by iterating through the provided list
-     * of ProductDto objects and converting them into Product entities. The updated cart is then saved.
-     * Products are added to the cart only if the available stock is sufficient.
+     * This method updates the products of the cart with the provided list of ProductDto objects.
+     * When a product appears several times, the last amount wins.
+     * The whole list is applied as one atomic step with a single timestamp bump: the stock of every
+     * product is adjusted by the difference with the amount already in the cart and, if any product
+     * does not exist or has not enough stock, neither the cart nor the stock are changed.
      *
      * @param cartId   the id of the cart to update
      * @param products the list of ProductDto objects to update in the cart
-     * @return the updated Cart
+     * @return a snapshot of the updated Cart, taken holding its lock
      */
     public Cart updateProductsFromCart(Long cartId, List<ProductDto> products) {
-        LOGGER.info("Updating products for cart with ID: {}", cartId);
-        Cart cart = cartRepository.getCartById(cartId);
+        Map<Long, Integer> amounts = new LinkedHashMap<>();
+        products.forEach(productDTO -> amounts.put(productDTO.getId(), productDTO.getAmount()));
+
+        Cart updated = updateTimer.record(() -> updateLines(cartId, cart -> amounts, cart -> { }));
+        eventLog.publish(RequestEvent.Type.CART_UPDATED, cartId, amounts.size());
+        return updated;
+    }
 
-        for (ProductDto productDTO : products) {
-            ProductAvailable prodAvailable = productAvailableService.getProductCheckingTheStock(productDTO);
-            if (prodAvailable != null) {
-                Product product = new Product(prodAvailable.getId(),
-                                              prodAvailable.getDescription(),
-                                              productDTO.getAmount());
-                cartRepository.updateProduct(cartId, product);
+    /**
+     * Changes some lines of a cart by increments, decrements and removals, and returns only the lines
+     * that changed.
+     * The changes are applied in order, so several changes of the same product add up. A decrement below
+     * the amount in the cart removes the product. As with {@link #updateProductsFromCart(Long, List)},
+     * the whole list is one atomic step: the stock is adjusted by the difference of each changed line and,
+     * if a product does not exist or has not enough stock, neither the cart nor the stock are changed.
+     *
+     * @param cartId  the id of the cart to update
+     * @param changes the changes of the lines of the cart
+     * @return the changed lines with their new amount, and the new version and totals of the cart
+     */
+    public CartDelta patchCart(Long cartId, List<LineChangeDto> changes) {
+        CartDelta[] delta = new CartDelta[1];
+        Map<Long, Integer> amounts = new TreeMap<>();
+        updateTimer.record(() -> updateLines(cartId, cart -> {
+            amounts.clear();
+            for (LineChangeDto change : changes) {
+                int current = amounts.getOrDefault(change.getId(), cart.getAmountOf(change.getId()));
+                amounts.put(change.getId(), change.isRemoval()
+                        ? 0 : (int) Math.max(0, Math.min(Integer.MAX_VALUE, (long) current + change.getDelta())));
             }
-        }
-        return cartRepository.saveCart(cart);
+            amounts.entrySet().removeIf(amount -> amount.getValue() == cart.getAmountOf(amount.getKey()));
+            return amounts;
+        }, cart -> {
+            List<ProductDto> lines = new ArrayList<>(amounts.size());
+            amounts.forEach((productId, amount) -> lines.add(new ProductDto(productId, amount)));
+            delta[0] = new CartDelta(cart.getId(), cart.getVersion(), lines, cart.getItemCount(), cart.getSubtotal());
+        }));
+        eventLog.publish(RequestEvent.Type.CART_UPDATED, cartId, delta[0].getLines().size());
+        return delta[0];
     }
 
     /**
-     * Deletes a cart by its id.
+     * Deletes a cart by its id and releases the stock held by its products.
      *
      * @param cartId the id of the cart to delete
      */
     public void deleteCart(Long cartId) {
-        LOGGER.info("Deleting cart with ID: {}", cartId);
-        cartRepository.deleteCart(cartId);
+        Cart deleted = cartRepository.deleteCart(cartId);
+        releaseStock(deleted);
+        deletedCounter.increment();
+        eventLog.publish(RequestEvent.Type.CART_DELETED, cartId, deleted.getLines().size());
+    }
+
+    /**
+     * Retrieves a page of the ids of the carts holding a product, sorted by cart id.
+     * The page starts after the given cart ID, so the next page is requested with the last ID of this one.
+     * The product does not need to exist in the catalog, so the carts still holding a withdrawn product
+     * can be found.
+     *
+     * @param productId   the ID of the product
+     * @param afterCartId the cart ID after which the page starts
+     * @param limit       the maximum number of cart IDs of the page
+     * @return the cart IDs of the page
+     */
+    public long[] getCartIdsWithProduct(Long productId, long afterCartId, int limit) {
+        return cartRepository.findCartIdsWithProduct(productId, afterCartId, limit);
+    }
+
+    /**
+     * Counts the carts holding a product.
+     *
+     * @param productId the ID of the product
+     * @return the number of carts holding the product
+     */
+    public int countCartsWithProduct(Long productId) {
+        return cartRepository.countCartsWithProduct(productId);
+    }
+
+    /**
+     * Adds or updates several products of the catalog at once, as
+     * {@link ProductAvailableService#updateProducts(List)} does, and recomputes the subtotals of the
+     * carts holding a product whose price changed.
+     *
+     * @param updates the updates of the products
+     * @return the number of carts repriced
+     */
+    public int updateCatalog(List<ProductUpdateDto> updates) {
+        long[] repricedProducts = productAvailableService.updateProducts(updates);
+        int repricedCarts = 0;
+        for (long productId : repricedProducts) {
+            repricedCarts += cartRepository.repriceCarts(productId);
+        }
+        LOGGER.info("Catalog updated with {} products, {} repriced in {} carts", updates.size(),
+                repricedProducts.length, repricedCarts);
+        return repricedCarts;
     }
 
     /**
      * Scheduled task that deletes inactive carts.
-     * This method runs at a fixed rate (every 60 seconds) and removes all carts
-     * that have been inactive for a period greater than the defined limit.
+     * This method runs at the granularity of the expiry index ({@code ecommerce.cart.expiry-tick},
+     * every second by default) and removes all carts that have been inactive for a period greater
+     * than the configured limit ({@code ecommerce.cart.inactive-ttl}), releasing the stock they held.
+     * It also releases the stock held by the carts evicted due to the size bound since the last run.
      */
-    @Scheduled(fixedRate = SCHEDULED_TIME_MS)
+    @Scheduled(fixedRateString = "${ecommerce.cart.expiry-tick:1s}")
     public void deleteInactiveCarts() {
-        cartRepository.deleteInactiveCarts();
+        cartRepository.deleteInactiveCarts().forEach(cart -> {
+            releaseStock(cart);
+            eventLog.publish(RequestEvent.Type.CART_EXPIRED, cart.getId(), cart.getLines().size());
+        });
+        List<Cart> evicted = cartRepository.drainEvictedCarts();
+        if (!evicted.isEmpty()) {
+            evicted.forEach(cart -> {
+                releaseStock(cart);
+                eventLog.publish(RequestEvent.Type.CART_EVICTED, cart.getId(), cart.getLines().size());
+            });
+            LOGGER.warn("Released the stock of {} carts evicted due to the size bound ({} since startup)",
+                    evicted.size(), cartRepository.getEvictedCount());
+        }
+    }
+
+    /**
+     * Scheduled task that writes a compacted snapshot of the carts, so the journal replayed on
+     * startup stays short. It runs every {@code ecommerce.cart.journal.snapshot-interval} and does
+     * nothing when the journal is disabled.
+     */
+    @Scheduled(fixedRateString = "${ecommerce.cart.journal.snapshot-interval:5m}",
+            initialDelayString = "${ecommerce.cart.journal.snapshot-interval:5m}")
+    public void snapshotCarts() {
+        cartRepository.snapshot();
+    }
+
+    /**
+     * Sets the amounts of some lines of a cart as one atomic step, with the stock they hold.
+     * The stock of the increased lines is reserved inside the update of the cart, all or nothing, and given
+     * back if the update fails, including when the cart can not be journaled. The stock of the decreased
+     * lines is released only once the update is stored, so a failed update never gives it away.
+     *
+     * @param cartId    the id of the cart to update
+     * @param amountsOf computes the new amount of each changed line from the current cart
+     * @param onUpdated receives the cart once its lines are changed, inside the update
+     * @return a snapshot of the updated cart
+     */
+    private Cart updateLines(Long cartId, Function<Cart, Map<Long, Integer>> amountsOf, Consumer<Cart> onUpdated) {
+        Map<Long, Integer> reserved = new HashMap<>();
+        Map<Long, Integer> released = new HashMap<>();
+        boolean[] holding = new boolean[1];
+        Cart updated;
+        try {
+            updated = cartRepository.updateCart(cartId, cart -> {
+                Map<Long, Integer> amounts = amountsOf.apply(cart);
+                amounts.forEach((productId, amount) -> {
+                    int delta = amount - cart.getAmountOf(productId);
+                    reserved.put(productId, Math.max(delta, 0));
+                    if (delta < 0) {
+                        released.put(productId, delta);
+                    }
+                });
+                productAvailableService.adjustStock(reserved);
+                holding[0] = true;
+                if (!amounts.isEmpty()) {
+                    cart.putProducts(amounts);
+                }
+                onUpdated.accept(cart);
+            });
+        } catch (RuntimeException ex) {
+            if (holding[0]) {
+                reserved.replaceAll((productId, amount) -> -amount);
+                productAvailableService.adjustStock(reserved);
+            }
+            throw ex;
+        }
+        if (!released.isEmpty()) {
+            productAvailableService.adjustStock(released);
+        }
+        return updated;
+    }
+
+    /**
+     * Releases the stock held by every product of a cart that is no longer stored.
+     *
+     * @param cart the deleted cart
+     */
+    private void releaseStock(Cart cart) {
+        Cart.Lines lines = cart.getLines();
+        for (int i = 0; i < lines.size(); i++) {
+            productAvailableService.releaseStock(lines.productId(i), lines.amount(i));
+        }
     }
 }
@@ -1,29 +1,44 @@
 package com.onebox.ecommerce.service;
 
-import com.onebox.ecommerce.dto.ProductDto;
+import com.onebox.ecommerce.dto.ProductUpdateDto;
+import com.onebox.ecommerce.event.RequestEvent;
+import com.onebox.ecommerce.event.RequestEventLog;
+import com.onebox.ecommerce.exception.NotFoundException;
 import com.onebox.ecommerce.exception.OutOfStockException;
 import com.onebox.ecommerce.model.ProductAvailable;
+import com.onebox.ecommerce.model.StockCounter;
 import com.onebox.ecommerce.repository.ProductAvailableRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
 
 /**
  * Service class for managing available products in the e-commerce system.
  * This class provides methods for retrieving available products from the
- * repository. The repository uses an in-memory data structure, a Map
+ * repository, for reserving and releasing their stock on behalf of carts and for
+ * updating the catalog in bulk.
+ * The stock of each product is a {@link StockCounter}, so the reservations of a product that many
+ * carts update at once are spread over stripes, and a reservation is only rejected when the whole
+ * stock of the product is not enough.
+ * The repository uses an in-memory data structure, a Map
  * to store and manage the products.
  */
 @Service
 public class ProductAvailableService {
     private static final Logger LOGGER = LoggerFactory.getLogger(ProductAvailableService.class);
-    private static final String PROD_NOT_STOCK_ERROR = "Product has not more stock for the id: %s";
-    private static final String PROD_NOT_ENOUGH_ERROR = "Product has only %s stock for the id: %s";
-
-
 
     /**
      * The repository responsible for managing product availability data.
@@ -31,14 +46,53 @@ public class ProductAvailableService {
      */
     private final ProductAvailableRepository productAvailableRepository;
 
+    /**
+     * The asynchronous log of the product events.
+     */
+    private final RequestEventLog eventLog;
+
+    /**
+     * Measures the duration of the stock adjustments, single or all-or-nothing.
+     */
+    private final Timer adjustTimer;
+
+    /**
+     * Counts the reservations rejected because the product has not enough stock.
+     */
+    private final Counter rejectedCounter;
+
+    /**
+     * Constructs a new ProductAvailableService with the specified ProductAvailableRepository,
+     * whose metrics are not exported.
+     *
+     * @param productAvailableRepository the repository to use for managing product availability
+     */
+    public ProductAvailableService(ProductAvailableRepository productAvailableRepository) {
+        this(productAvailableRepository, RequestEventLog.discarding(), new SimpleMeterRegistry());
+    }
+
     /**
      * Constructs a new ProductAvailableService with the specified ProductAvailableRepository.
      *
      * @param productAvailableRepository the repository to use for managing product availability
+     * @param eventLog                   the log of the product events
+     * @param meterRegistry              the registry of the stock metrics
      */
     @Autowired
-    public ProductAvailableService(ProductAvailableRepository productAvailableRepository) {
+    public ProductAvailableService(ProductAvailableRepository productAvailableRepository,
+                                   RequestEventLog eventLog, MeterRegistry meterRegistry) {
         this.productAvailableRepository = productAvailableRepository;
+        this.eventLog = eventLog;
+        this.adjustTimer = Timer.builder("ecommerce.stock.adjust")
+                .description("Duration of the stock adjustments")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("ecommerce.stock.rejected")
+                .description("Reservations rejected for insufficient stock")
+                .register(meterRegistry);
+        FunctionCounter.builder("ecommerce.stock.rebalances", this, service -> StockCounter.rebalanceCount())
+                .description("Rebalances of the stock stripes of contended products")
+                .register(meterRegistry);
     }
 
     /**
@@ -48,31 +102,196 @@ public class ProductAvailableService {
      * @return a list of all available products
      */
     public List<ProductAvailable> getProducts() {
-        LOGGER.info("Retrieving all products from the in-memory repository");
-        return productAvailableRepository.getProducts();
+        List<ProductAvailable> products = productAvailableRepository.getProducts();
+        eventLog.publish(RequestEvent.Type.PRODUCTS_LISTED, RequestEvent.NO_CART, products.size());
+        return products;
     }
 
     /**
-     * Retrieves an available product
-     * This method retrieves a product that is available in the system using its
-     * unique product ID is there is sufficient stock.
+     * Retrieves the version of the catalog, which changes whenever a product or its stock changes.
      *
-     * @param productDTO the product data transfer object containing the product ID and requested amount
-     * @return the available product if found and sufficient stock exists
-     * @throws OutOfStockException if the product has no stock or insufficient stock
+     * @return the current version of the catalog
+     */
+    public long getCatalogVersion() {
+        return productAvailableRepository.getCatalogVersion();
+    }
+
+    /**
+     * Retrieves a page of the available products, sorted by ID.
+     * The page starts after the given ID, so the next page is requested with the last ID of this one.
+     *
+     * @param afterId the ID after which the page starts
+     * @param limit   the maximum number of products of the page
+     * @return the available products of the page
      */
-    public ProductAvailable getProductCheckingTheStock(ProductDto productDTO) {
-        LOGGER.info("Retrieving available product by id: {}", productDTO.getId());
-        ProductAvailable prodAvailable = productAvailableRepository.getProductById(productDTO.getId());
+    public List<ProductAvailable> getProducts(long afterId, int limit) {
+        List<ProductAvailable> products = productAvailableRepository.getProducts(afterId, limit);
+        eventLog.publish(RequestEvent.Type.PRODUCTS_LISTED, RequestEvent.NO_CART, products.size());
+        return products;
+    }
 
-        if (prodAvailable.getStock() == 0) {
-            LOGGER.error("Product has not more stock for the id: {}", productDTO.getId());
-            throw new OutOfStockException(PROD_NOT_STOCK_ERROR.formatted(productDTO.getId()));
-        } else if (prodAvailable.getStock() < productDTO.getAmount()) {
-            LOGGER.error("Product has only {} stock for the id: {}", prodAvailable.getStock(), productDTO.getId());
-            throw new OutOfStockException(PROD_NOT_ENOUGH_ERROR.formatted(prodAvailable.getStock(),productDTO.getId()));
+    /**
+     * Adjusts the stock held for a product by the given amount of units.
+     * A positive amount atomically reserves units from the stock, a negative amount releases
+     * units back to it and zero only retrieves the product.
+     *
+     * @param productId the ID of the product
+     * @param amount    the units to reserve (positive) or release (negative)
+     * @return the available product
+     * @throws OutOfStockException if the product has no stock or insufficient stock to reserve the units
+     * @throws NotFoundException if the product is not found
+     */
+    public ProductAvailable adjustStock(Long productId, int amount) {
+        return adjustTimer.record(() -> adjustSingleStock(productId, amount));
+    }
+
+    /**
+     * Adjusts the stock held for a product by the given amount of units, without measuring it.
+     *
+     * @param productId the ID of the product
+     * @param amount    the units to reserve (positive) or release (negative)
+     * @return the available product
+     */
+    private ProductAvailable adjustSingleStock(Long productId, int amount) {
+        ProductAvailable prodAvailable = productAvailableRepository.getProductById(productId);
+
+        if (amount > 0) {
+            reserve(prodAvailable, amount);
+        } else if (amount < 0) {
+            release(prodAvailable, -amount);
         }
-        LOGGER.debug("Product exists for ID: {}", productDTO.getId());
+        LOGGER.debug("Stock adjusted by {} for product ID: {}", amount, productId);
         return prodAvailable;
     }
+
+    /**
+     * Adjusts the stock held for several products as a single all-or-nothing operation.
+     * Every product is resolved before any stock is touched. Then the positive amounts are reserved
+     * and, if one of them can not be reserved, the units already reserved are released before the
+     * exception is propagated. The negative amounts are released only once every reservation succeeded.
+     *
+     * @param amounts the units to reserve (positive) or release (negative), by product ID
+     * @return the available products, by product ID
+     * @throws OutOfStockException if any product has insufficient stock; no stock is changed in that case
+     * @throws NotFoundException if any product is not found; no stock is changed in that case
+     */
+    public Map<Long, ProductAvailable> adjustStock(Map<Long, Integer> amounts) {
+        return adjustTimer.record(() -> adjustAllStock(amounts));
+    }
+
+    /**
+     * Adjusts the stock held for several products as a single all-or-nothing operation, without
+     * measuring it.
+     *
+     * @param amounts the units to reserve (positive) or release (negative), by product ID
+     * @return the available products, by product ID
+     */
+    private Map<Long, ProductAvailable> adjustAllStock(Map<Long, Integer> amounts) {
+        Map<Long, ProductAvailable> prodsAvailable = new HashMap<>();
+        amounts.keySet().forEach(productId ->
+                prodsAvailable.put(productId, productAvailableRepository.getProductById(productId)));
+
+        List<Map.Entry<Long, Integer>> reserved = new ArrayList<>();
+        try {
+            for (Map.Entry<Long, Integer> amount : amounts.entrySet()) {
+                if (amount.getValue() > 0) {
+                    reserve(prodsAvailable.get(amount.getKey()), amount.getValue());
+                    reserved.add(amount);
+                }
+            }
+        } catch (OutOfStockException ex) {
+            reserved.forEach(amount -> release(prodsAvailable.get(amount.getKey()), amount.getValue()));
+            throw ex;
+        }
+        amounts.forEach((productId, amount) -> {
+            if (amount < 0) {
+                release(prodsAvailable.get(productId), -amount);
+            }
+        });
+        return prodsAvailable;
+    }
+
+    /**
+     * Adds or updates several products of the catalog, published at once as a new catalog snapshot.
+     * The fields left out of an update keep their current value. A product whose stock is not given
+     * keeps counting on its current stock, so the reservations of the carts are not affected; a given
+     * stock replaces the available stock of the product, without the units already held by carts.
+     * An existing product keeps its stock counter in both cases, so a reservation made through the
+     * product of the previous catalog snapshot while the new one is published is taken from the replaced
+     * stock, and the units held by carts are given back to it when released. The given stocks are only
+     * replaced once the whole snapshot is built, as it is published, so a batch that fails changes nothing.
+     * When a product appears several times, the last update wins.
+     *
+     * @param updates the updates of the products
+     * @return the IDs of the existing products whose price changed
+     */
+    public long[] updateProducts(List<ProductUpdateDto> updates) {
+        Map<Long, UnaryOperator<ProductAvailable>> changes = new LinkedHashMap<>();
+        Map<Long, Integer> stocks = new HashMap<>();
+        updates.forEach(update -> {
+            changes.put(update.getId(), current -> updated(current, update));
+            if (update.getStock() != null) {
+                stocks.put(update.getId(), update.getStock());
+            } else {
+                stocks.remove(update.getId());
+            }
+        });
+        return productAvailableRepository.updateProducts(changes, stocks);
+    }
+
+    /**
+     * Releases the given amount of units of a product back to the stock.
+     *
+     * @param productId the ID of the product
+     * @param amount    the units to release
+     */
+    public void releaseStock(Long productId, int amount) {
+        adjustStock(productId, -amount);
+    }
+
+    /**
+     * Builds the replacement of a product from an update. An existing product keeps its stock counter,
+     * whose units are replaced by the repository when the snapshot is published.
+     *
+     * @param current the current product, or null if it does not exist yet
+     * @param update  the update of the product
+     * @return the updated product
+     */
+    private static ProductAvailable updated(ProductAvailable current, ProductUpdateDto update) {
+        String description = update.getDescription() != null || current == null
+                ? update.getDescription() : current.getDescription();
+        long price = update.getPrice() != null ? update.getPrice() : current != null ? current.getPrice() : 0L;
+        if (current == null) {
+            return new ProductAvailable(update.getId(), description, update.getStock() != null ? update.getStock() : 0,
+                    price);
+        }
+        return current.withDetails(description, price);
+    }
+
+    /**
+     * Reserves the given amount of units of a product.
+     *
+     * @param prodAvailable the product to reserve
+     * @param amount        the units to reserve
+     * @throws OutOfStockException if the product has no stock or insufficient stock
+     */
+    private void reserve(ProductAvailable prodAvailable, int amount) {
+        if (prodAvailable.tryReserve(amount)) {
+            productAvailableRepository.stockChanged(prodAvailable);
+        } else {
+            rejectedCounter.increment();
+            throw new OutOfStockException(prodAvailable.getId(), prodAvailable.getStock());
+        }
+    }
+
+    /**
+     * Releases the given amount of units of a product.
+     *
+     * @param prodAvailable the product to release
+     * @param amount        the units to release
+     */
+    private void release(ProductAvailable prodAvailable, int amount) {
+        prodAvailable.release(amount);
+        productAvailableRepository.stockChanged(prodAvailable);
+    }
 }
@@ -0,0 +1,230 @@
+package com.onebox.ecommerce.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.onebox.ecommerce.model.ProductAvailable;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of the serialized list of available products.
+ * The catalog is read far more often than it changes, so the JSON of the whole list is serialized
+ * once per catalog version and served as bytes until the version changes. The gzip variant is
+ * compressed on the first request that accepts it, and the CBOR variant is written from the same list of
+ * products on the first request that prefers it. Each representation of a version has its own ETag, so clients
+ * that already hold it can be answered without a body, and a cache never answers a request with the
+ * bytes of another representation.
+ */
+@Component
+public class ProductCatalogCache {
+
+    /**
+     * The service that provides the available products and the catalog version.
+     */
+    private final ProductAvailableService productAvailableService;
+
+    /**
+     * The mapper used to serialize the catalog, configured like the one of the REST controllers.
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * The mapper used to write the catalog in CBOR, a copy of the JSON one with a CBOR factory, so it
+     * writes the products with the same streaming serializer.
+     */
+    private final ObjectMapper cborMapper;
+
+    /**
+     * Serializes the rebuilds, so a version change triggers a single serialization.
+     */
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+
+    /**
+     * The last serialized catalog, or null before the first request.
+     */
+    private volatile CachedCatalog cached;
+
+    /**
+     * Constructs a new ProductCatalogCache with the specified ProductAvailableService and ObjectMapper.
+     *
+     * @param productAvailableService the service that provides the available products
+     * @param objectMapper            the mapper used to serialize the catalog
+     */
+    public ProductCatalogCache(ProductAvailableService productAvailableService, ObjectMapper objectMapper) {
+        this.productAvailableService = productAvailableService;
+        this.objectMapper = objectMapper;
+        this.cborMapper = objectMapper.copyWith(new CBORFactory());
+    }
+
+    /**
+     * Returns the ETag of a representation of the current catalog version, without serializing anything.
+     *
+     * @param representation the representation of the catalog
+     * @return the ETag of the representation of the current catalog version
+     */
+    public String currentEtag(Representation representation) {
+        return etagOf(productAvailableService.getCatalogVersion(), representation);
+    }
+
+    /**
+     * Returns the serialized catalog of the current version, serializing it if it changed.
+     * The version is read before the products, so the bytes are at least as recent as the version they
+     * are cached under.
+     *
+     * @return the serialized catalog
+     */
+    public CachedCatalog getCatalog() {
+        long version = productAvailableService.getCatalogVersion();
+        CachedCatalog current = cached;
+        if (current != null && current.version >= version) {
+            return current;
+        }
+        rebuildLock.lock();
+        try {
+            current = cached;
+            if (current == null || current.version < version) {
+                List<ProductAvailable> products = productAvailableService.getProducts();
+                current = new CachedCatalog(version, serialize(objectMapper, products),
+                        () -> serialize(cborMapper, products));
+                cached = current;
+            }
+            return current;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the ETag of a representation of a catalog version.
+     *
+     * @param version        the catalog version
+     * @param representation the representation of the catalog
+     * @return the quoted ETag
+     */
+    static String etagOf(long version, Representation representation) {
+        return "\"catalog-" + version + representation.suffix + "\"";
+    }
+
+    /**
+     * Serializes the available products.
+     *
+     * @param mapper   the mapper of the format, JSON or CBOR
+     * @param products the available products
+     * @return the serialized products
+     */
+    private static byte[] serialize(ObjectMapper mapper, List<ProductAvailable> products) {
+        try {
+            return mapper.writeValueAsBytes(products);
+        } catch (JsonProcessingException ex) {
+            throw new UncheckedIOException("Product catalog can not be serialized", ex);
+        }
+    }
+
+    /**
+     * A serialized version of the catalog.
+     */
+    public static final class CachedCatalog {
+
+        private final long version;
+        private final byte[] json;
+        private final Supplier<byte[]> cborEncoder;
+        private volatile byte[] gzip;
+        private volatile byte[] cbor;
+
+        private CachedCatalog(long version, byte[] json, Supplier<byte[]> cborEncoder) {
+            this.version = version;
+            this.json = json;
+            this.cborEncoder = cborEncoder;
+        }
+
+        /**
+         * Returns the ETag of a representation of this version of the catalog.
+         *
+         * @param representation the representation of the catalog
+         * @return the quoted ETag
+         */
+        public String getEtag(Representation representation) {
+            return etagOf(version, representation);
+        }
+
+        /**
+         * Returns the JSON of the catalog. The array is shared and must not be modified.
+         *
+         * @return the JSON bytes
+         */
+        public byte[] getJson() {
+            return json;
+        }
+
+        /**
+         * Returns the gzip-compressed JSON of the catalog, compressing it on the first call.
+         * The array is shared and must not be modified.
+         *
+         * @return the gzip bytes
+         */
+        public byte[] getGzip() {
+            byte[] compressed = gzip;
+            if (compressed == null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, json.length / 4));
+                try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+                    gzipOut.write(json);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException("Product catalog can not be compressed", ex);
+                }
+                compressed = out.toByteArray();
+                gzip = compressed;
+            }
+            return compressed;
+        }
+
+        /**
+         * Returns the CBOR of the catalog, writing it on the first call.
+         * The array is shared and must not be modified.
+         *
+         * @return the CBOR bytes
+         */
+        public byte[] getCbor() {
+            byte[] encoded = cbor;
+            if (encoded == null) {
+                encoded = cborEncoder.get();
+                cbor = encoded;
+            }
+            return encoded;
+        }
+    }
+
+    /**
+     * The representations of the catalog, each with its own ETag.
+     */
+    public enum Representation {
+
+        /**
+         * The JSON of the catalog.
+         */
+        JSON(""),
+
+        /**
+         * The gzip-compressed JSON of the catalog.
+         */
+        GZIP("-gzip"),
+
+        /**
+         * The CBOR of the catalog.
+         */
+        CBOR("-cbor");
+
+        private final String suffix;
+
+        Representation(String suffix) {
+            this.suffix = suffix;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.onebox.ecommerce.service;
+
+import com.onebox.ecommerce.dto.CartDelta;
+import com.onebox.ecommerce.dto.LineChangeDto;
+import com.onebox.ecommerce.dto.ProductDto;
+import com.onebox.ecommerce.dto.ProductUpdateDto;
+import com.onebox.ecommerce.model.Cart;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Non-blocking facade of the {@link CartService} for the reactive web stack.
+ * The lookups of the carts only read the in-memory store without taking any lock, so they run on the
+ * calling event-loop thread. The mutations of the carts may wait: for the lock of the cart, for the lock
+ * of a contended stock counter and, with the journal enabled, for the journal and its fsync policy.
+ * They always run on the bounded elastic scheduler, so they never block an event loop.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveCartService {
+
+    /**
+     * The service that manages the carts.
+     */
+    private final CartService cartService;
+
+    /**
+     * Constructs a new ReactiveCartService on top of the specified CartService.
+     *
+     * @param cartService the service that manages the carts
+     */
+    @Autowired
+    public ReactiveCartService(CartService cartService) {
+        this.cartService = cartService;
+    }
+
+    /**
+     * Creates a new cart.
+     *
+     * @return a Mono emitting the newly created cart
+     */
+    public Mono<Cart> createCart() {
+        return mutate(cartService::createCart);
+    }
+
+    /**
+     * Creates several carts as a single batch, as {@link CartService#createCarts(int)} does.
+     *
+     * @param count the number of carts to create
+     * @return a Mono emitting the newly created carts
+     */
+    public Mono<List<Cart>> createCarts(int count) {
+        return mutate(() -> cartService.createCarts(count));
+    }
+
+    /**
+     * Looks up several carts by their ids, as {@link CartService#findCartsByIds(long[])} does.
+     *
+     * @param cartIds the ids of the carts to look up
+     * @return a Mono emitting the cart of each id, or null where the cart does not exist
+     */
+    public Mono<Cart[]> findCartsByIds(long[] cartIds) {
+        return Mono.fromSupplier(() -> cartService.findCartsByIds(cartIds));
+    }
+
+    /**
+     * Looks up a cart by its id.
+     *
+     * @param cartId the id of the cart to look up
+     * @return a Mono emitting the cart, or empty if it does not exist
+     */
+    public Mono<Cart> findCartById(Long cartId) {
+        return Mono.defer(() -> Mono.justOrEmpty(cartService.findCartById(cartId)));
+    }
+
+    /**
+     * Updates the products in a cart, as {@link CartService#updateProductsFromCart(Long, List)} does.
+     *
+     * @param cartId   the id of the cart to update
+     * @param products the products to update in the cart
+     * @return a Mono emitting the updated cart, or an error if the cart or a product does not exist
+     *         or a product has not enough stock
+     */
+    public Mono<Cart> updateProductsFromCart(Long cartId, List<ProductDto> products) {
+        return mutate(() -> cartService.updateProductsFromCart(cartId, products));
+    }
+
+    /**
+     * Changes some lines of a cart, as {@link CartService#patchCart(Long, List)} does.
+     *
+     * @param cartId  the id of the cart to update
+     * @param changes the changes of the lines of the cart
+     * @return a Mono emitting the changed lines and the new version and totals of the cart
+     */
+    public Mono<CartDelta> patchCart(Long cartId, List<LineChangeDto> changes) {
+        return mutate(() -> cartService.patchCart(cartId, changes));
+    }
+
+    /**
+     * Deletes a cart by its id and releases the stock held by its products.
+     *
+     * @param cartId the id of the cart to delete
+     * @return a Mono completing once the cart is deleted, or an error if it does not exist
+     */
+    public Mono<Void> deleteCart(Long cartId) {
+        return mutate(() -> {
+            cartService.deleteCart(cartId);
+            return cartId;
+        }).then();
+    }
+
+    /**
+     * Retrieves a page of the ids of the carts holding a product, as
+     * {@link CartService#getCartIdsWithProduct(Long, long, int)} does.
+     *
+     * @param productId   the id of the product
+     * @param afterCartId the cart id after which the page starts
+     * @param limit       the maximum number of cart ids of the page
+     * @return a Mono emitting the cart ids of the page
+     */
+    public Mono<long[]> getCartIdsWithProduct(Long productId, long afterCartId, int limit) {
+        return Mono.fromSupplier(() -> cartService.getCartIdsWithProduct(productId, afterCartId, limit));
+    }
+
+    /**
+     * Counts the carts holding a product.
+     *
+     * @param productId the id of the product
+     * @return a Mono emitting the number of carts holding the product
+     */
+    public Mono<Integer> countCartsWithProduct(Long productId) {
+        return Mono.fromSupplier(() -> cartService.countCartsWithProduct(productId));
+    }
+
+    /**
+     * Adds or updates several products of the catalog at once, as {@link CartService#updateCatalog(List)}
+     * does. Building the next catalog snapshot copies the whole catalog, so it runs on the bounded
+     * elastic scheduler instead of an event loop.
+     *
+     * @param updates the updates of the products
+     * @return a Mono emitting the number of carts repriced
+     */
+    public Mono<Integer> updateCatalog(List<ProductUpdateDto> updates) {
+        return Mono.fromCallable(() -> cartService.updateCatalog(updates)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private <T> Mono<T> mutate(Callable<T> mutation) {
+        return Mono.fromCallable(mutation).subscribeOn(Schedulers.boundedElastic());
+    }
+}
@@ -0,0 +1,106 @@
+package com.onebox.ecommerce.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onebox.ecommerce.dto.ProductDto;
+import com.onebox.ecommerce.dto.ProductUpdateDto;
+import com.onebox.ecommerce.repository.ProductAvailableRepository;
+import com.onebox.ecommerce.service.CartService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@AutoConfigureMockMvc
+@SpringBootTest
+class AdminControllerIntegrationTest {
+
+    private static final String CARTS_URI = "/admin/products/{productId}/carts";
+    private static final String PRODUCTS_URI = "/admin/products";
+    private static final long PRODUCT_ID = 3L;
+    private static final long REPRICED_PRODUCT_ID = 6L;
+    private static final long NEW_PRODUCT_ID = 1000L;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private ProductAvailableRepository productAvailableRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    @DirtiesContext
+    @DisplayName("Verify that a bulk update publishes the products and reprices the carts holding them")
+    void should_PublishProductsAndRepriceCarts_When_CatalogIsUpdated() throws Exception {
+        Long cartId = cartService.createCart().getId();
+        cartService.updateProductsFromCart(cartId, List.of(new ProductDto(REPRICED_PRODUCT_ID, 2)));
+        int stock = productAvailableRepository.getProductById(REPRICED_PRODUCT_ID).getStock();
+        long price = productAvailableRepository.getPrice(REPRICED_PRODUCT_ID) + 100;
+
+        mockMvc.perform(put(PRODUCTS_URI).contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(
+                                new ProductUpdateDto(REPRICED_PRODUCT_ID, null, price, null),
+                                new ProductUpdateDto(NEW_PRODUCT_ID, "Fig", 90L, 5)))))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/cart/{cartId}/summary", cartId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.subtotal").value(2 * price));
+        mockMvc.perform(get("/products").param("after", Long.toString(NEW_PRODUCT_ID - 1)).param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(NEW_PRODUCT_ID))
+                .andExpect(jsonPath("$[0].description").value("Fig"))
+                .andExpect(jsonPath("$[0].price").value(90))
+                .andExpect(jsonPath("$[0].stock").value(5));
+        mockMvc.perform(get("/products").param("after", Long.toString(REPRICED_PRODUCT_ID - 1)).param("limit", "1"))
+                .andExpect(jsonPath("$[0].price").value(price))
+                .andExpect(jsonPath("$[0].stock").value(stock));
+    }
+
+    @Test
+    @DisplayName("Verify that a bulk update with a negative price is rejected")
+    void should_ReturnBadRequest_When_UpdateIsInvalid() throws Exception {
+        mockMvc.perform(put(PRODUCTS_URI).contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(
+                                new ProductUpdateDto(NEW_PRODUCT_ID + 1, "Lime", -1L, 1)))))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("Verify that the carts holding a product are paged with a cursor")
+    void should_PageCartsHoldingProduct_When_IsCalled() throws Exception {
+        Long firstCartId = cartService.createCart().getId();
+        Long secondCartId = cartService.createCart().getId();
+        cartService.updateProductsFromCart(firstCartId, List.of(new ProductDto(PRODUCT_ID, 1)));
+        cartService.updateProductsFromCart(secondCartId, List.of(new ProductDto(PRODUCT_ID, 1)));
+        long lowerCartId = Math.min(firstCartId, secondCartId);
+        long upperCartId = Math.max(firstCartId, secondCartId);
+
+        mockMvc.perform(get(CARTS_URI, PRODUCT_ID).param("after", Long.toString(lowerCartId - 1))
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0]").value(lowerCartId))
+                .andExpect(header().string(ProductAvailableController.NEXT_AFTER_HEADER, Long.toString(lowerCartId)));
+        mockMvc.perform(get(CARTS_URI, PRODUCT_ID).param("after", Long.toString(lowerCartId)).param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0]").value(upperCartId));
+    }
+}
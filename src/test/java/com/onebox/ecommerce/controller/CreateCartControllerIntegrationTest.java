@@ -1,5 +1,6 @@
 package com.onebox.ecommerce.controller;
 
+import com.jayway.jsonpath.JsonPath;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -7,7 +8,14 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -29,4 +37,34 @@ class CreateCartControllerIntegrationTest {
                 .andExpect(jsonPath("$.lastUpdated").exists());
     }
 
+    @Test
+    @DisplayName("Verify that a retried creation with the same idempotency key returns the same cart")
+    void should_ReturnSameCart_When_CreationIsRetriedWithSameKey() throws Exception {
+        String idempotencyKey = UUID.randomUUID().toString();
+        String body = mockMvc.perform(post(CREATE_CART_URI).header(IdempotencyCache.KEY_HEADER, idempotencyKey))
+                .andExpect(status().isCreated())
+                .andExpect(header().doesNotExist(IdempotencyCache.REPLAYED_HEADER))
+                .andReturn().getResponse().getContentAsString();
+
+        mockMvc.perform(post(CREATE_CART_URI).header(IdempotencyCache.KEY_HEADER, idempotencyKey))
+                .andExpect(status().isCreated())
+                .andExpect(header().string(IdempotencyCache.REPLAYED_HEADER, "true"))
+                .andExpect(content().json(body, true));
+    }
+
+    @Test
+    @DisplayName("Verify that a batch of carts is created with distinct ids and an invalid count is rejected")
+    void should_CreateCarts_When_BatchIsRequested() throws Exception {
+        mockMvc.perform(post(CREATE_CART_URI + "/batch").param("count", "3"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].products").isEmpty())
+                .andExpect(result -> assertThat(JsonPath.<List<Integer>>read(
+                        result.getResponse().getContentAsString(), "$[*].id")).doesNotHaveDuplicates());
+        mockMvc.perform(post(CREATE_CART_URI + "/batch").param("count", "0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post(CREATE_CART_URI + "/batch").param("count", "1001"))
+                .andExpect(status().isBadRequest());
+    }
+
 }
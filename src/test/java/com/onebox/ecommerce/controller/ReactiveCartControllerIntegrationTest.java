@@ -0,0 +1,167 @@
+package com.onebox.ecommerce.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.onebox.ecommerce.dto.LineChangeDto;
+import com.onebox.ecommerce.dto.ProductDto;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.main.web-application-type=reactive")
+class ReactiveCartControllerIntegrationTest {
+
+    private static final String CART_ID_URI = "/cart/{cartId}";
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Test
+    @DisplayName("Verify that the reactive stack creates, updates, retrieves and deletes a cart")
+    void should_ServeCartLifecycle_When_StackIsReactive() {
+        Long cartId = webTestClient.post().uri("/cart").exchange()
+                .expectStatus().isCreated()
+                .expectBody(CartId.class).returnResult().getResponseBody().getId();
+
+        webTestClient.put().uri(CART_ID_URI, cartId).bodyValue(List.of(new ProductDto(1L, 5))).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.products.1.description").isEqualTo("Apple")
+                .jsonPath("$.products.1.amount").isEqualTo(5);
+        webTestClient.patch().uri(CART_ID_URI, cartId).bodyValue(List.of(new LineChangeDto(1L, -2, null))).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.lines[0].amount").isEqualTo(3)
+                .jsonPath("$.version").isEqualTo(2);
+        webTestClient.get().uri(CART_ID_URI, cartId).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.id").isEqualTo(cartId);
+        webTestClient.delete().uri(CART_ID_URI, cartId).exchange()
+                .expectStatus().isNoContent();
+        webTestClient.get().uri(CART_ID_URI, cartId).exchange()
+                .expectStatus().isNotFound()
+                .expectBody().jsonPath("$.error").isEqualTo("Cart not found for the id: " + cartId);
+    }
+
+    @Test
+    @DisplayName("Verify that the reactive stack encodes the cart in CBOR when the client prefers it")
+    void should_ReturnCborCart_When_StackIsReactiveAndCborIsAccepted() throws IOException {
+        Long cartId = webTestClient.post().uri("/cart").exchange()
+                .expectStatus().isCreated()
+                .expectBody(CartId.class).returnResult().getResponseBody().getId();
+
+        byte[] cbor = webTestClient.put().uri(CART_ID_URI, cartId).accept(MediaType.APPLICATION_CBOR)
+                .bodyValue(List.of(new ProductDto(2L, 3))).exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+                .expectBody().returnResult().getResponseBody();
+        JsonNode cart = new ObjectMapper(new CBORFactory()).readTree(cbor);
+
+        assertThat(cart.get("id").asLong()).isEqualTo(cartId);
+        assertThat(cart.get("products").get("2").get("description").asText()).isEqualTo("Banana");
+        assertThat(cart.get("products").get("2").get("amount").asInt()).isEqualTo(3);
+        webTestClient.get().uri(CART_ID_URI, cartId).exchange()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON);
+    }
+
+    @Test
+    @DisplayName("Verify that the reactive stack replays the mutations retried with the same idempotency key")
+    void should_ReplayResponse_When_MutationIsRetriedWithSameKey() {
+        String createKey = UUID.randomUUID().toString();
+        Long cartId = webTestClient.post().uri("/cart").header(IdempotencyCache.KEY_HEADER, createKey).exchange()
+                .expectStatus().isCreated()
+                .expectBody(CartId.class).returnResult().getResponseBody().getId();
+        webTestClient.post().uri("/cart").header(IdempotencyCache.KEY_HEADER, createKey).exchange()
+                .expectStatus().isCreated()
+                .expectHeader().valueEquals(IdempotencyCache.REPLAYED_HEADER, "true")
+                .expectBody().jsonPath("$.id").isEqualTo(cartId);
+
+        String deleteKey = UUID.randomUUID().toString();
+        webTestClient.delete().uri(CART_ID_URI, cartId).header(IdempotencyCache.KEY_HEADER, deleteKey).exchange()
+                .expectStatus().isNoContent();
+        webTestClient.delete().uri(CART_ID_URI, cartId).header(IdempotencyCache.KEY_HEADER, deleteKey).exchange()
+                .expectStatus().isNoContent()
+                .expectHeader().valueEquals(IdempotencyCache.REPLAYED_HEADER, "true");
+        webTestClient.put().uri(CART_ID_URI, cartId).header(IdempotencyCache.KEY_HEADER, deleteKey)
+                .bodyValue(List.of(new ProductDto(1L, 1))).exchange()
+                .expectStatus().isEqualTo(422);
+    }
+
+    @Test
+    @DisplayName("Verify that the reactive stack creates carts in batches and retrieves several at once")
+    void should_ServeBatches_When_StackIsReactive() {
+        webTestClient.post().uri("/cart/batch?count=2").exchange()
+                .expectStatus().isCreated()
+                .expectBody().jsonPath("$.length()").isEqualTo(2);
+        Long cartId = webTestClient.post().uri("/cart").exchange()
+                .expectBody(CartId.class).returnResult().getResponseBody().getId();
+
+        webTestClient.get().uri("/cart?ids={ids}", cartId + ",-1").exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$[0].cart.id").isEqualTo(cartId)
+                .jsonPath("$[1].id").isEqualTo(-1)
+                .jsonPath("$[1].error").isEqualTo("Cart not found for the id: -1");
+        webTestClient.post().uri("/cart/batch?count=0").exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Verify that the reactive stack rejects invalid and out of stock updates like the servlet stack")
+    void should_ReturnBadRequest_When_UpdateIsInvalidOrOutOfStock() {
+        Long cartId = webTestClient.post().uri("/cart").exchange()
+                .expectBody(CartId.class).returnResult().getResponseBody().getId();
+
+        webTestClient.put().uri(CART_ID_URI, cartId).bodyValue(List.of(new ProductDto(1L, -1))).exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.put().uri(CART_ID_URI, cartId).bodyValue(List.of(new ProductDto(1L, Integer.MAX_VALUE)))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().jsonPath("$.error")
+                .value(message -> assertThat(message.toString()).startsWith("Product has only"));
+        webTestClient.put().uri(CART_ID_URI, cartId).bodyValue(List.of(new ProductDto(100L, 1))).exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    @DisplayName("Verify that the reactive stack pages the products and answers a matching ETag with 304")
+    void should_PageProductsWithEtag_When_StackIsReactive() {
+        String etag = webTestClient.get().uri("/products?limit=2").exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(ProductAvailableController.NEXT_AFTER_HEADER)
+                .expectBody().jsonPath("$.length()").isEqualTo(2)
+                .returnResult().getResponseHeaders().getETag();
+
+        webTestClient.get().uri("/products?limit=2").header(HttpHeaders.IF_NONE_MATCH, etag).exchange()
+                .expectStatus().isNotModified();
+        webTestClient.get().uri("/products").exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.VARY, HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+    }
+
+    /**
+     * The id of a cart read from a response.
+     */
+    static class CartId {
+        private Long id;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+    }
+}
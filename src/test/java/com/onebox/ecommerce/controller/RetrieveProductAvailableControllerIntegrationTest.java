@@ -1,15 +1,27 @@
 package com.onebox.ecommerce.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -36,4 +48,140 @@ class RetrieveProductAvailableControllerIntegrationTest {
                 .andExpect(jsonPath("$[1].description").value("Banana"))
                 .andExpect(jsonPath("$[1].stock").exists());
     }
+
+    @Test
+    @DisplayName("Verify that retrieves a page of available products after the given id")
+    void should_RetrieveProductsPage_When_AfterAndLimitAreGiven() throws Exception {
+
+        mockMvc.perform(get(PRODUCT_URI)
+                        .param("after", "2")
+                        .param("limit", "3")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-After", "5"))
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[0].id").value(3))
+                .andExpect(jsonPath("$[2].id").value(5));
+
+        mockMvc.perform(get(PRODUCT_URI)
+                        .param("after", "8")
+                        .param("limit", "3")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-After"))
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].id").value(9));
+    }
+
+    @Test
+    @DisplayName("Verify that the catalog is not sent again while its ETag matches")
+    void should_ReturnNotModified_When_EtagMatches() throws Exception {
+        String etag = mockMvc.perform(get(PRODUCT_URI))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get(PRODUCT_URI)
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+    }
+
+    @Test
+    @DisplayName("Verify that the catalog is compressed when the client accepts gzip")
+    void should_ReturnGzipCatalog_When_GzipIsAccepted() throws Exception {
+        byte[] plain = mockMvc.perform(get(PRODUCT_URI))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        byte[] compressed = mockMvc.perform(get(PRODUCT_URI)
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertThat(gunzip(compressed)).isEqualTo(new String(plain, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Verify that the catalog is only compressed when the quality of gzip is above zero")
+    void should_ReturnPlainCatalog_When_GzipIsRefused() throws Exception {
+        String plainEtag = mockMvc.perform(get(PRODUCT_URI)
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(header().string(HttpHeaders.VARY, containsString(HttpHeaders.ACCEPT_ENCODING)))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        String gzipEtag = mockMvc.perform(get(PRODUCT_URI)
+                        .header(HttpHeaders.ACCEPT_ENCODING, "x-gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "x-gzip"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        assertThat(gzipEtag).isNotEqualTo(plainEtag);
+        mockMvc.perform(get(PRODUCT_URI)
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                        .header(HttpHeaders.IF_NONE_MATCH, plainEtag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, gzipEtag));
+    }
+
+    @Test
+    @DisplayName("Verify that the products are encoded in CBOR when the client prefers it")
+    void should_ReturnCborCatalog_When_CborIsAccepted() throws Exception {
+        ObjectMapper jsonMapper = new ObjectMapper();
+        ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+        byte[] json = mockMvc.perform(get(PRODUCT_URI))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        byte[] cbor = mockMvc.perform(get(PRODUCT_URI)
+                        .header(HttpHeaders.ACCEPT, "application/cbor, application/json;q=0.5"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_CBOR_VALUE))
+                .andReturn().getResponse().getContentAsByteArray();
+        JsonNode page = cborMapper.readTree(mockMvc.perform(get(PRODUCT_URI)
+                        .param("limit", "2")
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_CBOR_VALUE))
+                .andReturn().getResponse().getContentAsByteArray());
+
+        assertThat(cbor.length).isLessThan(json.length);
+        assertThat(cborMapper.readTree(cbor)).isEqualTo(jsonMapper.readTree(json));
+        assertThat(page).hasSize(2);
+        assertThat(page.get(0).get("description").asText()).isEqualTo("Apple");
+    }
+
+    @Test
+    @DisplayName("Verify that the CBOR catalog has its own ETag and that a malformed Accept header gets JSON")
+    void should_ReturnJsonCatalog_When_AcceptIsMalformed() throws Exception {
+        String jsonEtag = mockMvc.perform(get(PRODUCT_URI)
+                        .header(HttpHeaders.ACCEPT, "json"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        String cborEtag = mockMvc.perform(get(PRODUCT_URI)
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        String pageEtag = mockMvc.perform(get(PRODUCT_URI)
+                        .param("limit", "2")
+                        .header(HttpHeaders.ACCEPT, "json"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.VARY, containsString(HttpHeaders.ACCEPT)))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        assertThat(cborEtag).isNotEqualTo(jsonEtag);
+        mockMvc.perform(get(PRODUCT_URI)
+                        .param("limit", "2")
+                        .accept(MediaType.APPLICATION_CBOR)
+                        .header(HttpHeaders.IF_NONE_MATCH, pageEtag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_CBOR_VALUE));
+    }
+
+    private static String gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
 }
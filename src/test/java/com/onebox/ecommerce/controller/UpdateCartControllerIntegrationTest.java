@@ -3,8 +3,10 @@ package com.onebox.ecommerce.controller;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.onebox.ecommerce.dto.LineChangeDto;
 import com.onebox.ecommerce.dto.ProductDto;
 import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.repository.ProductAvailableRepository;
 import com.onebox.ecommerce.service.CartService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -16,9 +18,12 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.List;
+import java.util.UUID;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -26,7 +31,9 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @SpringBootTest
 class UpdateCartControllerIntegrationTest {
 
+    private static final String CART_URI = "/cart";
     private static final String CART_ID_URI = "/cart/{cartId}";
+    private static final String CART_SUMMARY_URI = "/cart/{cartId}/summary";
     private static final String FIRST_PROD_DESC = "Apple";
     private static final String SECOND_PROD_DESC = "Banana";
 
@@ -36,6 +43,9 @@ class UpdateCartControllerIntegrationTest {
     @Autowired
     private CartService cartService;
 
+    @Autowired
+    private ProductAvailableRepository productAvailableRepository;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -73,6 +83,44 @@ class UpdateCartControllerIntegrationTest {
                 .andExpect(jsonPath("$.lastUpdated").exists());
     }
 
+    @Test
+    @DisplayName("Verify that several carts are retrieved at once and unknown ids are reported per item")
+    void should_RetrieveCartsById_When_SomeIdsAreUnknown() throws Exception {
+        long unknownId = Long.MAX_VALUE;
+
+        mockMvc.perform(get(CART_URI).param("ids", cart.getId() + "," + unknownId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].id").value(cart.getId()))
+                .andExpect(jsonPath("$[0].cart.products.1.amount").value(firstProduct.getAmount()))
+                .andExpect(jsonPath("$[0].error").doesNotExist())
+                .andExpect(jsonPath("$[1].id").value(unknownId))
+                .andExpect(jsonPath("$[1].cart").doesNotExist())
+                .andExpect(jsonPath("$[1].error").value("Cart not found for the id: " + unknownId));
+    }
+
+    @Test
+    @DisplayName("Verify that the totals of the cart follow its lines and are served without them")
+    void should_ReturnTotals_When_CartIsUpdated() throws Exception {
+        long firstPrice = productAvailableRepository.getPrice(firstProduct.getId());
+        long secondPrice = productAvailableRepository.getPrice(secondProduct.getId());
+        cartService.updateProductsFromCart(cart.getId(), List.of(new ProductDto(secondProduct.getId(), 0)));
+        cartService.updateProductsFromCart(cart.getId(), List.of(new ProductDto(secondProduct.getId(), 3)));
+
+        mockMvc.perform(get(CART_ID_URI, cart.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.lineCount").value(2))
+                .andExpect(jsonPath("$.itemCount").value(8))
+                .andExpect(jsonPath("$.subtotal").value(5 * firstPrice + 3 * secondPrice));
+        mockMvc.perform(get(CART_SUMMARY_URI, cart.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(cart.getId()))
+                .andExpect(jsonPath("$.lineCount").value(2))
+                .andExpect(jsonPath("$.itemCount").value(8))
+                .andExpect(jsonPath("$.subtotal").value(5 * firstPrice + 3 * secondPrice))
+                .andExpect(jsonPath("$.products").doesNotExist());
+    }
+
     @Test
     @DisplayName("Verify that can update products from cart")
     void should_UpdateProductsFromCart() throws Exception {
@@ -93,4 +141,76 @@ class UpdateCartControllerIntegrationTest {
                 .andExpect(jsonPath("$.products.2.amount").value(updatedProduct.getAmount()))
                 .andExpect(jsonPath("$.lastUpdated").exists());
     }
+
+    @Test
+    @DisplayName("Verify that a partial update returns only the changed lines and the new version of the cart")
+    void should_ReturnChangedLines_When_CartIsPatched() throws Exception {
+        long version = cartService.getCartById(cart.getId()).getVersion();
+        String body = objectMapper.writeValueAsString(List.of(
+                new LineChangeDto(firstProduct.getId(), 3, null),
+                new LineChangeDto(secondProduct.getId(), null, true),
+                new LineChangeDto(3L, -1, null)));
+        String idempotencyKey = UUID.randomUUID().toString();
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            mockMvc.perform(patch(CART_ID_URI, cart.getId())
+                            .header(IdempotencyCache.KEY_HEADER, idempotencyKey)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(body))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.id").value(cart.getId()))
+                    .andExpect(jsonPath("$.version").value(version + 1))
+                    .andExpect(jsonPath("$.lines.length()").value(2))
+                    .andExpect(jsonPath("$.lines[0].id").value(firstProduct.getId()))
+                    .andExpect(jsonPath("$.lines[0].amount").value(8))
+                    .andExpect(jsonPath("$.lines[1].id").value(secondProduct.getId()))
+                    .andExpect(jsonPath("$.lines[1].amount").value(0))
+                    .andExpect(jsonPath("$.itemCount").value(8));
+        }
+        mockMvc.perform(get(CART_ID_URI, cart.getId()))
+                .andExpect(jsonPath("$.version").value(version + 1))
+                .andExpect(jsonPath("$.products.1.amount").value(8))
+                .andExpect(jsonPath("$.products.2").doesNotExist());
+        mockMvc.perform(patch(CART_ID_URI, cart.getId())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(new LineChangeDto(1L, null, null)))))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("Verify that a retried update is answered from the idempotency cache without updating the cart")
+    void should_ReplayResponse_When_UpdateIsRetriedWithSameKey() throws Exception {
+        String idempotencyKey = UUID.randomUUID().toString();
+        String body = objectMapper.writeValueAsString(List.of(new ProductDto(secondProduct.getId(), 4)));
+
+        mockMvc.perform(put(CART_ID_URI, cart.getId())
+                        .header(IdempotencyCache.KEY_HEADER, idempotencyKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(IdempotencyCache.REPLAYED_HEADER))
+                .andExpect(jsonPath("$.products.2.amount").value(4));
+        cartService.updateProductsFromCart(cart.getId(), List.of(new ProductDto(secondProduct.getId(), 9)));
+
+        mockMvc.perform(put(CART_ID_URI, cart.getId())
+                        .header(IdempotencyCache.KEY_HEADER, idempotencyKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isOk())
+                .andExpect(header().string(IdempotencyCache.REPLAYED_HEADER, "true"))
+                .andExpect(jsonPath("$.products.2.amount").value(4));
+        mockMvc.perform(get(CART_ID_URI, cart.getId()))
+                .andExpect(jsonPath("$.products.2.amount").value(9));
+        mockMvc.perform(put(CART_ID_URI, cart.getId())
+                        .header(IdempotencyCache.KEY_HEADER, idempotencyKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(new ProductDto(secondProduct.getId(), 5)))))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(jsonPath("$.error").exists());
+        mockMvc.perform(put(CART_ID_URI, cart.getId())
+                        .header(IdempotencyCache.KEY_HEADER, idempotencyKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(new ProductDto(firstProduct.getId(), 35)))))
+                .andExpect(status().isUnprocessableEntity());
+    }
 }
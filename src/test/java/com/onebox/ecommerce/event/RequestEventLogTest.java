@@ -0,0 +1,51 @@
+package com.onebox.ecommerce.event;
+
+import com.onebox.ecommerce.config.EventProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class RequestEventLogTest {
+    private static final int EVENTS = 10_000;
+
+    private SimpleMeterRegistry meterRegistry;
+    private RequestEventLog eventLog;
+
+    @BeforeEach
+    void setUp() {
+        EventProperties properties = new EventProperties();
+        properties.setCapacity(1);
+        properties.setBatchSize(1);
+        properties.setSampleEvery(Integer.MAX_VALUE);
+        meterRegistry = new SimpleMeterRegistry();
+        eventLog = new RequestEventLog(properties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        eventLog.close();
+    }
+
+    @Test
+    @DisplayName("Verify that sampled events are skipped and events over the capacity are dropped without blocking")
+    void should_SampleAndDropEvents_When_QueueIsFull() {
+        for (int i = 0; i < EVENTS; i++) {
+            eventLog.publish(RequestEvent.Type.CART_RETRIEVED, i, 1);
+        }
+        long droppedWhileSampling = eventLog.getDroppedCount();
+        for (int i = 0; i < EVENTS; i++) {
+            eventLog.publish(RequestEvent.Type.CART_CREATED, i, 0);
+        }
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(droppedWhileSampling).as("Sampled events should not reach the queue").isZero();
+        softAssertions.assertThat(eventLog.getDroppedCount()).as("Events over the capacity should be dropped")
+                .isPositive();
+        softAssertions.assertThat(meterRegistry.get("ecommerce.events.dropped").functionCounter().count())
+                .isEqualTo((double) eventLog.getDroppedCount());
+        softAssertions.assertAll();
+    }
+}
@@ -0,0 +1,65 @@
+package com.onebox.ecommerce.model;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StockCounterTest {
+    private static final int THREADS = 16;
+    private static final int STOCK = 10_000;
+    private static final int ATTEMPTS_PER_THREAD = 1_000;
+
+    @Test
+    @DisplayName("Verify that concurrent reservations never oversell and take the whole stock")
+    void should_NeverOversell_When_ReservedConcurrently() throws Exception {
+        StockCounter stock = new StockCounter(STOCK);
+        AtomicInteger reserved = new AtomicInteger();
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int t = 0; t < THREADS; t++) {
+            int amount = t % 3 + 1;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < ATTEMPTS_PER_THREAD; i++) {
+                        if (stock.tryReserve(amount)) {
+                            reserved.addAndGet(amount);
+                            if (i % 4 == 0) {
+                                stock.release(amount);
+                                reserved.addAndGet(-amount);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).as("Executor should stop").isTrue();
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(failures).as("No thread should fail").isEmpty();
+        softAssertions.assertThat(reserved.get() + stock.get()).as("No unit should be lost or created")
+                .isEqualTo(STOCK);
+        softAssertions.assertThat(stock.get()).as("Stock should never be negative").isNotNegative();
+        softAssertions.assertThat(stock.tryReserve(stock.get() + 1)).as("Stock should not be oversold").isFalse();
+        softAssertions.assertThat(stock.get() == 0 || stock.tryReserve(stock.get()))
+                .as("The whole remaining stock should be reservable at once").isTrue();
+        softAssertions.assertThat(stock.get()).isZero();
+        softAssertions.assertAll();
+    }
+}
@@ -0,0 +1,93 @@
+package com.onebox.ecommerce.repository;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CartIdGeneratorTest {
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 20_000;
+
+    @Test
+    @DisplayName("Verify that concurrent threads and different nodes never get the same id")
+    void should_GenerateUniqueIds_When_CalledConcurrentlyOnSeveralNodes() throws Exception {
+        CartIdGenerator firstNode = new CartIdGenerator(1);
+        CartIdGenerator secondNode = new CartIdGenerator(2);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        Queue<Long> duplicates = new ConcurrentLinkedQueue<>();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int t = 0; t < THREADS; t++) {
+            CartIdGenerator generator = t % 2 == 0 ? firstNode : secondNode;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        long id = generator.nextId();
+                        if (!ids.add(id)) {
+                            duplicates.add(id);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).as("Executor should stop").isTrue();
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(duplicates).as("No id should be generated twice").isEmpty();
+        softAssertions.assertThat(ids).hasSize(THREADS * IDS_PER_THREAD);
+        softAssertions.assertThat(ids).as("Ids should be positive").allMatch(id -> id > 0);
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that ids generated after restoring a cart are greater than its id")
+    void should_GenerateGreaterIds_When_AdvancedPastRestoredId() {
+        CartIdGenerator generator = new CartIdGenerator(0);
+        generator.advancePast(5_000);
+        generator.advancePast(new CartIdGenerator(3).nextId() + 10_000);
+
+        assertThat(generator.nextId()).isEqualTo(5_001);
+    }
+
+    @Test
+    @DisplayName("Verify that the ids of the last node are exact in a JSON client that reads numbers as doubles")
+    void should_GenerateSafeIntegers_When_NodeIdIsTheLargest() {
+        long firstId = CartIdGenerator.MAX_NODE_ID << CartIdGenerator.SEQUENCE_BITS;
+        CartIdGenerator generator = new CartIdGenerator(CartIdGenerator.MAX_NODE_ID);
+        generator.advancePast(firstId + 1_000_000);
+
+        long id = generator.nextId();
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(CartIdGenerator.MAX_NODE_ID).isEqualTo(1023);
+        softAssertions.assertThat(id).isEqualTo(firstId + 1_000_001);
+        softAssertions.assertThat(id).isLessThanOrEqualTo((1L << 53) - 1);
+        softAssertions.assertThat((long) (double) id).as("Id should survive a double").isEqualTo(id);
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that throws an exception when the node id does not fit in the id")
+    void should_ThrowException_When_NodeIdIsOutOfRange() {
+        assertThatThrownBy(() -> new CartIdGenerator(CartIdGenerator.MAX_NODE_ID + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,274 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.dto.ProductDto;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.service.CartService;
+import com.onebox.ecommerce.service.ProductAvailableService;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CartJournalTest {
+
+    @TempDir
+    private Path directory;
+
+    private CartProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new CartProperties();
+        properties.getJournal().setEnabled(true);
+        properties.getJournal().setDirectory(directory);
+        properties.getJournal().setSegmentSize(DataSize.ofKilobytes(4));
+        properties.getJournal().setFsync(CartProperties.FsyncPolicy.PER_WRITE);
+    }
+
+    @Test
+    @DisplayName("Verify that the carts are restored from the journal after a crash")
+    void should_RestoreCarts_When_JournalIsReplayed() {
+        CartRepository cartRepository = new CartRepository(properties);
+        Cart cart = cartRepository.saveCart(new Cart(cartRepository.nextCartId()));
+        Cart deletedCart = cartRepository.saveCart(new Cart(cartRepository.nextCartId()));
+        for (int round = 1; round <= 100; round++) {
+            cartRepository.updateProduct(cart.getId(), new Product((long) round % 7, "Product", round));
+        }
+        cartRepository.updateProduct(cart.getId(), new Product(0L, "Product", 0));
+        cartRepository.deleteCart(deletedCart.getId());
+
+        CartRepository restoredRepository = new CartRepository(properties);
+
+        Cart restoredCart = restoredRepository.getCartById(cart.getId());
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(restoredCart.getProducts(Long::toString))
+                .usingRecursiveComparison()
+                .isEqualTo(cart.getProducts(Long::toString));
+        softAssertions.assertThat(restoredCart.getLastUpdatedMillis()).isEqualTo(cart.getLastUpdatedMillis());
+        softAssertions.assertThat(restoredCart.getAmountOf(0L)).isZero();
+        softAssertions.assertThatThrownBy(() -> restoredRepository.getCartById(deletedCart.getId()))
+                .isInstanceOf(IllegalArgumentException.class);
+        softAssertions.assertThat(restoredRepository.nextCartId()).as("Restored ids should not be generated again")
+                .isGreaterThan(deletedCart.getId());
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that the carts are restored from the snapshot plus the journal written after it")
+    void should_RestoreCarts_When_SnapshotAndJournalAreReplayed() throws IOException {
+        CartRepository cartRepository = new CartRepository(properties);
+        Cart cart = cartRepository.saveCart(new Cart(cartRepository.nextCartId()));
+        cartRepository.updateProduct(cart.getId(), new Product(1L, "Product", 5));
+        cartRepository.snapshot();
+        cartRepository.updateProduct(cart.getId(), new Product(2L, "Product", 3));
+        Cart cartAfterSnapshot = cartRepository.saveCart(new Cart(cartRepository.nextCartId()));
+
+        CartRepository restoredRepository = new CartRepository(properties);
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(restoredRepository.getCartById(cart.getId()).getAmountOf(1L)).isEqualTo(5);
+        softAssertions.assertThat(restoredRepository.getCartById(cart.getId()).getAmountOf(2L)).isEqualTo(3);
+        softAssertions.assertThat(restoredRepository.getCartById(cartAfterSnapshot.getId())).isNotNull();
+        softAssertions.assertThat(segmentCount()).as("Segments before the snapshot are deleted").isEqualTo(2);
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that carts saved and deleted while snapshots are written are restored as they were")
+    void should_RestoreCarts_When_SnapshotsRunConcurrentlyWithMutations() throws Exception {
+        properties.getJournal().setFsync(CartProperties.FsyncPolicy.GROUP);
+        CartRepository cartRepository = new CartRepository(properties);
+        int writers = 4;
+        int cartsPerWriter = 2000;
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+        CountDownLatch done = new CountDownLatch(writers);
+
+        for (int t = 0; t < writers; t++) {
+            executor.execute(() -> {
+                try {
+                    for (int i = 0; i < cartsPerWriter; i++) {
+                        Cart cart = cartRepository.saveCart(new Cart(cartRepository.nextCartId()));
+                        if (i % 2 == 0) {
+                            cartRepository.deleteCart(cart.getId());
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        executor.execute(() -> {
+            try {
+                while (running.get()) {
+                    cartRepository.snapshot();
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+
+        assertThat(done.await(1, TimeUnit.MINUTES)).as("Writers should finish").isTrue();
+        running.set(false);
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).as("Executor should stop").isTrue();
+
+        Set<Long> liveCartIds = new HashSet<>();
+        cartRepository.forEachCart(cart -> liveCartIds.add(cart.getId()));
+        Set<Long> restoredCartIds = new HashSet<>();
+        new CartRepository(properties).forEachCart(cart -> restoredCartIds.add(cart.getId()));
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(failures).as("No thread should fail").isEmpty();
+        softAssertions.assertThat(liveCartIds).hasSize(writers * cartsPerWriter / 2);
+        softAssertions.assertThat(restoredCartIds).as("No cart should be lost or brought back")
+                .isEqualTo(liveCartIds);
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that a torn record at the end of the journal is ignored")
+    void should_IgnoreTornRecord_When_JournalIsReplayed() throws IOException {
+        CartRepository cartRepository = new CartRepository(properties);
+        Cart cart = cartRepository.saveCart(new Cart(cartRepository.nextCartId()));
+        cartRepository.updateProduct(cart.getId(), new Product(1L, "Product", 5));
+        cartRepository.updateProduct(cart.getId(), new Product(1L, "Product", 9));
+
+        tearLastRecord();
+
+        CartRepository restoredRepository = new CartRepository(properties);
+
+        assertThat(restoredRepository.getCartById(cart.getId()).getAmountOf(1L)).isEqualTo(5);
+    }
+
+    @Test
+    @DisplayName("Verify that the mutations written after a crash are restored on every later restart")
+    void should_RestoreMutationsAfterCrash_When_RestartedTwice() throws IOException {
+        CartRepository cartRepository = new CartRepository(properties);
+        Cart cart = cartRepository.saveCart(new Cart(cartRepository.nextCartId()));
+        cartRepository.updateProduct(cart.getId(), new Product(1L, "Product", 5));
+        cartRepository.updateProduct(cart.getId(), new Product(1L, "Product", 9));
+        tearLastRecord();
+
+        CartRepository restartedRepository = new CartRepository(properties);
+        restartedRepository.updateProduct(cart.getId(), new Product(1L, "Product", 2));
+        Cart cartAfterCrash = restartedRepository.saveCart(new Cart(restartedRepository.nextCartId()));
+
+        CartRepository restoredRepository = new CartRepository(properties);
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(restoredRepository.getCartById(cart.getId()).getAmountOf(1L)).isEqualTo(2);
+        softAssertions.assertThat(restoredRepository.findCartById(cartAfterCrash.getId())).isPresent();
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that an update that can not be journaled leaves the cart and the stock unchanged")
+    void should_KeepCartAndStock_When_UpdateCanNotBeJournaled() {
+        properties.getJournal().setSegmentSize(DataSize.ofBytes(64));
+        CartRepository cartRepository = new CartRepository(properties);
+        ProductAvailableRepository productAvailableRepository = new ProductAvailableRepository();
+        CartService cartService = new CartService(cartRepository,
+                new ProductAvailableService(productAvailableRepository));
+        Long cartId = cartService.createCart().getId();
+        cartService.updateProductsFromCart(cartId, List.of(new ProductDto(1L, 2)));
+        long version = cartRepository.getCartById(cartId).getVersion();
+        int firstStock = productAvailableRepository.getProductById(1L).getStock();
+        int secondStock = productAvailableRepository.getProductById(2L).getStock();
+        int thirdStock = productAvailableRepository.getProductById(3L).getStock();
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThatThrownBy(() -> cartService.updateProductsFromCart(cartId,
+                        List.of(new ProductDto(1L, 0), new ProductDto(2L, 1), new ProductDto(3L, 1))))
+                .as("Three changed lines do not fit in a segment")
+                .isInstanceOf(IllegalStateException.class);
+        Cart cart = cartRepository.getCartById(cartId);
+        softAssertions.assertThat(cart.getAmountOf(1L)).isEqualTo(2);
+        softAssertions.assertThat(cart.getAmountOf(2L)).isZero();
+        softAssertions.assertThat(cart.getVersion()).isEqualTo(version);
+        softAssertions.assertThat(productAvailableRepository.getProductById(1L).getStock()).isEqualTo(firstStock);
+        softAssertions.assertThat(productAvailableRepository.getProductById(2L).getStock()).isEqualTo(secondStock);
+        softAssertions.assertThat(productAvailableRepository.getProductById(3L).getStock()).isEqualTo(thirdStock);
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that the carts evicted while restoring are neither restored nor reserved again later")
+    void should_ForgetEvictedCarts_When_RestoredWithSmallerBound() {
+        CartRepository cartRepository = new CartRepository(properties);
+        for (int i = 0; i < 5; i++) {
+            Cart cart = cartRepository.saveCart(new Cart(cartRepository.nextCartId()));
+            cartRepository.updateProduct(cart.getId(), new Product(1L, "Product", 2));
+        }
+        properties.setMaxCarts(2);
+        Set<Long> keptIds = new HashSet<>();
+        new CartRepository(properties).forEachCart(cart -> keptIds.add(cart.getId()));
+        properties.setMaxCarts(0);
+
+        CartRepository restoredRepository = new CartRepository(properties);
+        ProductAvailableRepository productAvailableRepository = new ProductAvailableRepository();
+        int stock = productAvailableRepository.getProductById(1L).getStock();
+        new CartService(restoredRepository, new ProductAvailableService(productAvailableRepository))
+                .reserveRestoredStock();
+
+        Set<Long> restoredIds = new HashSet<>();
+        restoredRepository.forEachCart(cart -> restoredIds.add(cart.getId()));
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(keptIds).hasSizeLessThanOrEqualTo(2);
+        softAssertions.assertThat(restoredIds).isEqualTo(keptIds);
+        softAssertions.assertThat(productAvailableRepository.getProductById(1L).getStock())
+                .isEqualTo(stock - 2 * keptIds.size());
+        softAssertions.assertAll();
+    }
+
+    private void tearLastRecord() throws IOException {
+        Path segment = lastSegment();
+        byte[] content = Files.readAllBytes(segment);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        int end = 0;
+        while (buffer.getInt(end) > 0) {
+            end += Integer.BYTES * 2 + buffer.getInt(end);
+        }
+        content[end - 1] ^= 0x7f;
+        Files.write(segment, content);
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log"))
+                    .max(Path::compareTo)
+                    .orElseThrow();
+        }
+    }
+}
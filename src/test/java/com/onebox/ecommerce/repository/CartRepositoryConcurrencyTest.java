@@ -0,0 +1,172 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.Product;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CartRepositoryConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int CARTS = 50;
+    private static final int PRODUCTS_PER_THREAD = 20;
+    private static final int ROUNDS = 20;
+
+    private CartRepository cartRepository;
+    private List<Long> cartIds;
+
+    @BeforeEach
+    void setUp() {
+        cartRepository = new CartRepository();
+        cartIds = new ArrayList<>();
+        for (int i = 0; i < CARTS; i++) {
+            cartIds.add(cartRepository.saveCart(new Cart(cartRepository.nextCartId())).getId());
+        }
+    }
+
+    @Test
+    @DisplayName("Verify that concurrent updates, reads and sweeps do not lose products")
+    void should_KeepEveryProduct_When_UpdatedConcurrently() throws Exception {
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 2);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch writers = new CountDownLatch(THREADS);
+
+        for (int t = 0; t < THREADS; t++) {
+            long firstProductId = (long) t * PRODUCTS_PER_THREAD;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int round = 1; round <= ROUNDS; round++) {
+                        for (Long cartId : cartIds) {
+                            for (long p = firstProductId; p < firstProductId + PRODUCTS_PER_THREAD; p++) {
+                                cartRepository.updateProduct(cartId, new Product(p, "Product " + p, round));
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                } finally {
+                    writers.countDown();
+                }
+            });
+        }
+        executor.execute(() -> runUntilStopped(running, failures, cartRepository::deleteInactiveCarts));
+        executor.execute(() -> runUntilStopped(running, failures, () -> cartIds.forEach(cartId ->
+                cartRepository.getCartById(cartId).getProducts(Long::toString))));
+
+        start.countDown();
+        assertThat(writers.await(1, TimeUnit.MINUTES)).as("Writers should finish").isTrue();
+        running.set(false);
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).as("Executor should stop").isTrue();
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(failures).as("No thread should fail").isEmpty();
+        for (Long cartId : cartIds) {
+            Cart cart = cartRepository.getCartById(cartId);
+            softAssertions.assertThat(cart.getProducts(Long::toString)).as("Cart %s should keep every product", cartId)
+                    .hasSize(THREADS * PRODUCTS_PER_THREAD);
+            softAssertions.assertThat(cart.getProducts(Long::toString).values())
+                    .as("Cart %s should keep last amounts", cartId)
+                    .allMatch(product -> product.getAmount() == ROUNDS);
+        }
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that an update racing with the sweep is never lost on an inactive cart")
+    void should_NotLoseUpdate_When_SweepRacesWithUpdate() throws Exception {
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch start = new CountDownLatch(1);
+        cartIds.forEach(cartId -> {
+            Cart cart = cartRepository.getCartById(cartId);
+            cart.setLastUpdated(LocalDateTime.now().minusMinutes(12));
+            cartRepository.saveCart(cart);
+        });
+
+        executor.execute(() -> {
+            try {
+                start.await();
+                cartRepository.deleteInactiveCarts();
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        Queue<Long> updated = new ConcurrentLinkedQueue<>();
+        executor.execute(() -> {
+            try {
+                start.await();
+                for (Long cartId : cartIds) {
+                    try {
+                        cartRepository.updateProduct(cartId, new Product(1L, "Apple", 1));
+                        updated.add(cartId);
+                    } catch (IllegalArgumentException e) {
+                        // The sweep removed the cart first, which is a valid outcome
+                    }
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).as("Executor should stop").isTrue();
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(failures).as("No thread should fail").isEmpty();
+        for (Long cartId : updated) {
+            softAssertions.assertThatCode(() -> cartRepository.getCartById(cartId))
+                    .as("Updated cart %s should survive the sweep", cartId).doesNotThrowAnyException();
+        }
+        softAssertions.assertAll();
+    }
+
+    private static void runUntilStopped(AtomicBoolean running, Queue<Throwable> failures, Runnable action) {
+        try {
+            while (running.get()) {
+                action.run();
+            }
+        } catch (Throwable e) {
+            failures.add(e);
+        }
+    }
+
+    @Test
+    @DisplayName("Verify that a cart touched after it was scheduled is kept by the sweep and expires later")
+    void should_ExpireTouchedCart_When_ItsLaterDeadlineHasPassed() {
+        Long cartId = cartIds.get(0);
+        Cart cart = cartRepository.getCartById(cartId);
+        cart.setLastUpdated(LocalDateTime.now().minusMinutes(12));
+        cartRepository.saveCart(cart);
+        for (int i = 1; i <= 100; i++) {
+            cartRepository.updateProduct(cartId, new Product(1L, "Apple", i));
+        }
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(cartRepository.deleteInactiveCarts()).as("Touched cart should be kept").isEmpty();
+        cart.setLastUpdated(LocalDateTime.now().minusMinutes(12));
+        cartRepository.saveCart(cart);
+        softAssertions.assertThat(cartRepository.deleteInactiveCarts()).extracting(Cart::getId)
+                .containsExactly(cartId);
+        softAssertions.assertThat(cartRepository.deleteInactiveCarts()).isEmpty();
+        softAssertions.assertAll();
+    }
+}
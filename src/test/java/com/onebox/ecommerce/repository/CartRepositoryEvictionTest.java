@@ -0,0 +1,108 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.config.CartProperties;
+import com.onebox.ecommerce.dto.ProductDto;
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.service.CartService;
+import com.onebox.ecommerce.service.ProductAvailableService;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CartRepositoryEvictionTest {
+    private static final int MAX_CARTS = 100;
+    private static final int CARTS = 1000;
+
+    private CartProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new CartProperties();
+        properties.setMaxCarts(MAX_CARTS);
+    }
+
+    @Test
+    @DisplayName("Verify that carts over the budget are evicted and counted apart from expired carts")
+    void should_EvictCarts_When_MaxCartsIsReached() {
+        CartRepository cartRepository = new CartRepository(properties);
+        for (int i = 0; i < CARTS; i++) {
+            cartRepository.saveCart(new Cart(cartRepository.nextCartId()));
+        }
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(countCarts(cartRepository)).as("Store should respect the budget")
+                .isLessThanOrEqualTo(MAX_CARTS);
+        softAssertions.assertThat(cartRepository.getEvictedCount()).isEqualTo(CARTS - countCarts(cartRepository));
+        softAssertions.assertThat(cartRepository.getExpiredCount()).isZero();
+        softAssertions.assertThat(cartRepository.drainEvictedCarts()).hasSize((int) cartRepository.getEvictedCount());
+        softAssertions.assertThat(cartRepository.drainEvictedCarts()).as("Evicted carts are drained once").isEmpty();
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that a frequently used cart is kept while new carts are evicted")
+    void should_KeepFrequentlyUsedCart_When_MaxCartsIsReached() {
+        CartRepository cartRepository = new CartRepository(properties);
+        Long hotCartId = cartRepository.saveCart(new Cart(cartRepository.nextCartId())).getId();
+        for (int i = 0; i < CARTS; i++) {
+            cartRepository.saveCart(new Cart(cartRepository.nextCartId()));
+            cartRepository.getCartById(hotCartId);
+            cartRepository.updateProduct(hotCartId, new Product(1L, "Apple", i % 5 + 1));
+        }
+
+        assertThat(cartRepository.getCartById(hotCartId).getAmountOf(1L)).isPositive();
+    }
+
+    @Test
+    @DisplayName("Verify that the lines of the carts count against the memory budget")
+    void should_EvictCarts_When_MaxMemoryIsReached() {
+        properties.setMaxCarts(0);
+        properties.setMaxMemory(DataSize.ofKilobytes(64));
+        CartRepository cartRepository = new CartRepository(properties);
+        for (int i = 0; i < CARTS; i++) {
+            Long cartId = cartRepository.saveCart(new Cart(cartRepository.nextCartId())).getId();
+            cartRepository.updateCart(cartId, cart -> {
+                for (long productId = 1; productId <= 20; productId++) {
+                    cart.putProduct(productId, 1);
+                }
+            });
+        }
+
+        assertThat(cartRepository.getEvictedCount()).as("Lines should count against the budget")
+                .isGreaterThanOrEqualTo(CARTS - DataSize.ofKilobytes(64).toBytes() / 400);
+    }
+
+    @Test
+    @DisplayName("Verify that the stock held by an evicted cart is released")
+    void should_ReleaseStock_When_CartIsEvicted() {
+        properties.setMaxCarts(5);
+        CartRepository cartRepository = new CartRepository(properties);
+        ProductAvailableRepository productAvailableRepository = new ProductAvailableRepository();
+        CartService cartService = new CartService(cartRepository,
+                new ProductAvailableService(productAvailableRepository));
+        int stock = productAvailableRepository.getProductById(1L).getStock();
+
+        for (int i = 0; i < 10; i++) {
+            Long cartId = cartService.createCart().getId();
+            cartService.updateProductsFromCart(cartId, List.of(new ProductDto(1L, 3)));
+        }
+        cartService.deleteInactiveCarts();
+
+        int held = countCarts(cartRepository) * 3;
+        assertThat(productAvailableRepository.getProductById(1L).getStock()).isEqualTo(stock - held);
+    }
+
+    private static int countCarts(CartRepository cartRepository) {
+        AtomicInteger count = new AtomicInteger();
+        cartRepository.forEachCart(cart -> count.incrementAndGet());
+        return count.get();
+    }
+}
@@ -0,0 +1,52 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.model.ProductAvailable;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+class ProductAvailableRepositoryTest {
+
+    @Test
+    @DisplayName("Verify that a batch of catalog updates that fails partway changes neither the catalog nor the stock")
+    void should_KeepCatalogAndStock_When_BatchFailsPartway() {
+        ProductAvailableRepository productAvailableRepository = new ProductAvailableRepository();
+        ProductAvailable first = productAvailableRepository.getProductById(1L);
+        int firstStock = first.getStock();
+        long catalogVersion = productAvailableRepository.getCatalogVersion();
+        Map<Long, UnaryOperator<ProductAvailable>> updates = new LinkedHashMap<>();
+        updates.put(1L, current -> current.withDetails("Green apple", current.getPrice()));
+        updates.put(2L, current -> {
+            throw new IllegalStateException("Update failed");
+        });
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThatThrownBy(() -> productAvailableRepository.updateProducts(updates,
+                        Map.of(1L, firstStock + 10, 2L, 0)))
+                .isInstanceOf(IllegalStateException.class);
+        softAssertions.assertThat(productAvailableRepository.getProductById(1L)).isSameAs(first);
+        softAssertions.assertThat(first.getStock()).as("Stock should not be replaced").isEqualTo(firstStock);
+        softAssertions.assertThat(productAvailableRepository.getCatalogVersion()).isEqualTo(catalogVersion);
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that the stock of an updated product is replaced when the catalog is published")
+    void should_ReplaceStock_When_BatchIsPublished() {
+        ProductAvailableRepository productAvailableRepository = new ProductAvailableRepository();
+        ProductAvailable previous = productAvailableRepository.getProductById(1L);
+        Map<Long, UnaryOperator<ProductAvailable>> updates = new LinkedHashMap<>();
+        updates.put(1L, current -> current.withDetails(current.getDescription(), current.getPrice()));
+
+        productAvailableRepository.updateProducts(updates, Map.of(1L, 10));
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(productAvailableRepository.getProductById(1L).getStock()).isEqualTo(10);
+        softAssertions.assertThat(previous.getStock()).as("Both snapshots share the stock").isEqualTo(10);
+        softAssertions.assertAll();
+    }
+}
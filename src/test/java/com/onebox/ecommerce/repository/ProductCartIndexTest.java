@@ -0,0 +1,82 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.model.Cart;
+import com.onebox.ecommerce.model.Product;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+class ProductCartIndexTest {
+    private static final long PRODUCT_ID = 7L;
+
+    @Test
+    @DisplayName("Verify that the carts holding a product are paged in order while carts are added and removed")
+    void should_PageCartsInOrder_When_CartsAreAddedAndRemoved() {
+        ProductCartIndex index = new ProductCartIndex();
+        Cart.Lines lines = Cart.Lines.of(new long[]{PRODUCT_ID}, new int[]{1});
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            long cartId = random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                index.removeCart(cartId, lines);
+                expected.remove(cartId);
+            } else {
+                index.addCart(cartId, lines);
+                expected.add(cartId);
+            }
+        }
+
+        List<Long> paged = new ArrayList<>();
+        long after = Long.MIN_VALUE;
+        long[] page;
+        do {
+            page = index.page(PRODUCT_ID, after, 100);
+            for (long cartId : page) {
+                paged.add(cartId);
+            }
+            after = page.length > 0 ? page[page.length - 1] : after;
+        } while (page.length == 100);
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(paged).containsExactlyElementsOf(expected);
+        softAssertions.assertThat(index.count(PRODUCT_ID)).isEqualTo(expected.size());
+        softAssertions.assertThat(index.page(PRODUCT_ID, expected.first(), 3))
+                .containsExactly(expected.stream().skip(1).limit(3).mapToLong(Long::longValue).toArray());
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that the index follows the updates, deletions and expiry of the carts")
+    void should_UpdateIndex_When_CartsChange() {
+        CartRepository cartRepository = new CartRepository();
+        long first = cartRepository.saveCart(new Cart(cartRepository.nextCartId())).getId();
+        long second = cartRepository.saveCart(new Cart(cartRepository.nextCartId())).getId();
+        long third = cartRepository.saveCart(new Cart(cartRepository.nextCartId())).getId();
+        cartRepository.updateProduct(first, new Product(PRODUCT_ID, "Kiwi", 1));
+        cartRepository.updateProduct(second, new Product(PRODUCT_ID, "Kiwi", 2));
+        cartRepository.updateProduct(third, new Product(PRODUCT_ID, "Kiwi", 3));
+        cartRepository.updateProduct(third, new Product(8L, "Lime", 1));
+
+        cartRepository.updateProduct(first, new Product(PRODUCT_ID, "Kiwi", 0));
+        cartRepository.deleteCart(second);
+        Cart inactiveCart = cartRepository.getCartById(third);
+        inactiveCart.setLastUpdated(LocalDateTime.now().minusMinutes(12));
+        cartRepository.saveCart(inactiveCart);
+        long[] beforeExpiry = cartRepository.findCartIdsWithProduct(PRODUCT_ID, Long.MIN_VALUE, 10);
+        cartRepository.deleteInactiveCarts();
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(beforeExpiry).containsExactly(third);
+        softAssertions.assertThat(cartRepository.findCartIdsWithProduct(PRODUCT_ID, Long.MIN_VALUE, 10)).isEmpty();
+        softAssertions.assertThat(cartRepository.countCartsWithProduct(8L)).isZero();
+        softAssertions.assertThat(cartRepository.countCartsWithProduct(PRODUCT_ID)).isZero();
+        softAssertions.assertAll();
+    }
+}
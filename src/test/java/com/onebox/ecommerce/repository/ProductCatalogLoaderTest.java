@@ -0,0 +1,114 @@
+package com.onebox.ecommerce.repository;
+
+import com.onebox.ecommerce.config.CatalogProperties;
+import com.onebox.ecommerce.model.ProductAvailable;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProductCatalogLoaderTest {
+    private static final int PRODUCTS = 20_000;
+
+    @TempDir
+    private Path directory;
+
+    private CatalogProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new CatalogProperties();
+        properties.setParallelism(4);
+    }
+
+    @Test
+    @DisplayName("Verify that a CSV catalog is loaded and indexed in several batches")
+    void should_LoadCatalog_When_SourceIsCsv() throws IOException {
+        Path source = directory.resolve("catalog.csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(source)) {
+            writer.write("id,description,stock\n");
+            writer.write("1,\"Apple, \"\"Golden\"\"\",5\n");
+            for (int id = 2; id <= PRODUCTS; id++) {
+                writer.write(id + ",Product " + id + "," + id % 3 + "\n");
+            }
+        }
+        properties.setSource(source);
+
+        ProductAvailableRepository repository = new ProductAvailableRepository(properties);
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(repository.getProductById(1L).getDescription()).isEqualTo("Apple, \"Golden\"");
+        softAssertions.assertThat(repository.getProductById((long) PRODUCTS).getStock()).isEqualTo(PRODUCTS % 3);
+        softAssertions.assertThat(repository.getProducts())
+                .as("Products without stock should not be available")
+                .hasSize(1 + (int) IntStream.rangeClosed(2, PRODUCTS).filter(id -> id % 3 > 0).count());
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that an NDJSON catalog is written to a snapshot which is loaded on the next startup")
+    void should_LoadSnapshot_When_SnapshotIsNewerThanSource() throws IOException {
+        Path source = directory.resolve("catalog.ndjson");
+        Files.write(source, List.of(
+                "{\"id\":7,\"description\":\"Kiwi\",\"stock\":70,\"price\":45,\"category\":{\"name\":\"fruit\"}}",
+                "", "{\"id\":8,\"description\":null,\"stock\":0}"));
+        properties.setSource(source);
+        properties.setSnapshot(directory.resolve("snapshot").resolve("catalog.bin"));
+        new ProductAvailableRepository(properties);
+
+        Files.write(source, List.of("{\"id\":9,\"description\":\"Changed\",\"stock\":1}"));
+        Files.setLastModifiedTime(source, FileTime.fromMillis(0));
+        ProductAvailableRepository repository = new ProductAvailableRepository(properties);
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(repository.getProductById(7L).getDescription()).isEqualTo("Kiwi");
+        softAssertions.assertThat(repository.getProductById(7L).getStock()).isEqualTo(70);
+        softAssertions.assertThat(repository.getPrice(7L)).as("Price should be kept in the snapshot").isEqualTo(45L);
+        softAssertions.assertThat(repository.getProductById(8L).getDescription()).isNull();
+        softAssertions.assertThatThrownBy(() -> repository.getProductById(9L))
+                .as("Older source should not be loaded").isInstanceOf(IllegalArgumentException.class);
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that the optional price column of a CSV line is parsed")
+    void should_ParsePrice_When_CsvLineHasPriceColumn() {
+        ProductAvailable priced = ProductCatalogLoader.parseLine("1,Apple,10,125", 2);
+        ProductAvailable quoted = ProductCatalogLoader.parseLine("2,\"Pack, 6\",3", 3);
+        ProductAvailable unpriced = ProductCatalogLoader.parseLine("3,Pear,7", 4);
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(priced.getDescription()).isEqualTo("Apple");
+        softAssertions.assertThat(priced.getStock()).isEqualTo(10);
+        softAssertions.assertThat(priced.getPrice()).isEqualTo(125L);
+        softAssertions.assertThat(quoted.getDescription()).isEqualTo("Pack, 6");
+        softAssertions.assertThat(quoted.getStock()).isEqualTo(3);
+        softAssertions.assertThat(quoted.getPrice()).isZero();
+        softAssertions.assertThat(unpriced.getStock()).isEqualTo(7);
+        softAssertions.assertThat(unpriced.getPrice()).isZero();
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that loading fails with the line number when a line is invalid")
+    void should_ThrowException_When_LineIsInvalid() throws IOException {
+        Path source = directory.resolve("catalog.csv");
+        Files.write(source, List.of("1,Apple,10", "2,Banana"));
+        properties.setSource(source);
+
+        assertThatThrownBy(() -> new ProductAvailableRepository(properties))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("line 2");
+    }
+}
@@ -1,8 +1,11 @@
 package com.onebox.ecommerce.service;
 
 import com.onebox.ecommerce.dto.ProductDto;
+import com.onebox.ecommerce.exception.NotFoundException;
+import com.onebox.ecommerce.exception.OutOfStockException;
 import com.onebox.ecommerce.model.Cart;
 import com.onebox.ecommerce.model.Product;
+import com.onebox.ecommerce.model.ProductAvailable;
 import com.onebox.ecommerce.repository.CartRepository;
 import com.onebox.ecommerce.repository.ProductAvailableRepository;
 import org.assertj.core.api.SoftAssertions;
@@ -22,14 +25,16 @@ class CartServiceIntegrationTest {
     private static final String PRODUCT_DESC = "Apple";
 
     private CartService cartService;
+    private CartRepository cartRepository;
+    private ProductAvailableRepository productAvailableRepository;
 
     private Cart cart;
     private Long cartId;
 
     @BeforeEach
     void setUp() {
-        CartRepository cartRepository = new CartRepository();
-        ProductAvailableRepository productAvailableRepository = new ProductAvailableRepository();
+        cartRepository = new CartRepository();
+        productAvailableRepository = new ProductAvailableRepository();
         ProductAvailableService productAvailableService = new ProductAvailableService(productAvailableRepository);
         cartService = new CartService(cartRepository, productAvailableService);
 
@@ -43,7 +48,8 @@ class CartServiceIntegrationTest {
         SoftAssertions softAssertions = new SoftAssertions();
         softAssertions.assertThat(cart).as("Cart should not be null").isNotNull();
         softAssertions.assertThat(cart.getId()).as("CartId should not be null").isNotNull();
-        softAssertions.assertThat(cart.getProducts()).as("Cart should be empty").isEqualTo(Map.of());
+        softAssertions.assertThat(cart.getProducts(productAvailableRepository::getDescription))
+                .as("Cart should be empty").isEqualTo(Map.of());
         softAssertions.assertThat(cart.getLastUpdated()).as("Cart should have LastUpdated")
                 .isBetween(LocalDateTime.now().minusSeconds(10), LocalDateTime.now());
         softAssertions.assertAll();
@@ -54,7 +60,7 @@ class CartServiceIntegrationTest {
     void should_AddProductToCart_When_IsCalled() {
         cartService.updateProductsFromCart(cartId, getListOfProducts());
 
-        Map<Long, Product> actualProducts = cartService.getCartById(cartId).getProducts();
+        Map<Long, Product> actualProducts = productsOf(cartId);
         SoftAssertions softAssertions = new SoftAssertions();
         softAssertions.assertThat(actualProducts.size()).as("Should be 1 product").isEqualTo(1);
         softAssertions.assertThat(actualProducts.get(PRODUCT_ID).getId())
@@ -74,7 +80,7 @@ class CartServiceIntegrationTest {
         List<ProductDto> productsToUpdate = List.of(new ProductDto(PRODUCT_ID, 5));
         cartService.updateProductsFromCart(cartId, productsToUpdate);
 
-        Map<Long, Product> actualProducts = cartService.getCartById(cartId).getProducts();
+        Map<Long, Product> actualProducts = productsOf(cartId);
         SoftAssertions softAssertions = new SoftAssertions();
         softAssertions.assertThat(actualProducts.size()).as("Should be 1 product").isEqualTo(1);
         softAssertions.assertThat(actualProducts.get(PRODUCT_ID).getId())
@@ -86,6 +92,20 @@ class CartServiceIntegrationTest {
         softAssertions.assertAll();
     }
 
+    @Test
+    @DisplayName("Verify that an updated cart is returned as it was right after its own update")
+    void should_ReturnSnapshot_When_CartIsUpdatedAgain() {
+        Cart updated = cartService.updateProductsFromCart(cartId, getListOfProducts());
+
+        cartService.updateProductsFromCart(cartId, List.of(new ProductDto(PRODUCT_ID, 5)));
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(updated.getAmountOf(PRODUCT_ID)).as("Amount should not change").isEqualTo(2);
+        softAssertions.assertThat(cartService.getCartById(cartId).getAmountOf(PRODUCT_ID))
+                .as("Amount should be equal").isEqualTo(5);
+        softAssertions.assertAll();
+    }
+
     @Test
     @DisplayName("Verify that a product is deleted from the cart correctly")
     void should_DeleteProductFromCart_When_IsCalled() {
@@ -94,7 +114,7 @@ class CartServiceIntegrationTest {
         List<ProductDto> productsToUpdate = List.of(new ProductDto(PRODUCT_ID, 0));
         cartService.updateProductsFromCart(cartId, productsToUpdate);
 
-        assertThat(cartService.getCartById(cartId).getProducts()).as("Should be empty").isEqualTo(Map.of());
+        assertThat(productsOf(cartId)).as("Should be empty").isEqualTo(Map.of());
     }
 
     @Test
@@ -126,11 +146,31 @@ class CartServiceIntegrationTest {
                 .hasMessageContaining("Cart not found for the id: " + cartId);
     }
 
+    @Test
+    @DisplayName("Verify that a missing cart is an empty lookup and a stackless exception on update")
+    void should_ReturnEmptyAndThrowStacklessException_When_CartDoesNotExist() {
+        cartService.deleteCart(cartId);
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(cartService.findCartById(cartId)).isEmpty();
+        softAssertions.assertThatThrownBy(() -> cartService.updateProductsFromCart(cartId, getListOfProducts()))
+                .isInstanceOf(NotFoundException.class)
+                .hasMessage("Cart not found for the id: " + cartId)
+                .satisfies(ex -> assertThat(ex.getStackTrace()).isEmpty());
+        softAssertions.assertThatThrownBy(() -> cartService.updateProductsFromCart(cartService.createCart().getId(),
+                        List.of(new ProductDto(PRODUCT_ID, Integer.MAX_VALUE))))
+                .isInstanceOf(OutOfStockException.class)
+                .hasMessageStartingWith("Product has only ")
+                .satisfies(ex -> assertThat(ex.getStackTrace()).isEmpty());
+        softAssertions.assertAll();
+    }
+
     @Test
     @DisplayName("Verify that the carts inactive are deleted")
     void should_DeleteCarts_When_AreInactive() {
         Cart inactiveCart = cartService.createCart();
         inactiveCart.setLastUpdated(LocalDateTime.now().minusMinutes(12));
+        cartRepository.saveCart(inactiveCart);
 
         cartService.deleteInactiveCarts();
 
@@ -142,7 +182,136 @@ class CartServiceIntegrationTest {
         softAssertions.assertAll();
     }
 
+    @Test
+    @DisplayName("Verify that an inactive cart that is updated again is not deleted")
+    void should_KeepCart_When_UpdatedAfterBecomingInactive() {
+        Cart reactivatedCart = cartService.createCart();
+        reactivatedCart.setLastUpdated(LocalDateTime.now().minusMinutes(12));
+        cartRepository.saveCart(reactivatedCart);
+        cartService.updateProductsFromCart(reactivatedCart.getId(), getListOfProducts());
+
+        cartService.deleteInactiveCarts();
+
+        assertThatCode(() -> cartService.getCartById(reactivatedCart.getId()))
+                .as("Cart updated again should not be deleted").doesNotThrowAnyException();
+    }
+
+    @Test
+    @DisplayName("Verify that the stock is reserved when products are added and released when decreased")
+    void should_ReserveAndReleaseStock_When_ProductsAreUpdated() {
+        int initialStock = productAvailableRepository.getProductById(PRODUCT_ID).getStock();
+
+        cartService.updateProductsFromCart(cartId, List.of(new ProductDto(PRODUCT_ID, 5)));
+        int stockAfterAdding = productAvailableRepository.getProductById(PRODUCT_ID).getStock();
+        cartService.updateProductsFromCart(cartId, List.of(new ProductDto(PRODUCT_ID, 2)));
+        int stockAfterDecreasing = productAvailableRepository.getProductById(PRODUCT_ID).getStock();
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(stockAfterAdding).as("Stock should be reserved").isEqualTo(initialStock - 5);
+        softAssertions.assertThat(stockAfterDecreasing).as("Stock should be released").isEqualTo(initialStock - 2);
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that two carts can not take the same units")
+    void should_RejectSecondCart_When_StockIsHeldByFirstCart() {
+        int stock = productAvailableRepository.getProductById(PRODUCT_ID).getStock();
+        Long otherCartId = cartService.createCart().getId();
+
+        cartService.updateProductsFromCart(cartId, List.of(new ProductDto(PRODUCT_ID, stock)));
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThatCode(() -> cartService.updateProductsFromCart(otherCartId,
+                        List.of(new ProductDto(PRODUCT_ID, 1))))
+                .as("Second cart should be rejected").isInstanceOf(OutOfStockException.class);
+        softAssertions.assertThat(productsOf(otherCartId))
+                .as("Second cart should be empty").isEqualTo(Map.of());
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that the stock held by a cart is released when it is deleted or expires")
+    void should_ReleaseStock_When_CartIsDeletedOrExpires() {
+        int initialStock = productAvailableRepository.getProductById(PRODUCT_ID).getStock();
+        Long inactiveCartId = cartService.createCart().getId();
+        cartService.updateProductsFromCart(cartId, getListOfProducts());
+        cartService.updateProductsFromCart(inactiveCartId, getListOfProducts());
+        Cart inactiveCart = cartService.getCartById(inactiveCartId);
+        inactiveCart.setLastUpdated(LocalDateTime.now().minusMinutes(12));
+        cartRepository.saveCart(inactiveCart);
+
+        cartService.deleteCart(cartId);
+        cartService.deleteInactiveCarts();
+
+        assertThat(productAvailableRepository.getProductById(PRODUCT_ID).getStock())
+                .as("Stock should be released").isEqualTo(initialStock);
+    }
+
+    @Test
+    @DisplayName("Verify that a batch with a line out of stock leaves the cart and the stock unchanged")
+    void should_NotChangeCartNorStock_When_AnyLineIsOutOfStock() {
+        cartService.updateProductsFromCart(cartId, getListOfProducts());
+        int firstStock = productAvailableRepository.getProductById(PRODUCT_ID).getStock();
+        int secondStock = productAvailableRepository.getProductById(2L).getStock();
+
+        assertThatCode(() -> cartService.updateProductsFromCart(cartId, List.of(new ProductDto(PRODUCT_ID, 7),
+                        new ProductDto(2L, secondStock + 1))))
+                .as("Batch should be rejected").isInstanceOf(OutOfStockException.class);
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(productsOf(cartId).get(PRODUCT_ID).getAmount())
+                .as("Amount should not change").isEqualTo(2);
+        softAssertions.assertThat(productsOf(cartId))
+                .as("Rejected product should not be added").doesNotContainKey(2L);
+        softAssertions.assertThat(productAvailableRepository.getProductById(PRODUCT_ID).getStock())
+                .as("First stock should not change").isEqualTo(firstStock);
+        softAssertions.assertThat(productAvailableRepository.getProductById(2L).getStock())
+                .as("Second stock should not change").isEqualTo(secondStock);
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that a batch with an unknown product leaves the stock unchanged")
+    void should_NotChangeStock_When_AnyProductDoesNotExist() {
+        int stock = productAvailableRepository.getProductById(PRODUCT_ID).getStock();
+
+        assertThatCode(() -> cartService.updateProductsFromCart(cartId, List.of(new ProductDto(PRODUCT_ID, 2),
+                        new ProductDto(100L, 1))))
+                .as("Batch should be rejected").isInstanceOf(IllegalArgumentException.class);
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(productsOf(cartId))
+                .as("Cart should be empty").isEqualTo(Map.of());
+        softAssertions.assertThat(productAvailableRepository.getProductById(PRODUCT_ID).getStock())
+                .as("Stock should not change").isEqualTo(stock);
+        softAssertions.assertAll();
+    }
+
+    @Test
+    @DisplayName("Verify that a product leaves the available products while its stock is held and comes back after")
+    void should_UpdateAvailableProducts_When_StockIsHeldAndReleased() {
+        int stock = productAvailableRepository.getProductById(PRODUCT_ID).getStock();
+
+        cartService.updateProductsFromCart(cartId, List.of(new ProductDto(PRODUCT_ID, stock)));
+        List<Long> idsWhileHeld = productAvailableRepository.getProducts().stream()
+                .map(ProductAvailable::getId).toList();
+        cartService.deleteCart(cartId);
+        List<Long> idsAfterRelease = productAvailableRepository.getProducts(0L, 2).stream()
+                .map(ProductAvailable::getId).toList();
+
+        SoftAssertions softAssertions = new SoftAssertions();
+        softAssertions.assertThat(idsWhileHeld).as("Product without stock should not be listed")
+                .doesNotContain(PRODUCT_ID).isSorted();
+        softAssertions.assertThat(idsAfterRelease).as("Released product should be listed again")
+                .containsExactly(PRODUCT_ID, 2L);
+        softAssertions.assertAll();
+    }
+
     private List<ProductDto> getListOfProducts() {
         return List.of(new ProductDto(PRODUCT_ID, 2));
     }
+
+    private Map<Long, Product> productsOf(Long cartId) {
+        return cartService.getCartById(cartId).getProducts(productAvailableRepository::getDescription);
+    }
 }
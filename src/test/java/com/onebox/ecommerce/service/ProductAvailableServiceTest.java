@@ -1,18 +1,26 @@
 package com.onebox.ecommerce.service;
 
 import com.onebox.ecommerce.dto.ProductDto;
+import com.onebox.ecommerce.dto.ProductUpdateDto;
+import com.onebox.ecommerce.event.RequestEventLog;
 import com.onebox.ecommerce.exception.OutOfStockException;
 import com.onebox.ecommerce.model.ProductAvailable;
 import com.onebox.ecommerce.repository.ProductAvailableRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -21,6 +29,12 @@ class ProductAvailableServiceTest {
     @Mock
     private ProductAvailableRepository productRepository;
 
+    @Mock
+    private RequestEventLog eventLog;
+
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     private ProductAvailableService productService;
     private ProductDto productDTO;
@@ -37,7 +51,8 @@ class ProductAvailableServiceTest {
         ProductAvailable productAvailable = new ProductAvailable(1L, "Apple", 0);
 
         when(productRepository.getProductById(productDTO.getId())).thenReturn(productAvailable);
-        assertThrows(OutOfStockException.class, () -> productService.getProductCheckingTheStock(productDTO));
+        assertThrows(OutOfStockException.class,
+                () -> productService.adjustStock(productDTO.getId(), productDTO.getAmount()));
     }
 
     @Test
@@ -47,6 +62,40 @@ class ProductAvailableServiceTest {
         ProductAvailable productAvailable = new ProductAvailable(1L, "Apple", 2);
 
         when(productRepository.getProductById(productDTO.getId())).thenReturn(productAvailable);
-        assertThrows(OutOfStockException.class, () -> productService.getProductCheckingTheStock(productDTO));
+        assertThrows(OutOfStockException.class,
+                () -> productService.adjustStock(productDTO.getId(), productDTO.getAmount()));
+        assertEquals(2, productAvailable.getStock());
+        assertEquals(1, meterRegistry.get("ecommerce.stock.rejected").counter().count());
+        assertEquals(1, meterRegistry.get("ecommerce.stock.adjust").timer().count());
+    }
+
+    @Test
+    @DisplayName("Verify that reserving stock takes the units and releasing gives them back")
+    void should_ReserveAndReleaseStock_When_StockIsAvailable() {
+
+        ProductAvailable productAvailable = new ProductAvailable(1L, "Apple", 7);
+
+        when(productRepository.getProductById(productDTO.getId())).thenReturn(productAvailable);
+        productService.adjustStock(productDTO.getId(), productDTO.getAmount());
+        assertEquals(2, productAvailable.getStock());
+
+        productService.releaseStock(productDTO.getId(), 3);
+        assertEquals(5, productAvailable.getStock());
+    }
+
+    @Test
+    @DisplayName("Verify that a stock update counts the units reserved and released through the previous product")
+    void should_CountReservationsOfPreviousProduct_When_StockIsUpdated() {
+
+        ProductAvailableRepository catalog = new ProductAvailableRepository();
+        ProductAvailableService catalogService = new ProductAvailableService(catalog);
+        ProductAvailable previous = catalog.getProductById(1L);
+
+        catalogService.updateProducts(List.of(new ProductUpdateDto(1L, null, null, 10)));
+        assertTrue(previous.tryReserve(4));
+        assertEquals(6, catalog.getProductById(1L).getStock());
+
+        previous.release(4);
+        assertEquals(10, catalog.getProductById(1L).getStock());
     }
 }